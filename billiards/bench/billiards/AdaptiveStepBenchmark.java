@@ -0,0 +1,149 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Accuracy and cost of AdaptiveEngine against fixed steps. Each seeded table is run
+// for the horizon (rounded to whole adaptive steps) with the holes taken off, so every
+// method moves the same balls, by fixed-step SimulationEngines at 120 Hz up to 1920 Hz
+// and by the adaptive engine, and compared with a fixed-step reference at a much finer
+// rate: kinetic energy and mean ball position at the horizon. With the holes on, the
+// first ball to fall within the fall horizon is compared too. Times are the best of
+// REPS runs after a warm-up run.
+// The saving reported is against the cheapest fixed rate whose mean position error is
+// no worse than the adaptive engine's, and the adaptive moves include those spent on
+// its energy checks. Past a few collisions per ball the table is chaotic, so on crowded
+// tables every method, the reference included, drifts apart over longer horizons; keep
+// the horizon short there.
+// Usage: ant bench -Dbench.class=billiards.AdaptiveStepBenchmark
+//            [-Dbench.args="--balls 8,32,200 --seeds 3 --horizon 0.5 --fall 2 --map 0 --reference 7680"]
+public class AdaptiveStepBenchmark {
+    private static final int REPS = 10;
+    private static final int[] RATES = {120, 240, 480, 960, 1920};
+
+    public static void main(String[] args) {
+        int[] counts = {8, 32, 200};
+        int seeds = 3, map = 0, referenceHz = 7680;
+        double horizon = 0.5, fall = 2.0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--balls": counts = Arrays.stream(v.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--seeds": seeds = Integer.parseInt(v); break;
+                case "--horizon": horizon = Double.parseDouble(v); break;
+                case "--fall": fall = Double.parseDouble(v); break;
+                case "--map": map = Integer.parseInt(v); break;
+                case "--reference": referenceHz = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        horizon = Math.max(1, Math.round(horizon / AdaptiveEngine.STEP)) * AdaptiveEngine.STEP;
+        MapDef withHoles = Maps.defaults().get(map);
+        MapDef noHoles = new MapDef(withHoles.getName(), withHoles.getWidth(), withHoles.getHeight(),
+                withHoles.getTable(), withHoles.getObstacles(), List.of(), withHoles.getStartZone(),
+                withHoles.getGoalZone());
+        Rectangle bounds = withHoles.getBounds();
+        System.out.printf("map %d, %.3f s horizon, %.1f s fall horizon, %d seeds, reference fixed %d Hz; "
+                + "errors are means over seeds%n", map, horizon, fall, seeds, referenceHz);
+        System.out.printf("%-6s %-13s %9s %11s %10s %12s%n", "balls", "method", "ms", "KE error", "pos px",
+                "same first");
+        for (int n : counts) {
+            int methods = RATES.length + 1;
+            double[] ms = new double[methods], ke = new double[methods], pos = new double[methods];
+            int[] same = new int[methods];
+            long moves = 0, checkMoves = 0, pairChecks = 0, contacts = 0, violations = 0;
+            double maxDepth = 0;
+            for (int seed = 0; seed < seeds; seed++) {
+                BallStore base = new BallStore(n);
+                BallPlacer.place(base, withHoles, n, BallPlacer.radiusFor(n), new Random(100 + seed));
+                BallStore ref = base.copy();
+                fixed(ref, noHoles, bounds, 1.0 / referenceHz, horizon);
+                Predictor.Result refFirst = first(base.copy(), withHoles, 1.0 / referenceHz, fall);
+                double ke0 = kinetic(base);
+                for (int m = 0; m < methods; m++) {
+                    BallStore sim = null;
+                    AdaptiveEngine last = null;
+                    long best = Long.MAX_VALUE;
+                    for (int r = 0; r <= REPS; r++) {
+                        sim = base.copy();
+                        long t0 = System.nanoTime();
+                        if (m < RATES.length) {
+                            fixed(sim, noHoles, bounds, 1.0 / RATES[m], horizon);
+                        } else {
+                            last = new AdaptiveEngine(sim, noHoles, bounds);
+                            while (last.getTime() < horizon - 1e-9) last.step();
+                        }
+                        if (r > 0) best = Math.min(best, System.nanoTime() - t0);
+                    }
+                    ms[m] += best / 1e6;
+                    Predictor.Result f = m < RATES.length ? first(base.copy(), withHoles, 1.0 / RATES[m], fall)
+                                                          : Predictor.rolloutAdaptive(base.copy(), withHoles, fall);
+                    ke[m] += ke0 == 0 ? 0 : Math.abs(kinetic(sim) - kinetic(ref)) / ke0;
+                    pos[m] += meanDistance(sim, ref);
+                    if (sameBall(f, refFirst)) same[m]++;
+                    if (last != null) {
+                        moves += last.getMoves();
+                        checkMoves += last.getCheckMoves();
+                        pairChecks += last.getPairChecks();
+                        contacts += last.getContacts();
+                        violations += last.getPenetrationViolations();
+                        maxDepth = Math.max(maxDepth, last.getMaxPenetration());
+                    }
+                }
+            }
+            for (int m = 0; m < methods; m++) {
+                String name = m < RATES.length ? "fixed " + RATES[m] + " Hz" : "adaptive";
+                System.out.printf("%-6d %-13s %9.2f %11.2e %10.2f %9d/%d%n", n, name, ms[m] / seeds, ke[m] / seeds,
+                        pos[m] / seeds, same[m], seeds);
+            }
+            int a = RATES.length, match = -1;
+            for (int m = 0; m < RATES.length && match < 0; m++) if (pos[m] <= pos[a]) match = m;
+            if (match < 0) {
+                System.out.printf("%-6s no fixed rate up to %d Hz is as accurate as adaptive%n", "",
+                        RATES[RATES.length - 1]);
+            } else {
+                long fixedMoves = seeds * (long) n * Math.round(horizon * RATES[match]);
+                System.out.printf("%-6s cheapest fixed rate as accurate: %d Hz, %.1fx the adaptive time, "
+                        + "%.1fx its moves%n", "", RATES[match], ms[match] / ms[a], (double) fixedMoves / moves);
+            }
+            System.out.printf("%-6s adaptive, all seeds: %d moves (%d of them energy checks), %d pair checks,%n",
+                    "", moves, checkMoves, pairChecks);
+            System.out.printf("%-6s   %d contacts, depth max %.3f, %d over tolerance%n", "", contacts, maxDepth,
+                    violations);
+        }
+    }
+
+    private static void fixed(BallStore sim, MapDef map, Rectangle bounds, double dt, double horizon) {
+        SimulationEngine e = new SimulationEngine(sim, map, bounds, 1, dt);
+        for (long s = 0, steps = Math.round(horizon / dt); s < steps; s++) e.tick();
+    }
+
+    // first fall by fixed steps, timed at the end of its tick
+    private static Predictor.Result first(BallStore sim, MapDef map, double dt, double horizon) {
+        SimulationEngine e = new SimulationEngine(sim, map, map.getBounds(), 1, dt);
+        for (long s = 0, steps = Math.round(horizon / dt); s < steps; s++) {
+            e.tick();
+            if (e.getFallenCount() > 0) return new Predictor.Result(sim.getId(e.getFallen(0)), (s + 1) * dt);
+        }
+        return null;
+    }
+
+    private static boolean sameBall(Predictor.Result a, Predictor.Result b) {
+        return a == null ? b == null : b != null && a.ballId == b.ballId;
+    }
+
+    private static double kinetic(BallStore s) {
+        double e = 0;
+        for (int i = 0; i < s.size(); i++) if (s.isAlive(i)) e += 0.5 * (s.vx[i]*s.vx[i] + s.vy[i]*s.vy[i]);
+        return e;
+    }
+
+    // mean distance between the same balls of two runs of one table
+    private static double meanDistance(BallStore a, BallStore b) {
+        double d = 0;
+        for (int i = 0; i < a.size(); i++) d += Math.hypot(a.x[i] - b.x[i], a.y[i] - b.y[i]);
+        return a.size() == 0 ? 0 : d / a.size();
+    }
+}
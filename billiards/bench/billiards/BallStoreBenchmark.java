@@ -0,0 +1,121 @@
+package billiards;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Heap footprint and integrate cost of the old List<Ball> of volatile objects against
+// BallStore. The integrate loop is the same wall-bounce/friction step in both cases.
+// Usage: ant bench -Dbench.class=billiards.BallStoreBenchmark [-Dbench.args="200 20000"]
+public class BallStoreBenchmark {
+    private static final Rectangle BOUNDS = new Rectangle(40, 40, 920, 520);
+    private static final int TICKS = 2000;
+    private static final int HEAP_SAMPLE = 200000;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? parse(args) : new int[]{200, 2000, 20000, 200000};
+        System.out.printf("%-8s %14s %14s %14s %14s%n", "balls", "legacy B/ball", "store B/ball",
+                "legacy ns/b/t", "store ns/b/t");
+        for (int n : counts) {
+            // several replicas for small counts so the heap delta rises above GC noise
+            int replicas = Math.max(1, HEAP_SAMPLE / n);
+            Object[] keep = new Object[replicas];
+            long before = usedHeap();
+            for (int r = 0; r < replicas; r++) keep[r] = legacy(n);
+            long legacyBytes = usedHeap() - before;
+            List<LegacyBall> legacy = legacy(n);
+            keep = new Object[replicas];
+            before = usedHeap();
+            for (int r = 0; r < replicas; r++) keep[r] = store(n);
+            long storeBytes = usedHeap() - before;
+            BallStore store = store(n);
+            keep = null;
+            double legacyNs = timeLegacy(legacy);
+            double storeNs = timeStore(store);
+            System.out.printf("%-8d %14.1f %14.1f %14.2f %14.2f%n", n, legacyBytes / (double) n / replicas,
+                    storeBytes / (double) n / replicas, legacyNs, storeNs);
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] r = new int[args.length];
+        for (int i = 0; i < args.length; i++) r[i] = Integer.parseInt(args[i]);
+        return r;
+    }
+
+    private static List<LegacyBall> legacy(int n) {
+        Random rnd = new Random(3);
+        List<LegacyBall> balls = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < n; i++) {
+            balls.add(new LegacyBall(i+1, 100 + rnd.nextDouble()*800, 100 + rnd.nextDouble()*400,
+                    rnd.nextDouble()*400 - 200, rnd.nextDouble()*400 - 200, 4, Color.WHITE));
+        }
+        return balls;
+    }
+
+    private static BallStore store(int n) {
+        Random rnd = new Random(3);
+        BallStore store = new BallStore(n);
+        for (int i = 0; i < n; i++) {
+            store.add(i+1, 100 + rnd.nextDouble()*800, 100 + rnd.nextDouble()*400,
+                    rnd.nextDouble()*400 - 200, rnd.nextDouble()*400 - 200, 4, Color.WHITE);
+        }
+        return store;
+    }
+
+    private static double timeLegacy(List<LegacyBall> balls) {
+        double dt = SimulationEngine.DT, damping = Math.pow(SimulationEngine.FRICTION, dt * 60);
+        int ticks = ticksFor(balls.size());
+        long t0 = 0;
+        for (int t = -ticks / 4; t < ticks; t++) {
+            if (t == 0) t0 = System.nanoTime();
+            synchronized (balls) {
+                for (LegacyBall b : balls) {
+                    if (!b.isAlive()) continue;
+                    double nx = b.getX() + b.getVx()*dt, ny = b.getY() + b.getVy()*dt;
+                    double nvx = b.getVx()*damping, nvy = b.getVy()*damping;
+                    if (nx - b.getRadius() < BOUNDS.x || nx + b.getRadius() > BOUNDS.x + BOUNDS.width) nvx = -nvx;
+                    if (ny - b.getRadius() < BOUNDS.y || ny + b.getRadius() > BOUNDS.y + BOUNDS.height) nvy = -nvy;
+                    b.setPosition(nx, ny);
+                    b.setVelocity(nvx, nvy);
+                }
+            }
+        }
+        return (System.nanoTime() - t0) / (double) ticks / balls.size();
+    }
+
+    private static double timeStore(BallStore store) {
+        double dt = SimulationEngine.DT, damping = Math.pow(SimulationEngine.FRICTION, dt * 60);
+        double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        int[] radius = store.radius;
+        int n = store.size();
+        int ticks = ticksFor(n);
+        long t0 = 0;
+        for (int t = -ticks / 4; t < ticks; t++) {
+            if (t == 0) t0 = System.nanoTime();
+            synchronized (store) {
+                for (int i = 0; i < n; i++) {
+                    if (!store.isAlive(i)) continue;
+                    double nx = x[i] + vx[i]*dt, ny = y[i] + vy[i]*dt;
+                    double nvx = vx[i]*damping, nvy = vy[i]*damping;
+                    if (nx - radius[i] < BOUNDS.x || nx + radius[i] > BOUNDS.x + BOUNDS.width) nvx = -nvx;
+                    if (ny - radius[i] < BOUNDS.y || ny + radius[i] > BOUNDS.y + BOUNDS.height) nvy = -nvy;
+                    x[i] = nx; y[i] = ny; vx[i] = nvx; vy[i] = nvy;
+                }
+            }
+        }
+        return (System.nanoTime() - t0) / (double) ticks / n;
+    }
+
+    private static int ticksFor(int n) {
+        return Math.max(20, (int) Math.min(TICKS, 20_000_000L / n));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,101 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+// How one large table split into strips across processes (DomainCoordinator) scales
+// with the process count. Runs the same seeded table on one in-process engine, then on
+// each worker count, and reports the tick rate, the speedup over one worker process,
+// the halo and migration traffic, and checks on the final table: balls lost or
+// duplicated between strips, the deepest overlap left between two balls, and how many
+// falls the hole order shares with the single engine's before it departs. Starting the
+// JVMs and the deal are not part of the tick rate.
+//
+// Speedup needs a core per worker; on fewer cores the workers take turns and the
+// lock step's round trips add to the tick instead.
+//
+// Usage: ant bench -Dbench.class=billiards.DomainScalingBenchmark
+//            [-Dbench.args="--balls 100000 --duration 1 --workers 1,2,4 --width 4800 --height 2880
+//                           --map 0 --seed 1 --threads 1"]
+public class DomainScalingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int balls = 100_000, map = 0, threads = 1, width = 4800, height = 2880;
+        long seed = 1L;
+        double duration = 1.0;
+        int[] workers = {1, 2, 4};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--duration": duration = Double.parseDouble(v); break;
+                case "--workers": workers = Arrays.stream(v.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--width": width = Integer.parseInt(v); break;
+                case "--height": height = Integer.parseInt(v); break;
+                case "--map": map = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        List<MapDef> maps = Maps.defaults(width, height);
+        System.out.printf("map %d at %dx%d, %d balls, seed %d, %.1f s simulated, %d engine threads per process, %d cores%n",
+                map, width, height, balls, seed, duration, threads, Runtime.getRuntime().availableProcessors());
+        HeadlessRunner.RunResult single = HeadlessRunner.run(maps, map, balls, seed, duration, threads);
+        System.out.printf("%-9s %6s %9s %8s %8s %9s %9s %8s %6s %8s %6s %7s%n", "processes", "ticks", "wall ms",
+                "ticks/s", "speedup", "halo/tick", "migr/tick", "live", "lost", "overlap", "falls", "same");
+        row("engine", single, -1, -1, -1, -1, 0, -1, single);
+        double base = 0;
+        for (int w : workers) {
+            DomainCoordinator.Result res = DomainCoordinator.run(null, width, height, map, balls, seed, duration, w,
+                    threads);
+            HeadlessRunner.RunResult r = res.run;
+            double rate = r.ticks / (r.wallNanos / 1e9);
+            if (base == 0) base = rate;
+            BallStore t = res.table;
+            int lost = r.ballCount - r.holeOrder.size() - t.size();
+            if (distinctIds(t) != t.size()) lost = -1; // a ball in two strips
+            row(Integer.toString(w), r, rate / base, res.haloBalls / (double) r.ticks,
+                    res.migrations / (double) r.ticks, t.size(), lost, maxOverlap(t, maps.get(map).getBounds()), single);
+            System.out.printf("%9s dealt %s, start %.0f ms%n", "", Arrays.toString(res.dealt), res.startNanos / 1e6);
+        }
+    }
+
+    private static void row(String name, HeadlessRunner.RunResult r, double speedup, double halo, double migr,
+                            int live, int lost, double overlap, HeadlessRunner.RunResult single) {
+        System.out.printf("%-9s %6d %9.1f %8.1f %8s %9s %9s %8s %6d %8s %6d %7d%n", name, r.ticks, r.wallNanos / 1e6,
+                r.ticks / (r.wallNanos / 1e9), speedup < 0 ? "-" : String.format("%.2fx", speedup),
+                halo < 0 ? "-" : String.format("%.1f", halo), migr < 0 ? "-" : String.format("%.2f", migr),
+                live < 0 ? "-" : Integer.toString(live), lost, overlap < 0 ? "-" : String.format("%.3f", overlap),
+                r.holeOrder.size(),
+                samePrefix(r.holeOrder, single.holeOrder));
+    }
+
+    // falls at the start of both orders that are the same ball at the same time
+    private static int samePrefix(List<HeadlessRunner.Fall> a, List<HeadlessRunner.Fall> b) {
+        int k = 0;
+        while (k < a.size() && k < b.size() && a.get(k).ballId == b.get(k).ballId && a.get(k).timeS == b.get(k).timeS) k++;
+        return k;
+    }
+
+    private static int distinctIds(BallStore t) {
+        int[] ids = Arrays.copyOf(t.id, t.size());
+        Arrays.sort(ids);
+        int d = 0;
+        for (int i = 0; i < ids.length; i++) if (i == 0 || ids[i] != ids[i - 1]) d++;
+        return d;
+    }
+
+    // deepest overlap between two balls of the table
+    private static double maxOverlap(BallStore t, Rectangle bounds) {
+        UniformGrid grid = new UniformGrid();
+        grid.build(bounds, 2 * t.maxRadius(), t);
+        double max = 0;
+        for (int k = 0, n = grid.findPairs(); k < n; k++) {
+            int a = grid.pairA(k), b = grid.pairB(k);
+            double d = Math.hypot(t.x[b] - t.x[a], t.y[b] - t.y[a]);
+            max = Math.max(max, t.radius[a] + t.radius[b] - d);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,60 @@
+package billiards;
+
+import java.awt.*;
+import java.util.List;
+import java.util.Random;
+
+// Cost of simulating a full 10 s on the three maps with the 5 ms stepping predictor
+// (2000 steps) vs the event-driven engine. The hole is moved off the table so both
+// run the whole horizon, and the first-to-hole answer is compared on the real map.
+// Usage: ant bench -Dbench.class=billiards.EventDrivenBenchmark [-Dbench.args="8 32 200"]
+public class EventDrivenBenchmark {
+    private static final double HORIZON = 10.0;
+    private static final int REPS = 5;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? parse(args) : new int[]{8, 32, 200};
+        List<MapDef> maps = Maps.defaults();
+        System.out.printf("%-4s %-6s %12s %12s %10s %10s   %s%n", "map", "balls", "stepping ms", "events ms",
+                "events", "speedup", "first to hole (stepping / exact)");
+        for (int m = 0; m < maps.size(); m++) {
+            MapDef map = maps.get(m);
+            MapDef noHole = new MapDef(map.getName(), map.getWidth(), map.getHeight(), map.getTable(),
+                    map.getObstacles(), List.of(), map.getStartZone(), map.getGoalZone());
+            Rectangle bounds = map.getBounds();
+            for (int n : counts) {
+                BallStore base = new BallStore(n);
+                BallPlacer.place(base, map, n, BallPlacer.radiusFor(n), new Random(21));
+                long stepBest = Long.MAX_VALUE, eventBest = Long.MAX_VALUE, eventCount = 0;
+                for (int r = 0; r < REPS; r++) {
+                    BallStore sim = base.copy();
+                    long t0 = System.nanoTime();
+                    SimulationEngine engine = new SimulationEngine(sim, noHole, bounds, 1, Predictor.DT);
+                    for (int s = 0; s < (int) Math.ceil(HORIZON / Predictor.DT); s++) engine.tick();
+                    stepBest = Math.min(stepBest, System.nanoTime() - t0);
+
+                    sim = base.copy();
+                    t0 = System.nanoTime();
+                    EventDrivenEngine ev = new EventDrivenEngine(sim, noHole, bounds, HORIZON);
+                    ev.runUntilFall();
+                    eventBest = Math.min(eventBest, System.nanoTime() - t0);
+                    eventCount = ev.getEventCount();
+                }
+                Predictor.Result a = Predictor.rollout(base.copy(), map, HORIZON);
+                Predictor.Result b = Predictor.rolloutEvents(base.copy(), map, HORIZON);
+                System.out.printf("%-4d %-6d %12.3f %12.3f %10d %9.1fx   %s / %s%n", m, n, stepBest / 1e6,
+                        eventBest / 1e6, eventCount, stepBest / (double) eventBest, describe(a), describe(b));
+            }
+        }
+    }
+
+    private static String describe(Predictor.Result r) {
+        return r == null ? "none" : String.format("#%d@%.3f", r.ballId, r.timeS);
+    }
+
+    private static int[] parse(String[] args) {
+        int[] r = new int[args.length];
+        for (int i = 0; i < args.length; i++) r[i] = Integer.parseInt(args[i]);
+        return r;
+    }
+}
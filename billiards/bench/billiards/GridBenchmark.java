@@ -0,0 +1,91 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Random;
+
+// Scaling of the collision broad-phase: all-pairs scan vs UniformGrid, plus the
+// full SimulationEngine tick. The table grows with the ball count so density stays
+// around 20% coverage, like a busy 200-ball table.
+// Usage: ant bench -Dbench.class=billiards.GridBenchmark [-Dbench.args="200 2000 50000"]
+public class GridBenchmark {
+    private static final int RADIUS = 3;
+    private static final int ALL_PAIRS_CAP = 20000;
+    private static final int REPS = 20;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? parse(args) : new int[]{200, 1000, 5000, 20000, 50000};
+        System.out.printf("%-8s %14s %14s %12s %14s%n", "balls", "allpairs ms", "grid ms", "candidates", "engine tick ms");
+        for (int n : counts) {
+            int side = (int) Math.ceil(Math.sqrt(n * Math.PI * RADIUS * RADIUS / 0.2));
+            Rectangle bounds = new Rectangle(0, 0, side * 5 / 3, side * 3 / 5);
+            BallStore store = new BallStore(n);
+            Random rnd = new Random(7);
+            for (int i = 0; i < n; i++) {
+                double a = rnd.nextDouble() * 2*Math.PI;
+                store.add(i+1, RADIUS + rnd.nextDouble() * (bounds.width - 2*RADIUS),
+                        RADIUS + rnd.nextDouble() * (bounds.height - 2*RADIUS),
+                        Math.cos(a)*200, Math.sin(a)*200, RADIUS, Color.WHITE);
+            }
+            double[] xs = store.x, ys = store.y;
+            String allPairs = n <= ALL_PAIRS_CAP ? String.format("%.3f", allPairs(xs, ys, n)) : "n/a";
+            UniformGrid grid = new UniformGrid();
+            int candidates = 0;
+            long sink = 0;
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < REPS; r++) {
+                long t0 = System.nanoTime();
+                grid.build(bounds, 2*RADIUS, store);
+                candidates = grid.findPairs();
+                double min2 = 4.0*RADIUS*RADIUS;
+                for (int k = 0; k < candidates; k++) {
+                    int a = grid.pairA(k), b = grid.pairB(k);
+                    double dx = xs[b] - xs[a], dy = ys[b] - ys[a];
+                    if (dx*dx + dy*dy < min2) sink++;
+                }
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            System.out.printf("%-8d %14s %14.3f %12d %14.3f%n", n, allPairs, best / 1e6, candidates,
+                    engineTick(store.copy(), bounds));
+            if (sink < 0) System.out.println(sink);
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] r = new int[args.length];
+        for (int i = 0; i < args.length; i++) r[i] = Integer.parseInt(args[i]);
+        return r;
+    }
+
+    private static double allPairs(double[] xs, double[] ys, int n) {
+        double min2 = 4.0*RADIUS*RADIUS;
+        long best = Long.MAX_VALUE, hits = 0;
+        for (int r = 0; r < Math.max(1, REPS * 200 / n); r++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                for (int j = i+1; j < n; j++) {
+                    double dx = xs[j] - xs[i], dy = ys[j] - ys[i];
+                    if (dx*dx + dy*dy < min2) hits++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        if (hits < 0) System.out.println(hits);
+        return best / 1e6;
+    }
+
+    private static double engineTick(BallStore balls, Rectangle bounds) {
+        // hole parked outside the table so every ball stays in play
+        MapDef map = new MapDef("bench", bounds.width, bounds.height, 0, new Point(-1000, -1000), 1,
+                bounds, bounds);
+        SimulationEngine engine = new SimulationEngine(balls, map, bounds);
+        for (int i = 0; i < 5; i++) engine.tick();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < REPS; r++) {
+            long t0 = System.nanoTime();
+            engine.tick();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        engine.shutdown();
+        return best / 1e6;
+    }
+}
@@ -0,0 +1,32 @@
+package billiards;
+
+import java.awt.*;
+import java.io.Serializable;
+
+// Copy of the original object-per-ball representation (volatile fields, synchronized
+// setters), kept only so benchmarks can compare against it.
+public class LegacyBall implements Serializable {
+    private final int id;
+    private volatile double x, y;
+    private volatile double vx, vy;
+    private volatile int radius;
+    private volatile boolean alive = true;
+    private final Color color;
+
+    public LegacyBall(int id, double x, double y, double vx, double vy, int radius, Color color) {
+        this.id = id; this.x = x; this.y = y; this.vx = vx; this.vy = vy; this.radius = radius; this.color = color;
+    }
+
+    public int getId() { return id; }
+    public double getX() { return x; }
+    public double getY() { return y; }
+    public double getVx() { return vx; }
+    public double getVy() { return vy; }
+    public int getRadius() { return radius; }
+    public Color getColor() { return color; }
+    public boolean isAlive() { return alive; }
+
+    public synchronized void setPosition(double nx, double ny) { this.x = nx; this.y = ny; }
+    public synchronized void setVelocity(double nvx, double nvy) { this.vx = nvx; this.vy = nvy; }
+    public synchronized void setAlive(boolean a) { this.alive = a; }
+}
@@ -0,0 +1,48 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Random;
+
+// Copy of the original BallPlacer.place (up to 1000 random tries per ball, each checked
+// against every placed ball, then a fixed grid that ignores balls and geometry), kept
+// only so benchmarks can compare against it.
+public class LegacyPlacer {
+    public static void place(BallStore balls, MapDef m, int ballCount, int radius, Random rnd) {
+        Rectangle s = m.getStartZone();
+        int attemptsPerBall = 1000;
+        balls.clear();
+        for (int i = 0; i < ballCount; i++) {
+            boolean placed = false;
+            for (int att = 0; att < attemptsPerBall && !placed; att++) {
+                double x = s.x + radius + rnd.nextDouble() * Math.max(0, s.width - 2*radius);
+                double y = s.y + radius + rnd.nextDouble() * Math.max(0, s.height - 2*radius);
+                boolean ok = m.getGeometry().isClear(x, y, radius);
+                for (int j = 0; ok && j < balls.size(); j++) {
+                    double dx = balls.getX(j) - x;
+                    double dy = balls.getY(j) - y;
+                    if (Math.hypot(dx, dy) < balls.getRadius(j) + radius + 2) {
+                        ok = false; break;
+                    }
+                }
+                if (ok) {
+                    add(balls, i, x, y, radius, rnd);
+                    placed = true;
+                }
+            }
+            if (!placed) {
+                int col = i % Math.max(1, (s.width / (2*radius+2)));
+                int row = i / Math.max(1, (s.width / (2*radius+2)));
+                double x = s.x + radius + col * (2*radius + 2);
+                double y = s.y + radius + row * (2*radius + 2);
+                add(balls, i, x, y, radius, rnd);
+            }
+        }
+    }
+
+    private static void add(BallStore balls, int i, double x, double y, int radius, Random rnd) {
+        double angle = rnd.nextDouble() * 2*Math.PI;
+        double speed = 150 + rnd.nextDouble() * (260 - 150);
+        balls.add(i+1, x, y, Math.cos(angle)*speed, Math.sin(angle)*speed, radius,
+                Ball.COLOR_POOL[i % Ball.COLOR_POOL.length]);
+    }
+}
@@ -0,0 +1,89 @@
+package billiards;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Frame time of TableRenderer's level-of-detail path against numbered sprites for
+// every ball, at growing ball counts, for the whole table and zoomed into its centre.
+// Reports the level each frame settled on, how many balls were in view and drawn one
+// by one, and frames cut short by the budget. The last column is the old path (LOD
+// off), which draws every ball regardless of size or count.
+// Usage: ant bench -Dbench.class=billiards.LodRenderBenchmark
+//            [-Dbench.args="--balls 200,2000,20000,100000 --zoom 8 --frames 60 --budget 8"]
+public class LodRenderBenchmark {
+    public static void main(String[] args) {
+        int[] counts = {200, 2_000, 20_000, 100_000};
+        double zoom = 8;
+        int frames = 60;
+        long budget = TableRenderer.DEFAULT_BUDGET_NANOS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--balls": counts = Arrays.stream(v.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--zoom": zoom = Double.parseDouble(v); break;
+                case "--frames": frames = Integer.parseInt(v); break;
+                case "--budget": budget = (long) (Double.parseDouble(v) * 1e6); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        List<MapDef> maps = Maps.defaults();
+        MapDef map = maps.get(0);
+        Rectangle bound = map.getBounds();
+        int w = Maps.DEFAULT_WIDTH, h = Maps.DEFAULT_HEIGHT;
+        TableRenderer.View zoomed = TableRenderer.View.ALL.zoom(zoom, w / 2.0, h / 2.0, w, h);
+        System.out.printf("%d frames each, %.0f ms ball budget, %d cores%n", frames, budget / 1e6,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %-6s %9s %8s %8s %8s %6s %11s%n", "balls", "view", "level", "in view", "drawn",
+                "ms/frame", "cut", "LOD off ms");
+        for (int n : counts) {
+            Snapshot snap = table(bound, n);
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            for (TableRenderer.View v : new TableRenderer.View[]{TableRenderer.View.ALL, zoomed}) {
+                TableRenderer on = new TableRenderer(w, h);
+                on.setBudgetNanos(budget);
+                on.setView(v);
+                double ms = time(on, img, map, bound, snap, frames);
+                TableRenderer off = new TableRenderer(w, h);
+                off.setLod(false);
+                off.setView(v);
+                double offMs = time(off, img, map, bound, snap, Math.min(frames, 5));
+                System.out.printf("%-8d %-6s %9s %8d %8d %8.2f %6d %11.2f%n", n,
+                        v.isAll() ? "all" : String.format("%.0fx", v.scale), on.getDetail().name().toLowerCase(),
+                        on.getVisibleBalls(), on.getDrawnBalls(), ms, on.getCutFrames(), offMs);
+            }
+        }
+    }
+
+    // mean ms per frame after a warm-up frame
+    private static double time(TableRenderer tr, BufferedImage img, MapDef map, Rectangle bound, Snapshot snap,
+                               int frames) {
+        frame(tr, img, map, bound, snap);
+        long t0 = System.nanoTime();
+        for (int f = 0; f < frames; f++) frame(tr, img, map, bound, snap);
+        return (System.nanoTime() - t0) / 1e6 / frames;
+    }
+
+    private static void frame(TableRenderer tr, BufferedImage img, MapDef map, Rectangle bound, Snapshot snap) {
+        Graphics2D g = img.createGraphics();
+        tr.paintTable(g, map, bound);
+        tr.paintBalls(g, snap);
+        g.dispose();
+    }
+
+    private static Snapshot table(Rectangle bound, int n) {
+        BallStore store = new BallStore(n);
+        int r = BallPlacer.radiusFor(n);
+        Random rnd = new Random(3);
+        for (int i = 0; i < n; i++) {
+            store.add(i + 1, bound.x + r + rnd.nextDouble() * (bound.width - 2 * r),
+                    bound.y + r + rnd.nextDouble() * (bound.height - 2 * r), 0, 0, r,
+                    Ball.COLOR_POOL[i % Ball.COLOR_POOL.length]);
+        }
+        Snapshot snap = new Snapshot();
+        snap.copyFrom(store, 0, 0);
+        return snap;
+    }
+}
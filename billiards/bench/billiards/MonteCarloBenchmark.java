@@ -0,0 +1,34 @@
+package billiards;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Rollouts/sec of MonteCarloPredictor as the pool grows, to check scaling with cores.
+// Early stopping is disabled so every run does the same number of rollouts.
+// Usage: ant bench -Dbench.class=billiards.MonteCarloBenchmark [-Dbench.args="200 256"]
+public class MonteCarloBenchmark {
+    public static void main(String[] args) {
+        int balls = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        List<MapDef> maps = Maps.defaults();
+        MapDef map = maps.get(0);
+        BallStore store = new BallStore(balls);
+        BallPlacer.place(store, map, balls, BallPlacer.radiusFor(balls), new Random(5));
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %14s %10s%n", "threads", "rollouts/s", "speedup");
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            MonteCarloPredictor mc = new MonteCarloPredictor(pool, 42);
+            mc.setMaxSamples(samples);
+            mc.setTargetHalfWidth(0);
+            mc.predict(store, map, 10.0); // warm-up
+            MonteCarloPredictor.Distribution d = mc.predict(store, map, 10.0);
+            double rate = d.samples / (d.wallNanos / 1e9);
+            if (threads == 1) base = rate;
+            System.out.printf("%-8d %14.1f %10.2f%n", threads, rate, rate / base);
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+// Time to spawn n balls with BallPlacer vs the original placer (LegacyPlacer), and
+// whether the result is valid: balls closer than the placer's spacing or not clear of
+// the cushions. The start zone is sized for the ball count at two densities: "loose"
+// leaves room for random tries, "packed" is beyond what random tries can reach, so the
+// original placer falls back to its grid. The original gets a single run, and is skipped
+// above LEGACY_CAP balls (LEGACY_PACKED_CAP when packed: 10000 packed balls take minutes).
+// Usage: ant bench -Dbench.class=billiards.PlacementBenchmark [-Dbench.args="200 2000 10000 50000"]
+public class PlacementBenchmark {
+    private static final int LEGACY_CAP = 10000;
+    private static final int LEGACY_PACKED_CAP = 2000;
+    private static final int REPS = 3;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                                       : new int[]{200, 2000, 10000, 50000};
+        System.out.printf("%-8s %-7s %-7s %12s %8s %9s %9s%n", "balls", "zone", "placer", "ms", "placed", "overlaps", "off cloth");
+        for (int n : counts) {
+            for (double coverage : new double[]{0.3, 0.7}) {
+                int r = BallPlacer.radiusFor(n);
+                // coverage counts each ball's exclusion disc of radius r + 1
+                int side = (int) Math.ceil(Math.sqrt(n * Math.PI * (r + 1) * (r + 1) / coverage));
+                Rectangle zone = new Rectangle(0, 0, side, side);
+                // table twice the zone, hole parked outside it
+                MapDef map = new MapDef("bench", 2 * side, side, 0, new Point(-1000, -1000), 1, zone, zone);
+                boolean packed = coverage > 0.5;
+                String label = packed ? "packed" : "loose";
+                run(n, label, "new", map, r, false);
+                if (n <= (packed ? LEGACY_PACKED_CAP : LEGACY_CAP)) run(n, label, "legacy", map, r, true);
+            }
+        }
+    }
+
+    private static void run(int n, String zone, String name, MapDef map, int r, boolean legacy) {
+        BallStore store = new BallStore(n);
+        long best = Long.MAX_VALUE;
+        for (int rep = 0; rep < (legacy ? 1 : REPS); rep++) {
+            long t0 = System.nanoTime();
+            if (legacy) LegacyPlacer.place(store, map, n, r, new Random(11));
+            else BallPlacer.place(store, map, n, r, new Random(11));
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        int off = 0;
+        for (int i = 0; i < store.size(); i++) if (!map.getGeometry().isClear(store.getX(i), store.getY(i), r)) off++;
+        System.out.printf("%-8d %-7s %-7s %12.2f %8d %9d %9d%n", n, zone, name, best / 1e6, store.size(),
+                overlaps(store, 2*r + 2), off);
+    }
+
+    // pairs closer than d, by a sweep over the balls sorted by x
+    private static long overlaps(BallStore s, double d) {
+        int n = s.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(s.getX(a), s.getX(b)));
+        long count = 0;
+        for (int a = 0; a < n; a++) {
+            int i = order[a];
+            for (int b = a + 1; b < n && s.getX(order[b]) - s.getX(i) < d; b++) {
+                int j = order[b];
+                double dx = s.getX(j) - s.getX(i), dy = s.getY(j) - s.getY(i);
+                if (dx*dx + dy*dy < d*d - 1e-6) count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,140 @@
+package billiards;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// What PredictionCache saves Predictor on tables it has seen or nearly seen. For each
+// seeded table: a cold ask (a miss, a full rollout), the same table again (a hit), and
+// the table some checkpoints into its own rollout with every ball nudged by a fraction
+// of a quantum (a near hit, which resumes the cached rollout). Each answer is checked
+// against an uncached rollout of the same table. Then threads ask about one new table
+// at once, which should cost one rollout, and more tables than the cache holds, which
+// should evict.
+//
+// Usage: ant bench -Dbench.class=billiards.PredictionCacheBenchmark
+//            [-Dbench.args="--balls 40 --tables 20 --horizon 10 --checkpoints 3 --threads 4"]
+public class PredictionCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        int balls = 40, tables = 20, checkpoints = 3, threads = 4;
+        double horizon = 10.0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--tables": tables = Integer.parseInt(v); break;
+                case "--horizon": horizon = Double.parseDouble(v); break;
+                case "--checkpoints": checkpoints = Integer.parseInt(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        List<MapDef> maps = Maps.defaults();
+        MapDef map = maps.get(0);
+        PredictionCache<Predictor.Trajectory> cache = new PredictionCache<>();
+        Predictor cached = new Predictor(cache), plain = new Predictor();
+        long[] nanos = new long[4]; // uncached, cold, exact, near
+        int[] same = new int[3];
+        int near = 0;
+        for (int t = 0; t < tables; t++) {
+            BallStore table = table(map, balls, t);
+            BallStore later = advance(table, map, checkpoints * Predictor.CHECKPOINT_STEPS);
+            nudge(later, new Random(t));
+
+            long t0 = System.nanoTime();
+            Predictor.Result truth = plain.predictFirstToHole(table, map, horizon);
+            long t1 = System.nanoTime();
+            Predictor.Result cold = cached.predictFirstToHole(table, map, horizon);
+            long t2 = System.nanoTime();
+            Predictor.Result exact = cached.predictFirstToHole(table, map, horizon);
+            long t3 = System.nanoTime();
+            long nearHits = cache.getNearHits();
+            Predictor.Result resumed = cached.predictFirstToHole(later, map, horizon);
+            long t4 = System.nanoTime();
+            if (cache.getNearHits() > nearHits) near++;
+            Predictor.Result laterTruth = plain.predictFirstToHole(later, map, horizon);
+
+            nanos[0] += t1 - t0; nanos[1] += t2 - t1; nanos[2] += t3 - t2; nanos[3] += t4 - t3;
+            if (same(cold, truth)) same[0]++;
+            if (same(exact, truth)) same[1]++;
+            if (sameBall(resumed, laterTruth)) same[2]++;
+        }
+        System.out.printf("map 0, %d balls, %d tables, %.1f s horizon, near tables %d steps in%n", balls, tables,
+                horizon, checkpoints * Predictor.CHECKPOINT_STEPS);
+        System.out.printf("%-9s %10s %9s %12s%n", "ask", "ms/ask", "speedup", "same answer");
+        System.out.printf("%-9s %10.3f %9s %12s%n", "uncached", nanos[0] / 1e6 / tables, "-", "-");
+        row("cold", nanos[1], nanos[0], tables, same[0], tables);
+        row("exact", nanos[2], nanos[0], tables, same[1], tables);
+        row("near", nanos[3], nanos[0], tables, same[2], tables);
+        System.out.printf("near asks handed a checkpoint: %d/%d (same answer counts the ball only)%n", near, tables);
+        System.out.printf("counters: %d hits, %d near hits, %d misses, %d evictions, %d held%n", cache.getHits(),
+                cache.getNearHits(), cache.getMisses(), cache.getEvictions(), cache.size());
+
+        // concurrent callers on one new table share one rollout
+        cache.resetCounters();
+        BallStore shared = table(map, balls, tables);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Predictor.Result>> asks = new ArrayList<>();
+        double h = horizon;
+        for (int k = 0; k < threads; k++) {
+            asks.add(pool.submit(() -> {
+                go.await();
+                return cached.predictFirstToHole(shared, map, h);
+            }));
+        }
+        go.countDown();
+        boolean agree = true;
+        for (Future<Predictor.Result> f : asks) agree &= same(f.get(), asks.get(0).get());
+        pool.shutdown();
+        System.out.printf("%d threads at once: %d misses, %d hits, answers agree %b%n", threads, cache.getMisses(),
+                cache.getHits(), agree);
+
+        // more tables than fit
+        PredictionCache<Predictor.Trajectory> small = new PredictionCache<>(4);
+        Predictor bounded = new Predictor(small);
+        for (int t = 0; t < 8; t++) bounded.predictFirstToHole(table(map, balls, t), map, 1.0);
+        bounded.predictFirstToHole(table(map, balls, 7), map, 1.0);
+        bounded.predictFirstToHole(table(map, balls, 0), map, 1.0);
+        System.out.printf("capacity %d, 8 tables then the newest and the oldest again: %d evictions, %d hits, "
+                + "%d misses%n", small.getCapacity(), small.getEvictions(), small.getHits(), small.getMisses());
+    }
+
+    private static void row(String name, long ns, long base, int tables, int same, int of) {
+        System.out.printf("%-9s %10.3f %8.1fx %8d/%d%n", name, ns / 1e6 / tables, base / (double) ns, same, of);
+    }
+
+    private static BallStore table(MapDef map, int balls, long seed) {
+        BallStore s = new BallStore(balls);
+        BallPlacer.place(s, map, balls, BallPlacer.radiusFor(balls), new Random(seed));
+        return s;
+    }
+
+    // the table steps into a rollout, as Predictor steps it
+    private static BallStore advance(BallStore table, MapDef map, int steps) {
+        BallStore s = table.copy();
+        SimulationEngine engine = new SimulationEngine(s, map, map.getBounds(), 1, Predictor.DT);
+        for (int k = 0; k < steps; k++) engine.tick();
+        return s;
+    }
+
+    // moves every ball by under a tenth of a quantum
+    private static void nudge(BallStore s, Random rnd) {
+        for (int i = 0; i < s.size(); i++) {
+            double d = 0.1 * PredictionCache.POSITION_QUANTUM;
+            s.setPosition(i, s.getX(i) + (rnd.nextDouble() - 0.5) * d, s.getY(i) + (rnd.nextDouble() - 0.5) * d);
+        }
+    }
+
+    private static boolean same(Predictor.Result a, Predictor.Result b) {
+        return a == null ? b == null : b != null && a.ballId == b.ballId && a.timeS == b.timeS;
+    }
+
+    private static boolean sameBall(Predictor.Result a, Predictor.Result b) {
+        return a == null ? b == null : b != null && a.ballId == b.ballId;
+    }
+}
@@ -0,0 +1,65 @@
+package billiards;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+// Frame time of TableRenderer with direct drawing vs the cached table layer and
+// sprite atlas, drawing into an offscreen image the size of the panel. Also checks
+// that both modes produce the same pixels.
+// Usage: ant bench -Dbench.class=billiards.RenderBenchmark [-Dbench.args="8 200 2000"]
+public class RenderBenchmark {
+    private static final int FRAMES = 600;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? java.util.Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                                       : new int[]{8, 200, 2000};
+        List<MapDef> maps = Maps.defaults();
+        MapDef map = maps.get(0);
+        Rectangle bound = map.getBounds();
+        System.out.printf("%-8s %14s %14s %10s %8s%n", "balls", "direct ms", "cached ms", "speedup", "pixels");
+        for (int n : counts) {
+            BallStore store = new BallStore(n);
+            int r = BallPlacer.radiusFor(n);
+            Random rnd = new Random(3);
+            for (int i = 0; i < n; i++) {
+                store.add(i+1, bound.x + r + rnd.nextDouble() * (bound.width - 2*r),
+                        bound.y + r + rnd.nextDouble() * (bound.height - 2*r), 0, 0, r,
+                        Ball.COLOR_POOL[i % Ball.COLOR_POOL.length]);
+            }
+            Snapshot snap = new Snapshot();
+            snap.copyFrom(store, 0, 0);
+            BufferedImage direct = new BufferedImage(Maps.DEFAULT_WIDTH, Maps.DEFAULT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            BufferedImage cached = new BufferedImage(Maps.DEFAULT_WIDTH, Maps.DEFAULT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            double d = time(direct, map, bound, snap, false);
+            double c = time(cached, map, bound, snap, true);
+            System.out.printf("%-8d %14.3f %14.3f %9.1fx %8s%n", n, d, c, d / c, same(direct, cached) ? "same" : "DIFFER");
+        }
+    }
+
+    // best of three runs, ms per frame
+    private static double time(BufferedImage img, MapDef map, Rectangle bound, Snapshot snap, boolean cached) {
+        TableRenderer tr = new TableRenderer(img.getWidth(), img.getHeight());
+        tr.setCached(cached);
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++) {
+                Graphics2D g = img.createGraphics();
+                tr.paintTable(g, map, bound);
+                tr.paintBalls(g, snap);
+                g.dispose();
+            }
+            best = Math.min(best, (System.nanoTime() - t0) / 1e6 / FRAMES);
+        }
+        return best;
+    }
+
+    private static boolean same(BufferedImage a, BufferedImage b) {
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) if (a.getRGB(x, y) != b.getRGB(x, y)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package billiards;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compares ticks/sec of the old thread-per-ball model against SimulationEngine.
+// A "tick" in the old model is one integration of every ball, i.e. total ball
+// updates divided by ball count.
+// Usage: ant bench -Dbench.class=billiards.SchedulerBenchmark [-Dbench.args="200 2000 10000"]
+public class SchedulerBenchmark {
+    private static final int W = 1000, H = 600;
+    private static final long RUN_MILLIS = 3000;
+    private static final int LEGACY_THREAD_CAP = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length > 0 ? parse(args) : new int[]{200, 2000, 10000};
+        MapDef map = new MapDef("bench", W, H, 40, new Point(W/2, H/2), 30,
+                new Rectangle(60, 60, W-120, H-120), new Rectangle(60, 60, W-120, H-120));
+        Rectangle bounds = new Rectangle(40, 40, W-80, H-80);
+        System.out.printf("%-8s %14s %14s%n", "balls", "legacy tick/s", "engine tick/s");
+        for (int n : counts) {
+            String legacy = n <= LEGACY_THREAD_CAP ? String.format("%.1f", runLegacy(n, bounds)) : "n/a";
+            double engine = runEngine(n, map, bounds);
+            System.out.printf("%-8d %14s %14.1f%n", n, legacy, engine);
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] r = new int[args.length];
+        for (int i = 0; i < args.length; i++) r[i] = Integer.parseInt(args[i]);
+        return r;
+    }
+
+    private static BallStore spawn(int n, Rectangle bounds) {
+        Random rnd = new Random(42);
+        BallStore balls = new BallStore(n);
+        for (int i = 0; i < n; i++) {
+            double x = bounds.x + 4 + rnd.nextDouble() * (bounds.width - 8);
+            double y = bounds.y + 4 + rnd.nextDouble() * (bounds.height - 8);
+            double a = rnd.nextDouble() * 2*Math.PI;
+            balls.add(i+1, x, y, Math.cos(a)*200, Math.sin(a)*200, 2, Color.WHITE);
+        }
+        return balls;
+    }
+
+    private static double runEngine(int n, MapDef map, Rectangle bounds) {
+        BallStore balls = spawn(n, bounds);
+        SimulationEngine engine = new SimulationEngine(balls, map, bounds);
+        for (int i = 0; i < 50; i++) engine.tick(); // warm-up
+        long start = System.nanoTime();
+        long deadline = start + RUN_MILLIS * 1_000_000L;
+        long ticks = 0;
+        while (System.nanoTime() < deadline) {
+            engine.tick();
+            ticks++;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        engine.shutdown();
+        return ticks / secs;
+    }
+
+    // Reproduction of the previous GamePanel model: one thread per ball sleeping 2 ms
+    // between variable-dt integrations, plus a central collision pass every 16 ms.
+    private static double runLegacy(int n, Rectangle bounds) throws InterruptedException {
+        BallStore init = spawn(n, bounds);
+        List<LegacyBall> balls = Collections.synchronizedList(new ArrayList<>(n));
+        for (int i = 0; i < n; i++) {
+            balls.add(new LegacyBall(init.getId(i), init.getX(i), init.getY(i), init.getVx(i), init.getVy(i),
+                    init.getRadius(i), Color.WHITE));
+        }
+        AtomicLong updates = new AtomicLong();
+        List<Thread> threads = new ArrayList<>(n);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        for (LegacyBall b : balls) {
+            Thread t = new Thread(() -> {
+                long prev = System.nanoTime();
+                while (System.currentTimeMillis() < deadline) {
+                    long now = System.nanoTime();
+                    double dt = (now - prev) / 1e9;
+                    prev = now;
+                    double nx = b.getX() + b.getVx()*dt;
+                    double ny = b.getY() + b.getVy()*dt;
+                    double nvx = b.getVx() * Math.pow(SimulationEngine.FRICTION, dt*60);
+                    double nvy = b.getVy() * Math.pow(SimulationEngine.FRICTION, dt*60);
+                    if (nx - b.getRadius() < bounds.x || nx + b.getRadius() > bounds.x + bounds.width) nvx = -nvx;
+                    if (ny - b.getRadius() < bounds.y || ny + b.getRadius() > bounds.y + bounds.height) nvy = -nvy;
+                    b.setPosition(nx, ny);
+                    b.setVelocity(nvx, nvy);
+                    updates.incrementAndGet();
+                    try { Thread.sleep(2); } catch (InterruptedException ex) { break; }
+                }
+            });
+            t.setDaemon(true);
+            threads.add(t);
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) t.start();
+        // central collision pass, same as the old scheduler
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (balls) {
+                for (int i = 0; i < balls.size(); i++) {
+                    LegacyBall a = balls.get(i);
+                    for (int j = i+1; j < balls.size(); j++) {
+                        LegacyBall c = balls.get(j);
+                        double dx = c.getX() - a.getX(), dy = c.getY() - a.getY();
+                        if (Math.hypot(dx, dy) < a.getRadius() + c.getRadius()) {
+                            a.setVelocity(-a.getVx(), -a.getVy());
+                        }
+                    }
+                }
+            }
+            Thread.sleep(16);
+        }
+        for (Thread t : threads) t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        return updates.get() / (double) n / secs;
+    }
+}
@@ -0,0 +1,61 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Random;
+
+// What ball sleeping saves: mean engine tick while the table moves, once it has settled,
+// and with a single ball rolling across a settled table, with sleeping on and off.
+// The table grows with the ball count at about 20% coverage, like GridBenchmark.
+// Usage: ant bench -Dbench.class=billiards.SleepBenchmark [-Dbench.args="200 2000 20000"]
+public class SleepBenchmark {
+    private static final int RADIUS = 3;
+    private static final int MOVING_TICKS = 120;
+    private static final int SETTLED_TICKS = 1200;
+
+    public static void main(String[] args) {
+        int[] counts = args.length > 0 ? parse(args) : new int[]{200, 2000, 20000};
+        System.out.printf("%-8s %-6s %14s %14s %14s %8s%n", "balls", "sleep", "moving us", "settled us", "one ball us", "asleep");
+        for (int n : counts) {
+            for (boolean sleep : new boolean[]{false, true}) {
+                int side = (int) Math.ceil(Math.sqrt(n * Math.PI * RADIUS * RADIUS / 0.2));
+                Rectangle bounds = new Rectangle(0, 0, side * 5 / 3, side * 3 / 5);
+                BallStore store = new BallStore(n);
+                Random rnd = new Random(7);
+                for (int i = 0; i < n; i++) {
+                    double a = rnd.nextDouble() * 2*Math.PI;
+                    store.add(i+1, RADIUS + rnd.nextDouble() * (bounds.width - 2*RADIUS),
+                            RADIUS + rnd.nextDouble() * (bounds.height - 2*RADIUS),
+                            Math.cos(a)*200, Math.sin(a)*200, RADIUS, Color.WHITE);
+                }
+                // hole parked outside the table so every ball stays in play
+                MapDef map = new MapDef("bench", bounds.width, bounds.height, 0, new Point(-1000, -1000), 1,
+                        bounds, bounds);
+                SimulationEngine engine = new SimulationEngine(store, map, bounds);
+                engine.setSleeping(sleep);
+                double moving = meanTick(engine, MOVING_TICKS);
+                engine.stopAll();
+                for (int i = 0; i < 2 * SimulationEngine.SLEEP_TICKS; i++) engine.tick();
+                double settled = meanTick(engine, SETTLED_TICKS);
+                synchronized (store) {
+                    store.setVelocity(0, 300, 120);
+                }
+                double one = meanTick(engine, SETTLED_TICKS);
+                System.out.printf("%-8d %-6s %14.1f %14.1f %14.1f %8d%n", n, sleep ? "on" : "off", moving, settled, one,
+                        engine.getMetrics().getSleepingBalls());
+                engine.shutdown();
+            }
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] r = new int[args.length];
+        for (int i = 0; i < args.length; i++) r[i] = Integer.parseInt(args[i]);
+        return r;
+    }
+
+    private static double meanTick(SimulationEngine engine, int ticks) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ticks; i++) engine.tick();
+        return (System.nanoTime() - t0) / 1e3 / ticks;
+    }
+}
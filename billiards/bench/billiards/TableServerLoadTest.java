@@ -0,0 +1,129 @@
+package billiards;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// How many tables one TableServer keeps at 120 Hz. Steps up the table count (doubling,
+// then bisecting between the last count that held and the first that did not); each
+// step starts a fresh server on all cores with the given clients per table, decoding
+// in this JVM on virtual threads, lets it warm up, then measures. A step holds if at
+// most MAX_LATE of its ticks started more than a period late and it ran at least
+// MIN_RATE of the ticks real time asks for. Tables are measured while their balls
+// still roll (the first seconds after the deal), the expensive part of a round.
+//
+// --slow N adds N clients on table 0 that read a few bytes at a time with pauses, to
+// show back-pressure: they get dropped frames, resyncs and finally evictions, while the
+// tick and the other clients do not notice.
+//
+// Usage: ant bench -Dbench.class=billiards.TableServerLoadTest
+//            [-Dbench.args="--balls 8 --clients 1 --slow 0 --seconds 5 --start 16 --max 8192"]
+public class TableServerLoadTest {
+    private static final double MAX_LATE = 0.01;
+    private static final double MIN_RATE = 0.99;
+    private static final long WARMUP_MILLIS = 3000;
+    private static final int SLOW_READ = 16;       // bytes per read of a slow client
+    private static final long SLOW_PAUSE_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int balls = 8, clients = 1, slow = 0, start = 16, max = 8192;
+        double seconds = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--clients": clients = Integer.parseInt(v); break;
+                case "--slow": slow = Integer.parseInt(v); break;
+                case "--seconds": seconds = Double.parseDouble(v); break;
+                case "--start": start = Integer.parseInt(v); break;
+                case "--max": max = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d balls per table, %d clients per table, %d slow, %d cores, %.0f s per step%n",
+                balls, clients, slow, cores, seconds);
+        System.out.printf("%-7s %-5s %8s %7s %11s %11s %10s %8s %8s %8s %8s%n", "tables", "held", "rate", "late",
+                "tick p99ms", "late p99ms", "KB/s", "missed", "dropped", "resyncs", "evicted");
+        int good = 0, bad = -1;
+        for (int t = start; t <= max; t *= 2) {
+            if (step(t, balls, clients, slow, seconds)) {
+                good = t;
+            } else {
+                bad = t;
+                break;
+            }
+        }
+        if (bad > 0) {
+            // three bisections narrow it to an eighth of the last doubling
+            for (int k = 0; k < 3 && bad - good > 1; k++) {
+                int t = (good + bad) / 2;
+                if (step(t, balls, clients, slow, seconds)) good = t; else bad = t;
+            }
+        }
+        if (good == 0) {
+            System.out.printf("not even %d tables held%n", start);
+        } else {
+            System.out.printf("max %d tables: %.1f tables per core%s%n", good, good / (double) cores,
+                    bad < 0 ? " (the limit was not reached)" : "");
+        }
+    }
+
+    private static boolean step(int tables, int balls, int clientsPerTable, int slow, double seconds)
+            throws Exception {
+        List<TableClient> clients = new ArrayList<>();
+        List<Socket> slowClients = new ArrayList<>();
+        try (TableServer server = new TableServer(Maps.defaults(), tables, balls, 1, Runtime.getRuntime().availableProcessors(), 0)) {
+            for (int t = 0; t < tables; t++) {
+                for (int c = 0; c < clientsPerTable; c++) {
+                    TableClient client = new TableClient("localhost", server.getPort(), t, Maps.defaults());
+                    client.start();
+                    clients.add(client);
+                }
+            }
+            for (int s = 0; s < slow; s++) slowClients.add(slowReader(server.getPort()));
+            Thread.sleep(WARMUP_MILLIS);
+            long missed0 = 0;
+            for (TableClient c : clients) missed0 += c.getMissedTicks();
+            server.resetCounters();
+            long t0 = System.nanoTime();
+            Thread.sleep((long) (seconds * 1000));
+            double wall = (System.nanoTime() - t0) / 1e9;
+            long ticks = server.getTicks(), late = server.getLateTicks();
+            long missed = -missed0;
+            for (TableClient c : clients) missed += c.getMissedTicks();
+            double rate = ticks / (wall * tables * SimulationEngine.TICK_HZ);
+            double lateShare = ticks == 0 ? 1 : late / (double) ticks;
+            boolean held = lateShare <= MAX_LATE && rate >= MIN_RATE;
+            System.out.printf("%-7d %-5s %7.1f%% %6.2f%% %11.2f %11.2f %10.1f %8d %8d %8d %8d%n", tables,
+                    held ? "yes" : "no", rate * 100, lateShare * 100, server.getTickNanos().percentile(99) / 1e6,
+                    server.getLateNanos().percentile(99) / 1e6, server.getBytesSent() / wall / 1024, missed,
+                    server.getFramesDropped(), server.getResyncs(), server.getEvictions());
+            return held;
+        } finally {
+            for (TableClient c : clients) c.close();
+            for (Socket s : slowClients) s.close();
+        }
+    }
+
+    // A client on table 0 that reads SLOW_READ bytes every SLOW_PAUSE_MILLIS.
+    private static Socket slowReader(int port) throws IOException {
+        Socket s = new Socket();
+        s.setReceiveBufferSize(4096);
+        s.connect(new InetSocketAddress("localhost", port));
+        new DataOutputStream(s.getOutputStream()).writeInt(0);
+        Thread.ofVirtual().start(() -> {
+            byte[] buf = new byte[SLOW_READ];
+            try (InputStream in = s.getInputStream()) {
+                while (in.read(buf) >= 0) Thread.sleep(SLOW_PAUSE_MILLIS);
+            } catch (IOException | InterruptedException e) {
+                // evicted, or the step is over
+            }
+        });
+        return s;
+    }
+}
@@ -0,0 +1,40 @@
+package billiards;
+
+import java.awt.*;
+import java.util.List;
+import java.util.Random;
+
+// Seeded tables for the JMH benchmarks. Up to the game's 200-ball cap the balls are
+// spawned exactly like GamePanel does; larger counts are spread on a jittered grid
+// over the whole table, since they no longer fit in a start zone.
+final class BenchTables {
+    static final List<MapDef> MAPS = Maps.defaults();
+
+    private BenchTables() { }
+
+    static Rectangle bounds(int mapIndex) {
+        return MAPS.get(mapIndex).getBounds();
+    }
+
+    static BallStore spawn(int mapIndex, int balls, long seed) {
+        MapDef map = MAPS.get(mapIndex);
+        Random rnd = new Random(seed);
+        BallStore store = new BallStore(balls);
+        if (balls <= 200) {
+            BallPlacer.place(store, map, balls, BallPlacer.radiusFor(balls), rnd);
+            return store;
+        }
+        Rectangle b = bounds(mapIndex);
+        double pitch = Math.sqrt((double) b.width * b.height / balls);
+        int radius = Math.max(1, Math.min(BallPlacer.radiusFor(balls), (int) (pitch / 2.5)));
+        int cols = Math.max(1, (int) (b.width / pitch));
+        for (int i = 0; i < balls; i++) {
+            double x = b.x + pitch * (i % cols + 0.5) + (rnd.nextDouble() - 0.5) * (pitch - 2*radius);
+            double y = b.y + pitch * (i / cols + 0.5) + (rnd.nextDouble() - 0.5) * (pitch - 2*radius);
+            double a = rnd.nextDouble() * 2*Math.PI, speed = 150 + rnd.nextDouble() * 110;
+            store.add(i+1, x, y, Math.cos(a)*speed, Math.sin(a)*speed, radius,
+                    Ball.COLOR_POOL[i % Ball.COLOR_POOL.length]);
+        }
+        return store;
+    }
+}
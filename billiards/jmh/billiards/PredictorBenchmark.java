@@ -0,0 +1,37 @@
+package billiards;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Latency of one P-key prediction (10 s horizon, 5 ms steps) on each built-in map.
+// Each call copies the seeded table, so every invocation sees the same start state.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictorBenchmark {
+    @Param({"8", "200", "2000", "20000"})
+    public int balls;
+
+    @Param({"0", "1", "2"})
+    public int map;
+
+    @Param({"1", "2", "3"})
+    public long seed;
+
+    private BallStore base;
+    private final Predictor predictor = new Predictor();
+
+    @Setup(Level.Trial)
+    public void spawn() {
+        base = BenchTables.spawn(map, balls, seed);
+    }
+
+    @Benchmark
+    public Predictor.Result predictFirstToHole() {
+        return predictor.predictFirstToHole(base, BenchTables.MAPS.get(map), 10.0);
+    }
+}
@@ -0,0 +1,64 @@
+package billiards;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Heap allocated by one steady-state engine tick, with the snapshot hand-off on and
+// on one thread or a worker pool. Meant to run with the GC profiler:
+//   ant jmh -Djmh.args="TickAllocationBenchmark -prof gc"
+// gc.alloc.rate.norm is bytes per tick and should stay at about 0 (tens of bytes on the
+// slowest tables are JMH's own background allocation spread over few ticks); a real
+// per-tick allocation shows up as hundreds to thousands. The engine and its pool live
+// for the whole trial. Every RESTART_TICKS the table is copied back from the seeded one
+// in place, so the balls never settle and go to sleep.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TickAllocationBenchmark {
+    private static final int RESTART_TICKS = 5 * SimulationEngine.TICK_HZ;
+
+    @Param({"200", "2000", "20000"})
+    public int balls;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"0"})
+    public int map;
+
+    @Param({"1"})
+    public long seed;
+
+    private BallStore base;
+    private BallStore store;
+    private SimulationEngine engine;
+    private int ticks;
+
+    @Setup(Level.Trial)
+    public void spawn() {
+        base = BenchTables.spawn(map, balls, seed);
+        store = base.copy();
+        engine = new SimulationEngine(store, BenchTables.MAPS.get(map), BenchTables.bounds(map), threads, SimulationEngine.DT);
+        engine.enableSnapshots();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public void tick() {
+        if (ticks++ % RESTART_TICKS == 0) {
+            synchronized (store) {
+                base.copyInto(store);
+                store.wakeAll();
+            }
+        }
+        engine.tick();
+    }
+}
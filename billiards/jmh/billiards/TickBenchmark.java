@@ -0,0 +1,66 @@
+package billiards;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-tick cost of each SimulationEngine phase, single-threaded so the numbers are
+// comparable across machines. The table is respawned from the seed every iteration
+// so friction and pocketed balls do not drift the workload.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickBenchmark {
+    @Param({"200", "2000", "20000"})
+    public int balls;
+
+    @Param({"0", "1", "2"})
+    public int map;
+
+    @Param({"1", "2", "3"})
+    public long seed;
+
+    private BallStore base;
+    private BallStore store;
+    private SimulationEngine engine;
+
+    @Setup(Level.Trial)
+    public void spawn() {
+        base = BenchTables.spawn(map, balls, seed);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        store = base.copy();
+        engine = new SimulationEngine(store, BenchTables.MAPS.get(map), BenchTables.bounds(map), 1, SimulationEngine.DT);
+    }
+
+    @Benchmark
+    public void integrate() {
+        synchronized (store) {
+            engine.integrateAll();
+        }
+    }
+
+    @Benchmark
+    public void collide() {
+        synchronized (store) {
+            engine.resolveCollisions();
+        }
+    }
+
+    @Benchmark
+    public void holes() {
+        synchronized (store) {
+            engine.checkHoles();
+        }
+    }
+
+    @Benchmark
+    public void fullTick() {
+        engine.tick();
+    }
+}
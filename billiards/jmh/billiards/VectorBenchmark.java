@@ -0,0 +1,61 @@
+package billiards;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Scalar loops vs the jdk.incubator.vector kernels: integration (move, damp, clamp to
+// walls) and the collision phase (grid, candidate pairs, narrow-phase distance test and
+// the contacts). Single-threaded; vectorized=true falls back to scalar (and says so in
+// the setup output) when the module is unavailable.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int balls;
+
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    @Param({"0"})
+    public int map;
+
+    @Param({"1"})
+    public long seed;
+
+    private BallStore base;
+    private BallStore store;
+    private SimulationEngine engine;
+
+    @Setup(Level.Trial)
+    public void spawn() {
+        base = BenchTables.spawn(map, balls, seed);
+        if (vectorized && !SimulationEngine.VECTOR_AVAILABLE) System.out.println("jdk.incubator.vector unavailable, measuring scalar");
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        store = base.copy();
+        engine = new SimulationEngine(store, BenchTables.MAPS.get(map), BenchTables.bounds(map), 1, SimulationEngine.DT);
+        engine.setVectorized(vectorized);
+    }
+
+    @Benchmark
+    public void integrate() {
+        synchronized (store) {
+            engine.integrateAll();
+        }
+    }
+
+    @Benchmark
+    public void collide() {
+        synchronized (store) {
+            engine.integrateAll();
+            engine.resolveCollisions();
+        }
+    }
+}
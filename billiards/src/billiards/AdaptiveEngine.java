@@ -0,0 +1,435 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+
+// Multi-rate stepping for rollouts. The table advances in macro steps of STEP, and
+// within one each ball moves in 2^L substeps, its level L picked at the start of the
+// step from how far it and the balls around it can travel:
+// - free flight uses the exact friction decay and walls reflect the path exactly, so a
+//   ball with nothing but cloth and walls around it moves once per step, as accurately
+//   as with any number of small steps.
+// - a ball whose swept box (where it can get to within the step) meets a cushion edge
+//   or a hole moves at most maxMove of its radius per substep.
+// - a pair whose swept boxes meet moves at most penetrationTol of its radii towards
+//   each other per substep, so no contact is found deeper than that. Both balls of a
+//   pair step at the same level, so a pair is only looked at with both at one time.
+// Pairs come from a UniformGrid whose cells span the largest swept box. A ball whose
+// box meets a faster ball's is given that ball's reach, for the speed a hit can give it.
+// A contact is wound back along the balls' velocities to where they first touch,
+// resolved there as SimulationEngine resolves it, and the rest of the substep is flown
+// with the new velocities; as the steps shrink, fixed steps tend to the same result.
+//
+// Two checks back the levels up:
+// - penetration: a contact found deeper than the tolerance anyway (a chain of hits
+//   within one step can outrun the reach) refines its cell by one level per step until
+//   they stop, then relaxes again.
+// - kinetic energy: every CHECK_STEPS steps the step is also run one level finer on a
+//   scratch copy (step doubling), and the difference in kinetic energy over the energy
+//   at the start is the estimate. Above the tolerance every level is raised by one; far
+//   below it, lowered again.
+// Moves and pair checks are counted, the step-doubling runs included. Resting balls
+// sleep as in SimulationEngine. Single-threaded; the store is advanced in place.
+public class AdaptiveEngine {
+    public static final double STEP = 4 * SimulationEngine.DT; // 1/30 s
+    public static final int MAX_LEVEL = 5;                      // finest substep STEP/32
+    public static final double DEFAULT_MAX_MOVE = 0.2;
+    public static final double DEFAULT_PENETRATION_TOL = 0.25;
+    public static final double DEFAULT_ENERGY_TOL = 0.002;
+    static final int CHECK_STEPS = 16;
+    private static final int STILL_PER_STEP = 4; // SimulationEngine ticks in one step
+    // contacts are wound back to this far inside touching, so resolve() still sees them
+    private static final double TOUCH = 1e-6;
+
+    private final BallStore s;
+    private final MapGeometry geo;
+    private final Rectangle bounds;
+    private final double left, top, right, bottom;
+    private final double k; // friction decay rate per second
+    private double maxMove = DEFAULT_MAX_MOVE, penetrationTol = DEFAULT_PENETRATION_TOL;
+    private double energyTol = DEFAULT_ENERGY_TOL;
+    private double time;
+
+    private final UniformGrid grid = new UniformGrid();
+    // cells of about a ball across, for the penetration check
+    private final double cell;
+    private final int cols, rows;
+    private final byte[] boost;   // levels added per cell for penetration
+    private final boolean[] hot;  // cells with a contact over tolerance this step
+    private int base;             // levels added everywhere for the energy error
+
+    // per ball, for the current step
+    private double[] own = new double[0], reach = new double[0];
+    private int[] level = new int[0];
+    // per level, the balls and pairs at it
+    private final int[] ballStart = new int[MAX_LEVEL + 2], pairStart = new int[MAX_LEVEL + 2];
+    private int[] byLevel = new int[0];
+    private int[] pairA = new int[64], pairB = new int[64];
+    private int[] pairOrderA = new int[64], pairOrderB = new int[64];
+    private int pairs, finest;
+    private final BallStore scratch = new BallStore();
+
+    private int[] fallen = new int[16];
+    private double[] fallTime = new double[16];
+    private int fallenCount;
+
+    private long steps, moves, checkMoves, pairChecks, contacts, violations, energyChecks;
+    private final long[] levelCounts = new long[MAX_LEVEL + 1];
+    private double maxPenetration, sumPenetration, energyError, maxEnergyError;
+
+    // bounds are the walls, normally map.getBounds()
+    public AdaptiveEngine(BallStore store, MapDef map, Rectangle bounds) {
+        this.s = store;
+        this.geo = map.getGeometry();
+        this.bounds = new Rectangle(bounds);
+        this.left = bounds.x; this.top = bounds.y;
+        this.right = bounds.x + bounds.width; this.bottom = bounds.y + bounds.height;
+        this.k = -60 * Math.log(SimulationEngine.FRICTION);
+        this.cell = Math.max(8, 2 * store.maxRadius());
+        this.cols = Math.max(1, (int) Math.ceil(bounds.width / cell));
+        this.rows = Math.max(1, (int) Math.ceil(bounds.height / cell));
+        boost = new byte[cols * rows];
+        hot = new boolean[cols * rows];
+    }
+
+    public double getTime() { return time; }
+    public int getFallenCount() { return fallenCount; }
+    // index and time of the k-th ball to fall during the last step, in order of time
+    public int getFallen(int k) { return fallen[k]; }
+    public double getFallTime(int k) { return fallTime[k]; }
+
+    // a ball near a cushion edge or hole moves at most this fraction of its radius per substep
+    public void setMaxMove(double f) { maxMove = f; }
+    // no contact is found deeper than this fraction of the pair's radii
+    public void setPenetrationTolerance(double t) { penetrationTol = t; }
+    public void setEnergyTolerance(double t) { energyTol = t; }
+
+    public long getSteps() { return steps; }
+    // ball moves made, the step-doubling runs included, and those runs' share
+    public long getMoves() { return moves + checkMoves; }
+    public long getCheckMoves() { return checkMoves; }
+    public long getPairChecks() { return pairChecks; }
+    public long getContacts() { return contacts; }
+    // ball-steps spent at each level
+    public long[] getLevelCounts() { return levelCounts.clone(); }
+    // deepest contact and mean contact depth, over the sum of radii, and contacts over tolerance
+    public double getMaxPenetration() { return maxPenetration; }
+    public double getMeanPenetration() { return contacts == 0 ? 0 : sumPenetration / contacts; }
+    public long getPenetrationViolations() { return violations; }
+    // step-doubling estimates of the kinetic energy error, relative to the energy in play
+    public double getEnergyError() { return energyError; }
+    public double getMaxEnergyError() { return maxEnergyError; }
+    public long getEnergyChecks() { return energyChecks; }
+    public int getBaseLevel() { return base; }
+
+    // Steps until a ball falls (returns its index, time set to when it fell) or the
+    // horizon passes or everything has stopped (returns -1).
+    public int runUntilFall(double horizon) {
+        while (time < horizon) {
+            step();
+            if (fallenCount > 0) {
+                if (fallTime[0] >= horizon) return -1;
+                time = fallTime[0];
+                return fallen[0];
+            }
+            if (!s.anyMoving(0.1)) return -1;
+        }
+        return -1;
+    }
+
+    // Advances the table by STEP.
+    public void step() {
+        fallenCount = 0;
+        if (s.awakeCount() == 0) {
+            time += STEP;
+            steps++;
+            return;
+        }
+        plan();
+        if (steps % CHECK_STEPS == 0) {
+            double before = kinetic(s);
+            s.copyInto(scratch);
+            run(scratch, 1, false);
+            run(s, 0, true);
+            if (before > 0) {
+                energyError = Math.abs(kinetic(s) - kinetic(scratch)) / before;
+                maxEnergyError = Math.max(maxEnergyError, energyError);
+                energyChecks++;
+                if (energyError > energyTol) base = Math.min(MAX_LEVEL, base + 1);
+                else if (energyError < energyTol / 8 && base > 0) base--;
+            }
+        } else {
+            run(s, 0, true);
+        }
+        for (int c = 0; c < hot.length; c++) {
+            boost[c] = (byte) (hot[c] ? Math.min(MAX_LEVEL, boost[c] + 1) : Math.max(0, boost[c] - 1));
+            hot[c] = false;
+        }
+        sleep();
+        time += STEP;
+        steps++;
+    }
+
+    // Levels of balls and pairs for the coming step.
+    private void plan() {
+        int n = s.size();
+        if (own.length < n) {
+            int c = Math.max(n, 2 * own.length);
+            own = new double[c]; reach = new double[c]; level = new int[c]; byLevel = new int[c];
+        }
+        double g = g(STEP);
+        double[] x = s.x, y = s.y, vx = s.vx, vy = s.vy;
+        int[] radius = s.radius;
+        double most = 0;
+        for (int i = 0; i < n; i++) {
+            own[i] = s.isAwake(i) ? Math.sqrt(vx[i]*vx[i] + vy[i]*vy[i]) * g : 0;
+            reach[i] = own[i];
+            most = Math.max(most, own[i]);
+        }
+        // any two balls that can meet within the step are in neighbouring cells
+        grid.build(bounds, 2 * (s.maxRadius() + most), s);
+        int found = grid.findPairs();
+        int[] ca = grid.pairsA(), cb = grid.pairsB();
+        for (int p = 0; p < found; p++) {
+            int a = ca[p], b = cb[p];
+            if (!meet(a, b, own[a], own[b])) continue;
+            reach[a] = Math.max(reach[a], own[b]);
+            reach[b] = Math.max(reach[b], own[a]);
+        }
+        pairs = 0;
+        for (int p = 0; p < found; p++) {
+            int a = ca[p], b = cb[p];
+            if (!s.isAwake(a) && !s.isAwake(b) || !meet(a, b, reach[a], reach[b])) continue;
+            if (pairs == pairA.length) {
+                pairA = Arrays.copyOf(pairA, 2 * pairs);
+                pairB = Arrays.copyOf(pairB, 2 * pairs);
+            }
+            pairA[pairs] = a;
+            pairB[pairs] = b;
+            pairs++;
+        }
+        for (int i = 0; i < n; i++) {
+            if (!s.isAlive(i)) continue;
+            double e = radius[i] + reach[i];
+            boolean near = geo.nearFeature(x[i] - e, y[i] - e, x[i] + e, y[i] + e);
+            level[i] = (near ? levelFor(reach[i] / (maxMove * radius[i])) : 0) + boost[home(x[i], y[i])] + base;
+        }
+        for (int p = 0; p < pairs; p++) {
+            int a = pairA[p], b = pairB[p];
+            int l = levelFor((reach[a] + reach[b]) / (penetrationTol * (radius[a] + radius[b]))) + base;
+            if (l > level[a]) level[a] = l;
+            if (l > level[b]) level[b] = l;
+        }
+        // both balls of a pair at one level; levels only rise, so this settles
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int p = 0; p < pairs; p++) {
+                int a = pairA[p], b = pairB[p];
+                if (level[a] == level[b]) continue;
+                level[a] = level[b] = Math.max(level[a], level[b]);
+                changed = true;
+            }
+        }
+        finest = 0;
+        Arrays.fill(ballStart, 0);
+        for (int i = 0; i < n; i++) {
+            if (!s.isAlive(i)) continue;
+            level[i] = Math.min(MAX_LEVEL, level[i]);
+            finest = Math.max(finest, level[i]);
+            ballStart[level[i] + 1]++;
+        }
+        for (int l = 0; l <= MAX_LEVEL; l++) ballStart[l + 1] += ballStart[l];
+        int[] fill = Arrays.copyOf(ballStart, MAX_LEVEL + 1);
+        for (int i = 0; i < n; i++) if (s.isAlive(i)) byLevel[fill[level[i]]++] = i;
+        Arrays.fill(pairStart, 0);
+        for (int p = 0; p < pairs; p++) pairStart[level[pairA[p]] + 1]++;
+        for (int l = 0; l <= MAX_LEVEL; l++) pairStart[l + 1] += pairStart[l];
+        if (pairOrderA.length < pairs) {
+            pairOrderA = new int[pairA.length];
+            pairOrderB = new int[pairA.length];
+        }
+        fill = Arrays.copyOf(pairStart, MAX_LEVEL + 1);
+        for (int p = 0; p < pairs; p++) {
+            int q = fill[level[pairA[p]]]++;
+            pairOrderA[q] = pairA[p];
+            pairOrderB[q] = pairB[p];
+        }
+    }
+
+    // whether a and b, their boxes grown by ea and eb, overlap
+    private boolean meet(int a, int b, double ea, double eb) {
+        double span = s.radius[a] + s.radius[b] + ea + eb;
+        return Math.abs(s.x[a] - s.x[b]) <= span && Math.abs(s.y[a] - s.y[b]) <= span;
+    }
+
+    // One step of st with every level raised by shift; record keeps falls and counters.
+    private void run(BallStore st, int shift, boolean record) {
+        int top = finest + shift, ticks = 1 << top;
+        double fine = STEP / ticks;
+        long made = 0;
+        for (int j = 0; j < ticks; j++) {
+            // levels moving now: all whose substep starts at j
+            int from = j == 0 ? 0 : top - Integer.numberOfTrailingZeros(j);
+            for (int l = Math.max(0, from - shift); l <= finest; l++) {
+                double h = fine * (1 << (top - l - shift));
+                double g = g(h), damp = Math.exp(-k * h);
+                for (int q = ballStart[l], end = ballStart[l + 1]; q < end; q++) {
+                    int i = byLevel[q];
+                    if (!st.isAwake(i)) continue;
+                    fly(st, i, g, damp);
+                    made++;
+                }
+            }
+            for (int l = Math.max(0, from - shift); l <= finest; l++) {
+                double h = fine * (1 << (top - l - shift));
+                for (int q = pairStart[l], end = pairStart[l + 1]; q < end; q++) {
+                    int a = pairOrderA[q], b = pairOrderB[q];
+                    if (!st.isAlive(a) || !st.isAlive(b) || !st.isAwake(a) && !st.isAwake(b)) continue;
+                    if (record) pairChecks++;
+                    contact(st, a, b, h, record);
+                }
+            }
+            for (int l = Math.max(0, from - shift); l <= finest; l++) {
+                double end = time + (j + (1 << (top - l - shift))) * fine;
+                for (int q = ballStart[l], e = ballStart[l + 1]; q < e; q++) {
+                    int i = byLevel[q];
+                    if (!st.isAwake(i) || geo.holeAt(st.x[i], st.y[i]) < 0) continue;
+                    st.setAlive(i, false);
+                    if (record) fell(i, end);
+                }
+            }
+        }
+        if (!record) {
+            checkMoves += made;
+            return;
+        }
+        moves += made;
+        for (int l = 0; l <= finest; l++) levelCounts[l] += ballStart[l + 1] - ballStart[l];
+    }
+
+    // Resolves a and b if they overlap at the end of a substep of h: both go back to
+    // where they first touched, collide there, and fly the rest of the substep.
+    private void contact(BallStore st, int a, int b, double h, boolean record) {
+        double[] x = st.x, y = st.y, vx = st.vx, vy = st.vy;
+        double dx = x[b] - x[a], dy = y[b] - y[a], rr = st.radius[a] + st.radius[b];
+        double d2 = dx*dx + dy*dy;
+        if (d2 >= rr * rr) return;
+        double depth = (rr - Math.sqrt(d2)) / rr;
+        // |d - w t| = rr - TOUCH for the time t back, if they are closing
+        double wx = vx[b] - vx[a], wy = vy[b] - vy[a];
+        double dw = dx*wx + dy*wy, w2 = wx*wx + wy*wy, touch = rr - TOUCH;
+        double back = 0;
+        if (dw < 0 && d2 < touch * touch) {
+            back = Math.min(h, (dw + Math.sqrt(dw*dw - w2 * (d2 - touch*touch))) / w2);
+        }
+        x[a] -= vx[a] * back; y[a] -= vy[a] * back;
+        x[b] -= vx[b] * back; y[b] -= vy[b] * back;
+        boolean hit = SimulationEngine.resolve(st, a, b);
+        if (back > 0) {
+            fly(st, a, back, 1);
+            fly(st, b, back, 1);
+        }
+        if (!hit) return;
+        st.wake(a);
+        st.wake(b);
+        if (!record) return;
+        contacts++;
+        sumPenetration += depth;
+        maxPenetration = Math.max(maxPenetration, depth);
+        if (depth > penetrationTol) {
+            violations++;
+            hot[home(x[a], y[a])] = true;
+            hot[home(x[b], y[b])] = true;
+        }
+    }
+
+    // Free flight of ball i over distance g per unit speed, speed scaled by damp, off the
+    // walls (the path folded back at each, as the exact path would be) and the map's edges.
+    private void fly(BallStore st, int i, double g, double damp) {
+        double[] x = st.x, y = st.y, vx = st.vx, vy = st.vy;
+        int r = st.radius[i];
+        double nx = x[i] + vx[i] * g, ny = y[i] + vy[i] * g;
+        double nvx = vx[i] * damp, nvy = vy[i] * damp;
+        if (nx - r < left) {
+            nx = 2 * (left + r) - nx;
+            nvx = Math.abs(nvx);
+        }
+        if (nx + r > right) {
+            nx = 2 * (right - r) - nx;
+            nvx = -Math.abs(nvx);
+        }
+        if (ny - r < top) {
+            ny = 2 * (top + r) - ny;
+            nvy = Math.abs(nvy);
+        }
+        if (ny + r > bottom) {
+            ny = 2 * (bottom - r) - ny;
+            nvy = -Math.abs(nvy);
+        }
+        // past both walls only on a table narrower than the step
+        x[i] = Math.max(left + r, Math.min(right - r, nx));
+        y[i] = Math.max(top + r, Math.min(bottom - r, ny));
+        vx[i] = nvx; vy[i] = nvy;
+        if (geo.getEdgeCount() > 0) geo.bounce(i, x, y, vx, vy, r);
+    }
+
+    // As SimulationEngine.checkHoles, counted in its ticks.
+    private void sleep() {
+        double[] vx = s.vx, vy = s.vy;
+        long[] awake = s.awake;
+        int[] still = s.still;
+        double min = SimulationEngine.SLEEP_SPEED * SimulationEngine.SLEEP_SPEED;
+        for (int w = 0; w < awake.length; w++) {
+            for (long bits = awake[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (vx[i]*vx[i] + vy[i]*vy[i] >= min) {
+                    still[i] = 0;
+                } else if ((still[i] += STILL_PER_STEP) >= SimulationEngine.SLEEP_TICKS) {
+                    vx[i] = 0; vy[i] = 0;
+                    awake[w] &= ~(1L << i);
+                }
+            }
+        }
+    }
+
+    private void fell(int i, double t) {
+        if (fallenCount == fallen.length) {
+            fallen = Arrays.copyOf(fallen, 2 * fallenCount);
+            fallTime = Arrays.copyOf(fallTime, 2 * fallenCount);
+        }
+        // falls come in substep order; keep them sorted by time within one
+        int p = fallenCount++;
+        while (p > 0 && fallTime[p - 1] > t) {
+            fallen[p] = fallen[p - 1];
+            fallTime[p] = fallTime[p - 1];
+            p--;
+        }
+        fallen[p] = i;
+        fallTime[p] = t;
+    }
+
+    private int home(double x, double y) {
+        int cx = Math.max(0, Math.min(cols - 1, (int) ((x - left) / cell)));
+        int cy = Math.max(0, Math.min(rows - 1, (int) ((y - top) / cell)));
+        return cy * cols + cx;
+    }
+
+    // distance travelled in t from unit speed under the friction decay
+    private double g(double t) { return (1 - Math.exp(-k * t)) / k; }
+
+    // least level l with ratio / 2^l <= 1
+    private static int levelFor(double ratio) {
+        if (!(ratio > 1)) return 0;
+        return Math.min(MAX_LEVEL, 64 - Long.numberOfLeadingZeros((long) Math.ceil(ratio) - 1));
+    }
+
+    private static double kinetic(BallStore st) {
+        double e = 0;
+        for (int i = 0; i < st.size(); i++) {
+            if (!st.isAlive(i)) continue;
+            // unit masses, as collisions treat them
+            e += 0.5 * (st.vx[i]*st.vx[i] + st.vy[i]*st.vy[i]);
+        }
+        return e;
+    }
+}
@@ -1,15 +1,11 @@
 package billiards;
 
 import java.awt.*;
-import java.io.Serializable;
 
-public class Ball implements Serializable {
-    private final int id;
-    private volatile double x, y;
-    private volatile double vx, vy;
-    private volatile int radius;
-    private volatile boolean alive = true;
-    private final Color color;
+// Lightweight view of one slot in a BallStore. Holds no state of its own.
+public class Ball {
+    private final BallStore store;
+    private final int index;
 
     // color pool
     public static final Color[] COLOR_POOL = new Color[] {
@@ -21,20 +17,21 @@ public class Ball implements Serializable {
             new Color(255,69,0), new Color(0,0,128)
     };
 
-    public Ball(int id, double x, double y, double vx, double vy, int radius, Color color) {
-        this.id = id; this.x = x; this.y = y; this.vx = vx; this.vy = vy; this.radius = radius; this.color = color;
+    Ball(BallStore store, int index) {
+        this.store = store; this.index = index;
     }
 
-    public int getId() { return id; }
-    public double getX() { return x; }
-    public double getY() { return y; }
-    public double getVx() { return vx; }
-    public double getVy() { return vy; }
-    public int getRadius() { return radius; }
-    public Color getColor() { return color; }
-    public boolean isAlive() { return alive; }
+    public int getIndex() { return index; }
+    public int getId() { return store.getId(index); }
+    public double getX() { return store.getX(index); }
+    public double getY() { return store.getY(index); }
+    public double getVx() { return store.getVx(index); }
+    public double getVy() { return store.getVy(index); }
+    public int getRadius() { return store.getRadius(index); }
+    public Color getColor() { return store.getColor(index); }
+    public boolean isAlive() { return store.isAlive(index); }
 
-    public synchronized void setPosition(double nx, double ny) { this.x = nx; this.y = ny; }
-    public synchronized void setVelocity(double nvx, double nvy) { this.vx = nvx; this.vy = nvy; }
-    public synchronized void setAlive(boolean a) { this.alive = a; }
+    public void setPosition(double nx, double ny) { store.setPosition(index, nx, ny); }
+    public void setVelocity(double nvx, double nvy) { store.setVelocity(index, nvx, nvy); }
+    public void setAlive(boolean a) { store.setAlive(index, a); }
 }
@@ -0,0 +1,174 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Random;
+
+// Spawns balls in a map's start zone with random launch velocities. All randomness
+// comes from the caller's Random, so a seeded Random gives a reproducible table.
+//
+// Up to DART_BALLS balls (the game's range) every ball is a random point in the zone,
+// retried until it is clear of the geometry and of the balls already placed. Larger
+// counts, and whatever is left once a ball finds no spot that way, are filled by
+// Poisson-disk sampling: new balls are tried on a circle just over d around placed
+// ones, which packs the zone in O(n) instead of throwing darts at an ever fuller zone.
+// Spots it leaves are filled from a hex lattice. Balls that do not fit in the zone
+// grow out of it over the table the same way; balls that fit nowhere are left out. A
+// grid of placed balls makes every candidate check O(1).
+public class BallPlacer {
+    public static final int DEFAULT_RADIUS = 14;
+    public static final int MIN_RADIUS = 4;
+    // largest count placed by random tries alone; the game's cap, so its seeds keep their tables
+    static final int DART_BALLS = 200;
+    private static final int ATTEMPTS_PER_BALL = 1000;
+    // evenly spaced candidates tried around a placed ball before it counts as surrounded
+    private static final int RING_TRIES = 16;
+    private static final double RING_COS = Math.cos(2*Math.PI / RING_TRIES), RING_SIN = Math.sin(2*Math.PI / RING_TRIES);
+    private static final double MIN_SPEED = 150, MAX_SPEED = 260;
+
+    // adjust radius when many balls
+    public static int radiusFor(int ballCount) {
+        if (ballCount > 50) {
+            return Math.max(MIN_RADIUS, (int)(DEFAULT_RADIUS * (8.0 / Math.sqrt(ballCount))));
+        }
+        return DEFAULT_RADIUS;
+    }
+
+    // Clears the store and fills it with up to ballCount balls, numbered from 1 in the
+    // order they were placed; returns how many fit. Callers sharing the store hold its lock.
+    public static int place(BallStore balls, MapDef m, int ballCount, int radius, Random rnd) {
+        balls.clear();
+        Layout l = new Layout(balls, m, radius);
+        Rectangle s = m.getStartZone();
+        int i = 0;
+        if (ballCount <= DART_BALLS) {
+            while (i < ballCount && l.dart(s, i, rnd)) i++;
+        }
+        if (i < ballCount) i = l.poisson(s, i, ballCount, rnd);
+        if (i < ballCount) i = l.hex(s, i, ballCount, rnd);
+        // the zone is full: spill over onto the rest of the table
+        Rectangle t = m.getBounds();
+        if (i < ballCount) i = l.poisson(t, i, ballCount, rnd);
+        if (i < ballCount) i = l.hex(t, i, ballCount, rnd);
+        return i;
+    }
+
+    // adds ball i+1 at (x, y) heading at a random angle with a speed in [min, max)
+    private static void addMoving(BallStore balls, int i, double x, double y, int radius, Random rnd,
+                                  double min, double max) {
+        double angle = rnd.nextDouble() * 2*Math.PI;
+        double speed = min + rnd.nextDouble() * (max - min);
+        Color color = Ball.COLOR_POOL[i % Ball.COLOR_POOL.length];
+        balls.add(i+1, x, y, Math.cos(angle)*speed, Math.sin(angle)*speed, radius, color);
+    }
+
+    // The balls placed so far, bucketed in a grid over the table and the start zone.
+    // Cells are smaller than d / sqrt(2), so no two balls share one and a candidate only
+    // has to look at the 5x5 cells around it.
+    private static final class Layout {
+        private final BallStore balls;
+        private final MapGeometry geo;
+        private final int radius;
+        private final double d;          // closest two centres may be
+        private final double x0, y0, cell;
+        private final int cols, rows;
+        private final int[] cells;       // ball index + 1 per cell, 0 if empty
+
+        Layout(BallStore balls, MapDef m, int radius) {
+            this.balls = balls;
+            this.geo = m.getGeometry();
+            this.radius = radius;
+            this.d = 2*radius + 2;
+            Rectangle area = m.getBounds().union(m.getStartZone());
+            x0 = area.x;
+            y0 = area.y;
+            cell = d / 1.5;
+            cols = (int) (area.width / cell) + 1;
+            rows = (int) (area.height / cell) + 1;
+            cells = new int[cols * rows];
+        }
+
+        // Random points of zone s until one fits; false after ATTEMPTS_PER_BALL misses.
+        boolean dart(Rectangle s, int i, Random rnd) {
+            for (int att = 0; att < ATTEMPTS_PER_BALL; att++) {
+                double x = s.x + radius + rnd.nextDouble() * Math.max(0, s.width - 2*radius);
+                double y = s.y + radius + rnd.nextDouble() * Math.max(0, s.height - 2*radius);
+                if (fits(x, y)) {
+                    add(i, x, y, rnd);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Bridson's sampling inside area s from the balls placed so far (or one dart if
+        // there are none). Candidates go round a random active ball from a random angle,
+        // a hair further out than d so the ball itself never rejects them; a ball with
+        // no room left around it leaves the active list.
+        int poisson(Rectangle s, int i, int count, Random rnd) {
+            int[] active = new int[count];
+            int live = 0;
+            for (int j = 0; j < i; j++) active[live++] = j;
+            if (live == 0) {
+                if (!dart(s, i, rnd)) return i;
+                active[live++] = i++;
+            }
+            double minX = s.x + radius, maxX = Math.max(minX, s.x + s.width - radius);
+            double minY = s.y + radius, maxY = Math.max(minY, s.y + s.height - radius);
+            while (live > 0 && i < count) {
+                int k = rnd.nextInt(live), p = active[k];
+                double px = balls.getX(p), py = balls.getY(p);
+                double a = rnd.nextDouble() * 2*Math.PI, r = d * (1 + 1e-6);
+                double ox = r * Math.cos(a), oy = r * Math.sin(a);
+                boolean found = false;
+                for (int t = 0; t < RING_TRIES && !found; t++) {
+                    double x = px + ox, y = py + oy;
+                    double nx = ox * RING_COS - oy * RING_SIN;
+                    oy = ox * RING_SIN + oy * RING_COS;
+                    ox = nx;
+                    if (x < minX || x > maxX || y < minY || y > maxY || !fits(x, y)) continue;
+                    add(i, x, y, rnd);
+                    active[live++] = i++;
+                    found = true;
+                }
+                if (!found) active[k] = active[--live];
+            }
+            return i;
+        }
+
+        // Every free site of a hex lattice over area, row by row.
+        int hex(Rectangle area, int i, int count, Random rnd) {
+            double dx = d * (1 + 1e-9), dy = dx * Math.sqrt(3) / 2; // a hair over d: lattice neighbours must pass
+            int row = 0;
+            for (double y = area.y + radius; y <= area.y + area.height - radius && i < count; y += dy, row++) {
+                for (double x = area.x + radius + (row & 1) * dx / 2; x <= area.x + area.width - radius && i < count; x += dx) {
+                    if (fits(x, y)) add(i++, x, y, rnd);
+                }
+            }
+            return i;
+        }
+
+        // clear of every placed ball, and on the cloth, off obstacles and holes; the
+        // balls go first since near the packing front they reject most candidates
+        private boolean fits(double x, double y) {
+            int cx = col(x), cy = row(y);
+            double d2 = d * d;
+            for (int gy = Math.max(0, cy - 2); gy <= Math.min(rows - 1, cy + 2); gy++) {
+                for (int gx = Math.max(0, cx - 2); gx <= Math.min(cols - 1, cx + 2); gx++) {
+                    int j = cells[gy * cols + gx] - 1;
+                    if (j < 0) continue;
+                    double ex = balls.getX(j) - x, ey = balls.getY(j) - y;
+                    if (ex*ex + ey*ey < d2) return false;
+                }
+            }
+            return geo.isClear(x, y, radius);
+        }
+
+        private void add(int i, double x, double y, Random rnd) {
+            addMoving(balls, i, x, y, radius, rnd, MIN_SPEED, MAX_SPEED);
+            cells[row(y) * cols + col(x)] = i + 1;
+        }
+
+        private int col(double x) { return Math.max(0, Math.min(cols - 1, (int) ((x - x0) / cell))); }
+        private int row(double y) { return Math.max(0, Math.min(rows - 1, (int) ((y - y0) / cell))); }
+    }
+}
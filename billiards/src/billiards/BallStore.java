@@ -0,0 +1,181 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+
+// Structure-of-arrays storage for all balls on a table. Physics loops index the
+// primitive arrays directly; Ball is only a view for code that wants an object.
+// Not thread-safe: writers and readers synchronize on the store itself.
+public class BallStore {
+    private int size;
+    double[] x, y, vx, vy;
+    int[] radius;
+    int[] id;
+    long[] alive; // bitset, one bit per index
+    Color[] color;
+    // Sleep state, kept by SimulationEngine: awake is the bitset of live balls it still
+    // steps, still counts the ticks each ball has spent below the sleep speed. Anything
+    // that moves a ball from outside the engine wakes it.
+    long[] awake;
+    int[] still;
+
+    public BallStore() { this(16); }
+
+    public BallStore(int capacity) {
+        int c = Math.max(1, capacity);
+        x = new double[c]; y = new double[c]; vx = new double[c]; vy = new double[c];
+        radius = new int[c]; id = new int[c]; color = new Color[c];
+        alive = new long[(c + 63) >>> 6];
+        awake = new long[alive.length];
+        still = new int[c];
+    }
+
+    public int size() { return size; }
+
+    public void clear() {
+        Arrays.fill(alive, 0L);
+        Arrays.fill(awake, 0L);
+        Arrays.fill(color, 0, size, null);
+        size = 0;
+    }
+
+    // Appends a live ball and returns its index.
+    public int add(int ballId, double px, double py, double pvx, double pvy, int r, Color c) {
+        if (size == x.length) grow(size * 2);
+        int i = size++;
+        x[i] = px; y[i] = py; vx[i] = pvx; vy[i] = pvy;
+        radius[i] = r; id[i] = ballId; color[i] = c;
+        setAlive(i, true);
+        return i;
+    }
+
+    public Ball get(int i) { return new Ball(this, i); }
+
+    public int getId(int i) { return id[i]; }
+    public double getX(int i) { return x[i]; }
+    public double getY(int i) { return y[i]; }
+    public double getVx(int i) { return vx[i]; }
+    public double getVy(int i) { return vy[i]; }
+    public int getRadius(int i) { return radius[i]; }
+    public Color getColor(int i) { return color[i]; }
+    public boolean isAlive(int i) { return (alive[i >>> 6] & (1L << i)) != 0; }
+    public boolean isAwake(int i) { return (awake[i >>> 6] & (1L << i)) != 0; }
+
+    public void setPosition(int i, double px, double py) { x[i] = px; y[i] = py; wake(i); }
+    public void setVelocity(int i, double pvx, double pvy) { vx[i] = pvx; vy[i] = pvy; wake(i); }
+    public void setAlive(int i, boolean a) {
+        if (a) {
+            alive[i >>> 6] |= 1L << i;
+            wake(i);
+        } else {
+            alive[i >>> 6] &= ~(1L << i);
+            awake[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    // Makes a live ball move again on the next tick.
+    public void wake(int i) {
+        still[i] = 0;
+        awake[i >>> 6] |= alive[i >>> 6] & (1L << i);
+    }
+
+    // Wakes every live ball, e.g. after writing the arrays directly.
+    public void wakeAll() {
+        Arrays.fill(still, 0, size, 0);
+        System.arraycopy(alive, 0, awake, 0, alive.length);
+    }
+
+    public int awakeCount() {
+        int c = 0;
+        for (long w : awake) c += Long.bitCount(w);
+        return c;
+    }
+
+    public int aliveCount() {
+        int c = 0;
+        for (long w : alive) c += Long.bitCount(w);
+        return c;
+    }
+
+    public int maxRadius() {
+        int m = 1;
+        for (int i = 0; i < size; i++) if (isAlive(i)) m = Math.max(m, radius[i]);
+        return m;
+    }
+
+    // true if any live ball moves faster than minSpeed; balls asleep have no velocity,
+    // so only the awake ones are looked at
+    public boolean anyMoving(double minSpeed) {
+        double min2 = minSpeed * minSpeed;
+        for (int w = 0; w < awake.length; w++) {
+            for (long bits = awake[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (vx[i]*vx[i] + vy[i]*vy[i] > min2) return true;
+            }
+        }
+        return false;
+    }
+
+    // Drops the balls whose bit is set in gone and closes the gaps, keeping the others in
+    // order; for DomainWorker, whose balls leave for a neighbouring strip.
+    void remove(long[] gone) {
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if ((gone[i >>> 6] & (1L << i)) != 0) continue;
+            if (j != i) {
+                x[j] = x[i]; y[j] = y[i]; vx[j] = vx[i]; vy[j] = vy[i];
+                radius[j] = radius[i]; id[j] = id[i]; color[j] = color[i]; still[j] = still[i];
+                long bit = 1L << j;
+                alive[j >>> 6] = isAlive(i) ? alive[j >>> 6] | bit : alive[j >>> 6] & ~bit;
+                awake[j >>> 6] = isAwake(i) ? awake[j >>> 6] | bit : awake[j >>> 6] & ~bit;
+            }
+            j++;
+        }
+        for (int i = j; i < size; i++) {
+            alive[i >>> 6] &= ~(1L << i);
+            awake[i >>> 6] &= ~(1L << i);
+            color[i] = null;
+        }
+        size = j;
+    }
+
+    public void stopAll() {
+        Arrays.fill(vx, 0, size, 0.0);
+        Arrays.fill(vy, 0, size, 0.0);
+    }
+
+    // Deep copy sized to the current content; colors are shared.
+    public BallStore copy() {
+        BallStore c = new BallStore(size);
+        copyInto(c);
+        return c;
+    }
+
+    public void copyInto(BallStore dst) {
+        if (dst.x.length < size) dst.grow(size);
+        System.arraycopy(x, 0, dst.x, 0, size);
+        System.arraycopy(y, 0, dst.y, 0, size);
+        System.arraycopy(vx, 0, dst.vx, 0, size);
+        System.arraycopy(vy, 0, dst.vy, 0, size);
+        System.arraycopy(radius, 0, dst.radius, 0, size);
+        System.arraycopy(id, 0, dst.id, 0, size);
+        System.arraycopy(color, 0, dst.color, 0, size);
+        Arrays.fill(dst.alive, 0L);
+        System.arraycopy(alive, 0, dst.alive, 0, Math.min(alive.length, dst.alive.length));
+        Arrays.fill(dst.awake, 0L);
+        System.arraycopy(awake, 0, dst.awake, 0, Math.min(awake.length, dst.awake.length));
+        System.arraycopy(still, 0, dst.still, 0, size);
+        dst.size = size;
+    }
+
+    private void grow(int capacity) {
+        int c = Math.max(capacity, 16);
+        x = Arrays.copyOf(x, c); y = Arrays.copyOf(y, c);
+        vx = Arrays.copyOf(vx, c); vy = Arrays.copyOf(vy, c);
+        radius = Arrays.copyOf(radius, c); id = Arrays.copyOf(id, c);
+        color = Arrays.copyOf(color, c);
+        alive = Arrays.copyOf(alive, (c + 63) >>> 6);
+        awake = Arrays.copyOf(awake, alive.length);
+        still = Arrays.copyOf(still, c);
+    }
+}
@@ -0,0 +1,299 @@
+package billiards;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Runs one table too large for one process split across several JVMs on this host.
+//
+// The walls' x range is cut into vertical strips that hold about the same number of
+// balls at the deal (the cuts stay put after that), and each strip is owned by a
+// DomainWorker process started here. Every tick, in lock step:
+//  - each worker integrates its own balls with the engine's phases;
+//  - neighbours swap the balls within HALO_RADII radii of their shared cut, and both
+//    resolve the pairs among those balls in ball id order, so they agree on the outcome
+//    to the bit; each then resolves its interior pairs and its holes alone;
+//  - balls that crossed a cut migrate to the worker that now owns them;
+//  - every worker reports its falls, live balls and whether anything moves. The
+//    falls are merged here into one hole order (by tick, then ball id, like a single
+//    engine), and the workers are told to step again or to stop, when they send
+//    back their balls.
+// A strip must be at least two halos wide, so no ball is near two cuts at once.
+//
+// One worker gives HeadlessRunner's run, fall for fall. With more, the pairs along a
+// cut are resolved before the interior ones instead of in grid order, so a run is
+// reproducible for a given worker count but not identical to a single engine's.
+//
+// Usage: java -cp billiards.jar billiards.DomainCoordinator [--workers 2] [--map 0]
+//            [--balls 8] [--seed 1] [--duration 60] [--threads 1] [--width 1000]
+//            [--height 600] [--maps DIR]
+public class DomainCoordinator {
+    static final byte STOP = 0, STEP = 1;
+    // a ball within this many radii of a cut is sent to the neighbour: two for the
+    // contact itself, two for how far either ball may be past the cut within a tick
+    static final int HALO_RADII = 4;
+    private static final int CONNECT_MILLIS = 60_000;
+    private static final long EXIT_SECONDS = 10L;
+
+    public static class Result {
+        public final HeadlessRunner.RunResult run; // wallNanos covers the ticks only
+        public final BallStore table;              // the live balls at the end, strip by strip
+        public final double[] cuts;                // strip edges, walls included
+        public final int[] dealt;                  // balls each worker started with
+        public final long haloBalls;               // ball copies sent across cuts
+        public final long migrations;              // balls that changed strips
+        public final long startNanos;              // starting the workers and dealing
+        Result(HeadlessRunner.RunResult run, BallStore table, double[] cuts, int[] dealt, long haloBalls,
+               long migrations, long startNanos) {
+            this.run = run; this.table = table; this.cuts = cuts; this.dealt = dealt; this.haloBalls = haloBalls;
+            this.migrations = migrations; this.startNanos = startNanos;
+        }
+        public int getWorkers() { return dealt.length; }
+    }
+
+    // One seeded run on workers processes of threads engine threads each. The table is
+    // map mapIndex of the maps in mapDir, or of the default maps at width x height when
+    // mapDir is null; durationS and the early end are HeadlessRunner's.
+    public static Result run(String mapDir, int width, int height, int mapIndex, int ballCount, long seed,
+                             double durationS, int workers, int threads) throws IOException {
+        MapDef map = maps(mapDir, width, height).get(mapIndex);
+        BallStore balls = new BallStore(ballCount);
+        int radius = BallPlacer.radiusFor(ballCount);
+        BallPlacer.place(balls, map, ballCount, radius, new Random(seed));
+        double[] cuts = cuts(balls, map.getBounds(), workers, 2.0 * HALO_RADII * radius);
+
+        long t0 = System.nanoTime();
+        List<Process> procs = new ArrayList<>();
+        DataInputStream[] in = new DataInputStream[workers];
+        DataOutputStream[] out = new DataOutputStream[workers];
+        Socket[] sockets = new Socket[workers];
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.setSoTimeout(CONNECT_MILLIS);
+            for (int k = 0; k < workers; k++) procs.add(launch(server.getLocalPort(), k));
+            int[] ports = new int[workers];
+            for (int c = 0; c < workers; c++) {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                DataInputStream i = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                int k = i.readInt();
+                if (k < 0 || k >= workers || sockets[k] != null) {
+                    s.close();
+                    throw new IOException("unexpected worker " + k);
+                }
+                sockets[k] = s;
+                in[k] = i;
+                ports[k] = i.readInt();
+                out[k] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+            }
+            int[] dealt = new int[workers];
+            for (int i = 0; i < balls.size(); i++) dealt[strip(balls.x[i], cuts)]++;
+            for (int k = 0; k < workers; k++) {
+                DataOutputStream o = out[k];
+                o.writeInt(workers);
+                o.writeUTF(mapDir == null ? "" : mapDir);
+                o.writeInt(width);
+                o.writeInt(height);
+                o.writeInt(mapIndex);
+                o.writeInt(threads);
+                o.writeInt(radius);
+                o.writeDouble(cuts[k]);
+                o.writeDouble(cuts[k + 1]);
+                o.writeInt(k > 0 ? ports[k - 1] : -1);
+                o.writeInt(dealt[k]);
+                for (int i = 0; i < balls.size(); i++) {
+                    if (strip(balls.x[i], cuts) == k) DomainWorker.writeBall(o, balls, i);
+                }
+                o.flush();
+            }
+
+            long t1 = System.nanoTime();
+            long maxTicks = (long) Math.ceil(durationS / SimulationEngine.DT);
+            List<HeadlessRunner.Fall> order = new ArrayList<>();
+            int[] fell = new int[16];
+            long ticks = 0, halo = 0, migrations = 0;
+            while (ticks < maxTicks) {
+                for (DataOutputStream o : out) {
+                    o.writeByte(STEP);
+                    o.flush();
+                }
+                ticks++;
+                int falls = 0, alive = 0;
+                boolean moving = false;
+                for (int k = 0; k < workers; k++) {
+                    DataInputStream i = in[k];
+                    try {
+                        int f = i.readInt();
+                        if (fell.length < falls + f) fell = Arrays.copyOf(fell, Math.max(2 * fell.length, falls + f));
+                        for (int j = 0; j < f; j++) fell[falls++] = i.readInt();
+                        alive += i.readInt();
+                        moving |= i.readBoolean();
+                        halo += i.readInt();
+                        migrations += i.readInt();
+                    } catch (EOFException e) {
+                        throw new IOException("worker " + k + " quit at tick " + ticks, e);
+                    }
+                }
+                Arrays.sort(fell, 0, falls);
+                for (int j = 0; j < falls; j++) order.add(new HeadlessRunner.Fall(fell[j], ticks * SimulationEngine.DT));
+                if (alive == 0 || !moving) break;
+            }
+            long t2 = System.nanoTime();
+            for (DataOutputStream o : out) {
+                o.writeByte(STOP);
+                o.flush();
+            }
+            BallStore table = new BallStore(balls.size());
+            Map<Integer, Color> colors = new HashMap<>();
+            for (int k = 0; k < workers; k++) {
+                for (int j = in[k].readInt(); j > 0; j--) DomainWorker.readBall(in[k], table, colors);
+            }
+            HeadlessRunner.RunResult run = new HeadlessRunner.RunResult(mapIndex, balls.size(), seed, order,
+                    ticks * SimulationEngine.DT, ticks, t2 - t1);
+            return new Result(run, table, cuts, dealt, halo, migrations, t1 - t0);
+        } finally {
+            for (Socket s : sockets) {
+                if (s != null) s.close();
+            }
+            for (Process p : procs) {
+                try {
+                    if (!p.waitFor(EXIT_SECONDS, TimeUnit.SECONDS)) p.destroyForcibly();
+                } catch (InterruptedException e) {
+                    p.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // The maps a run and its workers play: those in dir, or the defaults at width x height.
+    static List<MapDef> maps(String dir, int width, int height) throws IOException {
+        return dir == null || dir.isEmpty() ? Maps.defaults(width, height) : Maps.loadAll(Paths.get(dir));
+    }
+
+    // Cuts the walls' x range into strips of about the same ball count, none narrower
+    // than minWidth; cuts[0] and cuts[workers] are the walls.
+    static double[] cuts(BallStore balls, Rectangle bounds, int workers, double minWidth) {
+        double left = bounds.x, right = bounds.x + bounds.width;
+        if (bounds.width < workers * minWidth) {
+            throw new IllegalArgumentException("a table " + bounds.width + " px wide has room for at most "
+                    + (int) (bounds.width / minWidth) + " strips of " + (int) minWidth + " px");
+        }
+        int n = balls.size();
+        double[] xs = Arrays.copyOf(balls.x, n);
+        Arrays.sort(xs);
+        double[] cuts = new double[workers + 1];
+        cuts[0] = left;
+        cuts[workers] = right;
+        for (int k = 1; k < workers; k++) {
+            double c = n == 0 ? left + bounds.width * k / (double) workers : xs[(int) ((long) n * k / workers)];
+            cuts[k] = Math.min(Math.max(c, cuts[k - 1] + minWidth), right - (workers - k) * minWidth);
+        }
+        return cuts;
+    }
+
+    // index of the strip that owns x
+    static int strip(double x, double[] cuts) {
+        int k = 0;
+        while (k + 2 < cuts.length && x >= cuts[k + 1]) k++;
+        return k;
+    }
+
+    // Starts worker rank with this JVM's class path, reporting back to port.
+    private static Process launch(int port, int rank) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            cmd.add("--add-modules");
+            cmd.add("jdk.incubator.vector");
+        }
+        String vector = System.getProperty("billiards.vector");
+        if (vector != null) cmd.add("-Dbilliards.vector=" + vector);
+        cmd.add("-Djava.awt.headless=true");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(DomainWorker.class.getName());
+        cmd.add(Integer.toString(port));
+        cmd.add(Integer.toString(rank));
+        return new ProcessBuilder(cmd).inheritIO().start();
+    }
+
+    public static void main(String[] args) {
+        int workers = 2, map = 0, balls = 8, threads = 1;
+        int width = Maps.DEFAULT_WIDTH, height = Maps.DEFAULT_HEIGHT;
+        long seed = 1L;
+        double duration = 60.0;
+        String mapDir = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) usage("missing value for " + a);
+            String v = args[++i];
+            switch (a) {
+                case "--workers": workers = Integer.parseInt(v); break;
+                case "--map": map = Integer.parseInt(v); break;
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--duration": duration = Double.parseDouble(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--width": width = Integer.parseInt(v); break;
+                case "--height": height = Integer.parseInt(v); break;
+                case "--maps": mapDir = v; break;
+                default: usage("unknown option " + a);
+            }
+        }
+        if (workers < 1 || balls < 1 || threads < 1) usage("workers, balls and threads must be positive");
+        try {
+            int count = maps(mapDir, width, height).size();
+            if (map < 0 || map >= count) usage("map must be 0.." + (count - 1));
+        } catch (IOException e) {
+            usage(e.getMessage());
+        }
+        Result res = null;
+        try {
+            res = run(mapDir, width, height, map, balls, seed, duration, workers, threads);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("run failed: " + e.getMessage());
+            System.exit(1);
+        }
+        HeadlessRunner.RunResult r = res.run;
+        StringBuilder sb = new StringBuilder();
+        sb.append("map=").append(map).append(" balls=").append(r.ballCount).append(" seed=").append(r.seed)
+          .append(" workers=").append(workers)
+          .append(String.format(" stop=%.3fs ticks=%d wall=%.1fms start=%.1fms", r.stopTimeS, r.ticks,
+                  r.wallNanos / 1e6, res.startNanos / 1e6))
+          .append(String.format(" halo=%.1f/tick migrations=%d", res.haloBalls / (double) Math.max(1, r.ticks),
+                  res.migrations))
+          .append(" dealt=").append(Arrays.toString(res.dealt))
+          .append(" holes=[");
+        for (int k = 0; k < r.holeOrder.size(); k++) {
+            HeadlessRunner.Fall f = r.holeOrder.get(k);
+            if (k > 0) sb.append(' ');
+            sb.append('#').append(f.ballId).append(String.format("@%.3f", f.timeS));
+        }
+        System.out.println(sb.append(']'));
+    }
+
+    private static void usage(String msg) {
+        System.err.println(msg);
+        System.err.println("usage: DomainCoordinator [--workers N] [--map N] [--balls N] [--seed S] [--duration SEC] [--threads T] [--width W] [--height H] [--maps DIR]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,316 @@
+package billiards;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// One strip of a table that DomainCoordinator split across processes; see there for
+// the scheme. Started by the coordinator as
+//     java -cp ... billiards.DomainWorker PORT RANK
+// it connects back to PORT on the loopback interface, gets the map, its strip and its
+// balls, connects to its left neighbour, takes the connection of its right one, and
+// then steps whenever the coordinator says so.
+//
+// Everything is DataOutputStream fields. From the coordinator: the setup (as written
+// in DomainCoordinator.run), then STEP or STOP per tick. To it, per tick: the ids of
+// the balls that fell, the live ball count, whether any ball moves, and how many
+// balls went out as halo and as migrants; after STOP, the live balls. Between
+// neighbours, twice per tick: the balls within the halo of their cut after
+// integration (id, position, velocity, radius, still count), and the balls that
+// crossed it at the end of the tick (whole balls, as writeBall). Each worker first
+// writes to its right neighbour, then reads from and writes to its left one, then
+// reads from the right one; the last worker in the chain never waits to write, so no
+// two workers wait on each other.
+public class DomainWorker {
+    private final BallStore store;
+    private final SimulationEngine engine;
+    private final DataInputStream in;   // from the coordinator
+    private final DataOutputStream out;
+    private final Link left, right;     // null at the walls
+    private final double x0, x1, halo;  // the strip owns x0 <= x < x1
+    private final int radius;
+    private final Rectangle leftEdge, rightEdge; // grid bounds of the pairs along each cut
+    private final Map<Integer, Color> colors = new HashMap<>();
+    // pairs along a cut: both sides' halo balls in id order, and for each the store
+    // index of ours or -1 for the neighbour's
+    private final BallStore edge = new BallStore();
+    private final UniformGrid edgeGrid = new UniformGrid();
+    private long[] order = new long[64]; // id << 32 | slot
+    private int[] owner = new int[64];
+    private long[] gone = new long[1];   // migrants of this tick
+    private int[] fell = new int[16];
+
+    // Reads the setup the coordinator sends and connects to the neighbours.
+    DomainWorker(int rank, DataInputStream in, DataOutputStream out, ServerSocket listen) throws IOException {
+        this.in = in;
+        this.out = out;
+        int workers = in.readInt();
+        String mapDir = in.readUTF();
+        int width = in.readInt(), height = in.readInt(), mapIndex = in.readInt();
+        int threads = in.readInt();
+        radius = in.readInt();
+        x0 = in.readDouble();
+        x1 = in.readDouble();
+        int leftPort = in.readInt();
+        int n = in.readInt();
+        store = new BallStore(n);
+        for (int i = 0; i < n; i++) readBall(in, store, colors);
+        MapDef map = DomainCoordinator.maps(mapDir, width, height).get(mapIndex);
+        Rectangle bounds = map.getBounds();
+        halo = DomainCoordinator.HALO_RADII * radius;
+        leftEdge = edgeBounds(x0, bounds);
+        rightEdge = edgeBounds(x1, bounds);
+        engine = new SimulationEngine(store, map, bounds, threads, SimulationEngine.DT);
+        if (workers > 1) {
+            // the grid keeps its cell size over the strip, where the balls are
+            int from = Math.max(bounds.x, (int) Math.floor(x0 - halo));
+            int to = Math.min(bounds.x + bounds.width, (int) Math.ceil(x1 + halo));
+            engine.setGridBounds(new Rectangle(from, bounds.y, to - from, bounds.height));
+        }
+        left = leftPort < 0 ? null : new Link(new Socket(InetAddress.getLoopbackAddress(), leftPort));
+        right = rank + 1 < workers ? new Link(listen.accept()) : null;
+    }
+
+    // the same rectangle on both sides of a cut, so both build the same grid
+    private Rectangle edgeBounds(double cut, Rectangle bounds) {
+        return new Rectangle((int) Math.floor(cut - 2 * halo), bounds.y, (int) Math.ceil(4 * halo), bounds.height);
+    }
+
+    // Steps until the coordinator says stop, then sends it the live balls.
+    void run() throws IOException {
+        try {
+            while (in.readByte() == DomainCoordinator.STEP) step();
+            out.writeInt(store.aliveCount());
+            for (int i = 0; i < store.size(); i++) if (store.isAlive(i)) writeBall(out, store, i);
+            out.flush();
+        } finally {
+            engine.shutdown();
+            if (left != null) left.close();
+            if (right != null) right.close();
+        }
+    }
+
+    private void step() throws IOException {
+        int sent = 0, moved = 0, falls;
+        synchronized (store) {
+            engine.integrateAll();
+            if (right != null) sent += right.sendBand(store, x1 - halo, Double.POSITIVE_INFINITY);
+            if (left != null) {
+                left.readBand();
+                sent += left.sendBand(store, Double.NEGATIVE_INFINITY, x0 + halo);
+            }
+            if (right != null) right.readBand();
+            if (left != null) resolveEdge(left, leftEdge);
+            if (right != null) resolveEdge(right, rightEdge);
+            engine.resolveCollisions();
+            engine.checkHoles();
+            falls = engine.getFallenCount();
+            if (fell.length < falls) fell = new int[Math.max(2 * fell.length, falls)];
+            for (int k = 0; k < falls; k++) fell[k] = store.getId(engine.getFallen(k));
+
+            int n = store.size();
+            Arrays.fill(gone, 0L);
+            if (gone.length < (n + 63) >>> 6) gone = new long[(n + 63) >>> 6];
+            if (right != null) moved += right.sendMigrants(store, n, x1, Double.POSITIVE_INFINITY, gone);
+            if (left != null) {
+                left.readMigrants(store, colors);
+                moved += left.sendMigrants(store, n, Double.NEGATIVE_INFINITY, x0, gone);
+            }
+            if (right != null) right.readMigrants(store, colors);
+            if (moved > 0) {
+                if (gone.length < (store.size() + 63) >>> 6) gone = Arrays.copyOf(gone, (store.size() + 63) >>> 6);
+                store.remove(gone);
+            }
+        }
+        out.writeInt(falls);
+        for (int k = 0; k < falls; k++) out.writeInt(fell[k]);
+        out.writeInt(store.aliveCount());
+        out.writeBoolean(store.anyMoving(HeadlessRunner.REST_SPEED));
+        out.writeInt(sent);
+        out.writeInt(moved);
+        out.flush();
+    }
+
+    // Resolves the pairs among our and the neighbour's halo balls at one cut. The
+    // neighbour runs this on the same balls in the same order, so both end with the
+    // same state; we keep ours.
+    private void resolveEdge(Link l, Rectangle bounds) {
+        int mine = l.mineCount, n = mine + l.theirCount;
+        if (order.length < n) {
+            order = new long[Math.max(2 * order.length, n)];
+            owner = new int[order.length];
+        }
+        for (int j = 0; j < mine; j++) order[j] = (long) store.id[l.mine[j]] << 32 | j;
+        for (int j = 0; j < l.theirCount; j++) order[mine + j] = (long) l.id[j] << 32 | (mine + j);
+        Arrays.sort(order, 0, n);
+        edge.clear();
+        for (int e = 0; e < n; e++) {
+            int slot = (int) order[e];
+            if (slot < mine) {
+                int i = l.mine[slot];
+                edge.add(store.id[i], store.x[i], store.y[i], store.vx[i], store.vy[i], store.radius[i], null);
+                edge.still[e] = store.still[i];
+                owner[e] = i;
+            } else {
+                int t = slot - mine;
+                edge.add(l.id[t], l.x[t], l.y[t], l.vx[t], l.vy[t], l.radius[t], null);
+                edge.still[e] = l.still[t];
+                owner[e] = -1;
+            }
+        }
+        edgeGrid.build(bounds, 2 * radius, edge);
+        int pairs = edgeGrid.findPairs();
+        int[] pairA = edgeGrid.pairsA(), pairB = edgeGrid.pairsB();
+        for (int k = 0; k < pairs; k++) SimulationEngine.resolve(edge, pairA[k], pairB[k]);
+        for (int e = 0; e < n; e++) {
+            int i = owner[e];
+            if (i < 0) continue;
+            store.x[i] = edge.x[e]; store.y[i] = edge.y[e];
+            store.vx[i] = edge.vx[e]; store.vy[i] = edge.vy[e];
+            store.still[i] = edge.still[e];
+            // a contact wakes a sleeping ball, as in the engine
+            if (edge.still[e] == 0) store.wake(i);
+        }
+    }
+
+    // A whole ball: for the deal and for migrants.
+    static void writeBall(DataOutputStream out, BallStore s, int i) throws IOException {
+        out.writeInt(s.id[i]);
+        out.writeDouble(s.x[i]);
+        out.writeDouble(s.y[i]);
+        out.writeDouble(s.vx[i]);
+        out.writeDouble(s.vy[i]);
+        out.writeInt(s.radius[i]);
+        out.writeInt(s.color[i] == null ? 0 : s.color[i].getRGB());
+        out.writeInt(s.still[i]);
+        out.writeBoolean(s.isAwake(i));
+    }
+
+    // Appends a ball written by writeBall to s.
+    static void readBall(DataInputStream in, BallStore s, Map<Integer, Color> colors) throws IOException {
+        int id = in.readInt();
+        double x = in.readDouble(), y = in.readDouble(), vx = in.readDouble(), vy = in.readDouble();
+        int r = in.readInt(), rgb = in.readInt();
+        int i = s.add(id, x, y, vx, vy, r, colors.computeIfAbsent(rgb, v -> new Color(v, true)));
+        s.still[i] = in.readInt();
+        if (!in.readBoolean()) s.awake[i >>> 6] &= ~(1L << i);
+    }
+
+    // The connection to a neighbouring strip, with the halo balls last exchanged: ours
+    // as store indices, theirs as copies.
+    private static final class Link implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        int[] mine = new int[64];
+        int mineCount, theirCount;
+        int[] id = new int[64], radius = new int[64], still = new int[64];
+        double[] x = new double[64], y = new double[64], vx = new double[64], vy = new double[64];
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        // Sends the live balls with lo <= x < hi and keeps their indices; returns how many.
+        int sendBand(BallStore s, double lo, double hi) throws IOException {
+            mineCount = 0;
+            for (int i = 0, n = s.size(); i < n; i++) {
+                if (!s.isAlive(i) || s.x[i] < lo || s.x[i] >= hi) continue;
+                if (mineCount == mine.length) mine = Arrays.copyOf(mine, 2 * mineCount);
+                mine[mineCount++] = i;
+            }
+            out.writeInt(mineCount);
+            for (int j = 0; j < mineCount; j++) {
+                int i = mine[j];
+                out.writeInt(s.id[i]);
+                out.writeDouble(s.x[i]);
+                out.writeDouble(s.y[i]);
+                out.writeDouble(s.vx[i]);
+                out.writeDouble(s.vy[i]);
+                out.writeInt(s.radius[i]);
+                out.writeInt(s.still[i]);
+            }
+            out.flush();
+            return mineCount;
+        }
+
+        void readBand() throws IOException {
+            int n = in.readInt();
+            if (id.length < n) {
+                int c = Math.max(2 * id.length, n);
+                id = new int[c]; radius = new int[c]; still = new int[c];
+                x = new double[c]; y = new double[c]; vx = new double[c]; vy = new double[c];
+            }
+            for (int j = 0; j < n; j++) {
+                id[j] = in.readInt();
+                x[j] = in.readDouble();
+                y[j] = in.readDouble();
+                vx[j] = in.readDouble();
+                vy[j] = in.readDouble();
+                radius[j] = in.readInt();
+                still[j] = in.readInt();
+            }
+            theirCount = n;
+        }
+
+        // Sends the live balls among the first n with lo <= x < hi and marks them in
+        // gone; returns how many.
+        int sendMigrants(BallStore s, int n, double lo, double hi, long[] gone) throws IOException {
+            int count = 0;
+            for (int i = 0; i < n; i++) if (s.isAlive(i) && s.x[i] >= lo && s.x[i] < hi) count++;
+            out.writeInt(count);
+            for (int i = 0; i < n && count > 0; i++) {
+                if (!s.isAlive(i) || s.x[i] < lo || s.x[i] >= hi) continue;
+                writeBall(out, s, i);
+                gone[i >>> 6] |= 1L << i;
+            }
+            out.flush();
+            return count;
+        }
+
+        void readMigrants(BallStore s, Map<Integer, Color> colors) throws IOException {
+            for (int k = in.readInt(); k > 0; k--) readBall(in, s, colors);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: DomainWorker PORT RANK (started by DomainCoordinator)");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]), rank = Integer.parseInt(args[1]);
+        try (ServerSocket listen = new ServerSocket();
+             Socket coordinator = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            listen.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            coordinator.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream(), 1 << 16));
+            out.writeInt(rank);
+            out.writeInt(listen.getLocalPort());
+            out.flush();
+            new DomainWorker(rank, in, out, listen).run();
+        } catch (IOException e) {
+            System.err.println("worker " + rank + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package billiards;
+
+import java.awt.*;
+import java.util.PriorityQueue;
+
+// Exact event-driven alternative to fixed-step stepping. Friction is the same
+// exponential decay the stepping engine applies (v(s) = v0 * e^-ks), so a ball travels
+// v0 * g(s) with g(s) = (1 - e^-ks) / k. Every contact condition is then a quadratic in
+// g(s), which is solved for the exact time of impact. Events sit in a priority queue
+// and are invalidated lazily through per-ball collision counters instead of being
+// removed. Each ball carries its own reference time, so an event only touches the
+// balls involved. Map edges (diagonal cushions, obstacles) are capsules of the ball's
+// radius around a segment; their contact time is the earliest of the two sides and
+// the two end points.
+public class EventDrivenEngine {
+    private static final int BALL = 0, WALL_X = 1, WALL_Y = 2, HOLE = 3, EDGE = 4;
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private final BallStore s;
+    private final double k; // decay rate per second
+    private final double left, right, top, bottom;
+    private final MapGeometry geo;
+    private final double horizon; // events after this time are never queued
+    private final double[] t0;    // time at which ball i's stored state is valid
+    private final int[] count;    // bumped whenever ball i's trajectory changes
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private double now = 0;
+    private long events = 0;
+
+    // Takes ownership of the store, which is advanced in place.
+    public EventDrivenEngine(BallStore store, MapDef map, Rectangle bounds, double horizon) {
+        this.s = store;
+        this.k = -60 * Math.log(SimulationEngine.FRICTION);
+        this.left = bounds.x; this.top = bounds.y;
+        this.right = bounds.x + bounds.width; this.bottom = bounds.y + bounds.height;
+        this.geo = map.getGeometry();
+        this.horizon = horizon;
+        int n = store.size();
+        t0 = new double[n];
+        count = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (!s.isAlive(i)) continue;
+            predictSolo(i);
+            for (int j = i + 1; j < n; j++) if (s.isAlive(j)) predictPair(i, j);
+        }
+    }
+
+    public double getTime() { return now; }
+    public long getEventCount() { return events; }
+
+    // Processes events in time order until a ball falls (returns its index) or no
+    // event is left before the horizon (returns -1, time set to the horizon).
+    public int runUntilFall() {
+        Event e;
+        while ((e = queue.poll()) != null) {
+            if (!valid(e)) continue;
+            now = e.time;
+            events++;
+            int a = e.a;
+            advance(a, now);
+            switch (e.type) {
+                case BALL: {
+                    int b = e.b;
+                    advance(b, now);
+                    collide(a, b);
+                    count[a]++; count[b]++;
+                    repredict(a);
+                    repredict(b);
+                    break;
+                }
+                case WALL_X:
+                    s.vx[a] = -s.vx[a];
+                    count[a]++;
+                    repredict(a);
+                    break;
+                case WALL_Y:
+                    s.vy[a] = -s.vy[a];
+                    count[a]++;
+                    repredict(a);
+                    break;
+                case EDGE:
+                    reflect(a, e.b);
+                    count[a]++;
+                    repredict(a);
+                    break;
+                default: // HOLE
+                    s.setAlive(a, false);
+                    count[a]++;
+                    return a;
+            }
+        }
+        now = horizon;
+        return -1;
+    }
+
+    // Brings every live ball's stored state to time t (>= the last event time).
+    public void syncTo(double t) {
+        for (int i = 0; i < s.size(); i++) if (s.isAlive(i)) advance(i, t);
+    }
+
+    private boolean valid(Event e) {
+        if (!s.isAlive(e.a) || count[e.a] != e.countA) return false;
+        return e.type != BALL || (s.isAlive(e.b) && count[e.b] == e.countB);
+    }
+
+    private double g(double dt) {
+        return (1 - Math.exp(-k * dt)) / k;
+    }
+
+    // time needed to cover sigma (distance / initial speed); infinite if friction stops it first
+    private double timeFor(double sigma) {
+        double q = 1 - k * sigma;
+        return q <= 0 ? INF : -Math.log(q) / k;
+    }
+
+    private void advance(int i, double t) {
+        double dt = t - t0[i];
+        if (dt <= 0) return;
+        double gs = g(dt), decay = Math.exp(-k * dt);
+        s.x[i] += s.vx[i] * gs; s.y[i] += s.vy[i] * gs;
+        s.vx[i] *= decay; s.vy[i] *= decay;
+        t0[i] = t;
+    }
+
+    // same normal exchange with restitution as the stepping engine, at exact contact
+    private void collide(int a, int b) {
+        double dx = s.x[b] - s.x[a], dy = s.y[b] - s.y[a];
+        double dist = Math.sqrt(dx*dx + dy*dy);
+        if (dist == 0) return;
+        double nx = dx / dist, ny = dy / dist;
+        double va_n = s.vx[a]*nx + s.vy[a]*ny;
+        double vb_n = s.vx[b]*nx + s.vy[b]*ny;
+        double new_va_n = vb_n * SimulationEngine.RESTITUTION;
+        double new_vb_n = va_n * SimulationEngine.RESTITUTION;
+        s.vx[a] += (new_va_n - va_n)*nx; s.vy[a] += (new_va_n - va_n)*ny;
+        s.vx[b] += (new_vb_n - vb_n)*nx; s.vy[b] += (new_vb_n - vb_n)*ny;
+    }
+
+    // mirrors ball a's velocity off edge e at the contact point, as the stepping engine does
+    private void reflect(int a, int e) {
+        double px = s.x[a] - geo.ax[e], py = s.y[a] - geo.ay[e];
+        double t = Math.max(0, Math.min(1, (px*geo.ex[e] + py*geo.ey[e]) * geo.invLen2[e]));
+        double dx = px - t*geo.ex[e], dy = py - t*geo.ey[e];
+        double d = Math.sqrt(dx*dx + dy*dy), nx = geo.nx[e], ny = geo.ny[e];
+        if (d > 1e-9) { nx = dx / d; ny = dy / d; }
+        double vn = s.vx[a]*nx + s.vy[a]*ny;
+        if (vn < 0) {
+            s.vx[a] -= 2*vn*nx;
+            s.vy[a] -= 2*vn*ny;
+        }
+    }
+
+    private void repredict(int i) {
+        predictSolo(i);
+        for (int j = 0, n = s.size(); j < n; j++) {
+            if (j != i && s.isAlive(j)) predictPair(i, j);
+        }
+    }
+
+    // walls, edges and holes for one ball
+    private void predictSolo(int i) {
+        double x = s.x[i], y = s.y[i], vx = s.vx[i], vy = s.vy[i], r = s.radius[i];
+        if (vx > 0) schedule(t0[i] + timeFor(Math.max(0, (right - r - x) / vx)), WALL_X, i, -1);
+        else if (vx < 0) schedule(t0[i] + timeFor(Math.max(0, (left + r - x) / vx)), WALL_X, i, -1);
+        if (vy > 0) schedule(t0[i] + timeFor(Math.max(0, (bottom - r - y) / vy)), WALL_Y, i, -1);
+        else if (vy < 0) schedule(t0[i] + timeFor(Math.max(0, (top + r - y) / vy)), WALL_Y, i, -1);
+        for (int e = 0; e < geo.edges; e++) {
+            double sigma = edgeContact(e, x, y, vx, vy, r);
+            if (sigma >= 0) schedule(t0[i] + timeFor(sigma), EDGE, i, e);
+        }
+        // centre enters a hole circle
+        for (int h = 0; h < geo.holes; h++) {
+            double sigma = contact(x - geo.hx[h], y - geo.hy[h], vx, vy, geo.hr[h]);
+            if (sigma >= 0) schedule(t0[i] + timeFor(sigma), HOLE, i, -1);
+        }
+    }
+
+    // Smallest sigma >= 0 at which a ball at (x, y) moving along (ux, uy) touches edge e
+    // while approaching it; -1 if never.
+    private double edgeContact(int e, double x, double y, double ux, double uy, double r) {
+        double ax = geo.ax[e], ay = geo.ay[e], ex = geo.ex[e], ey = geo.ey[e];
+        double best = -1;
+        // flat side: distance to the edge's line reaches r within the segment
+        double nx = geo.nx[e], ny = geo.ny[e];
+        double d0 = (x - ax)*nx + (y - ay)*ny, un = ux*nx + uy*ny;
+        if (d0 < 0) { d0 = -d0; un = -un; }
+        if (un < 0) {
+            double sigma = Math.max(0, (d0 - r) / -un);
+            double t = ((x + ux*sigma - ax)*ex + (y + uy*sigma - ay)*ey) * geo.invLen2[e];
+            if (t >= 0 && t <= 1) best = sigma;
+        }
+        // end points
+        double s0 = contact(x - ax, y - ay, ux, uy, r);
+        if (s0 >= 0 && (best < 0 || s0 < best)) best = s0;
+        double s1 = contact(x - ax - ex, y - ay - ey, ux, uy, r);
+        if (s1 >= 0 && (best < 0 || s1 < best)) best = s1;
+        return best;
+    }
+
+    private void predictPair(int a, int b) {
+        // cheap reject: even at full remaining travel the two cannot meet before the horizon
+        double reach = reach(a) + reach(b) + s.radius[a] + s.radius[b];
+        double ex = s.x[b] - s.x[a], ey = s.y[b] - s.y[a];
+        if (ex*ex + ey*ey > reach*reach) return;
+        double t = Math.max(t0[a], t0[b]);
+        // both states at the common time, without touching the store
+        double da = Math.exp(-k * (t - t0[a])), ga = g(t - t0[a]);
+        double db = Math.exp(-k * (t - t0[b])), gb = g(t - t0[b]);
+        double rx = (s.x[b] + s.vx[b]*gb) - (s.x[a] + s.vx[a]*ga);
+        double ry = (s.y[b] + s.vy[b]*gb) - (s.y[a] + s.vy[a]*ga);
+        double ux = s.vx[b]*db - s.vx[a]*da;
+        double uy = s.vy[b]*db - s.vy[a]*da;
+        double sigma = contact(rx, ry, ux, uy, s.radius[a] + s.radius[b]);
+        if (sigma >= 0) schedule(t + timeFor(sigma), BALL, a, b);
+    }
+
+    // furthest ball i can still travel from its stored state before the horizon
+    private double reach(int i) {
+        double speed = Math.abs(s.vx[i]) + Math.abs(s.vy[i]);
+        return speed * g(Math.max(0, horizon - t0[i]));
+    }
+
+    // Smallest sigma >= 0 with |r + u*sigma| = dist while approaching; -1 if none.
+    private static double contact(double rx, double ry, double ux, double uy, double dist) {
+        double B = rx*ux + ry*uy;
+        if (B >= 0) return -1; // not closing in
+        double C = rx*rx + ry*ry - dist*dist;
+        if (C <= 0) return 0;  // already touching
+        double A = ux*ux + uy*uy;
+        double disc = B*B - A*C;
+        if (disc < 0) return -1;
+        return (-B - Math.sqrt(disc)) / A;
+    }
+
+    private void schedule(double time, int type, int a, int b) {
+        if (time > horizon) return;
+        queue.add(new Event(time, type, a, b, count[a], type == BALL ? count[b] : 0));
+    }
+
+    private static class Event implements Comparable<Event> {
+        final double time;
+        final int type, a, b, countA, countB;
+        Event(double time, int type, int a, int b, int countA, int countB) {
+            this.time = time; this.type = type; this.a = a; this.b = b; this.countA = countA; this.countB = countB;
+        }
+        @Override
+        public int compareTo(Event o) { return Double.compare(time, o.time); }
+    }
+}
@@ -0,0 +1,104 @@
+package billiards;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Asynchronous, batched log of simulation events. Producers (the tick thread among
+// them) only offer a small record to a bounded queue and never format, print or block;
+// when the queue is full the event is dropped and counted. A daemon thread drains it
+// in batches and writes each batch with a single print.
+public class EventLog implements AutoCloseable {
+    private static final int BATCH = 256;
+    private static final long LINGER_MS = 100;
+    private static final Entry END = new Entry(0, 0, null);
+
+    private final PrintStream out;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile long logged, dropped;
+
+    public EventLog(PrintStream out, int capacity) {
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::drain, "event-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long getLogged() { return logged; }
+    public long getDropped() { return dropped; }
+
+    // A ball fell into the hole; formatted later, on the log thread.
+    public void ballFell(long tick, int ballId) {
+        offer(new Entry(tick, ballId, null));
+    }
+
+    public void info(String message) {
+        offer(new Entry(-1, 0, message));
+    }
+
+    private void offer(Entry e) {
+        if (closed || !queue.offer(e)) {
+            synchronized (this) { dropped++; }
+        }
+    }
+
+    // Writes what is queued and stops the log thread.
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        StringBuilder sb = new StringBuilder();
+        boolean done = false;
+        while (!done) {
+            try {
+                Entry first = queue.poll(LINGER_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+            } catch (InterruptedException e) {
+                done = true;
+            }
+            int n = 0;
+            for (Entry e : batch) {
+                if (e == END) {
+                    done = true;
+                    continue;
+                }
+                n++;
+                if (e.text != null) sb.append(e.text);
+                else sb.append("Ball #").append(e.ballId).append(" fell into hole (tick ").append(e.tick).append(')');
+                sb.append(System.lineSeparator());
+            }
+            if (sb.length() > 0) {
+                out.print(sb);
+                out.flush();
+            }
+            logged += n;
+            batch.clear();
+            sb.setLength(0);
+        }
+    }
+
+    private static final class Entry {
+        final long tick;
+        final int ballId;
+        final String text;
+        Entry(long tick, int ballId, String text) { this.tick = tick; this.ballId = ballId; this.text = text; }
+    }
+}
@@ -0,0 +1,274 @@
+package billiards;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Random-access store of a recording: a memory-mapped file with one fixed-stride frame
+// per tick, so tick N is found by arithmetic and read straight from the page cache.
+//
+// Layout (big-endian):
+//   header   HEADER_SIZE bytes: magic, version, quant, dt, first tick, frame count,
+//            capacity (balls per slot), alive words, frame stride, key stride, key
+//            region offset, key count
+//   frames   frameCount slots of frameStride bytes, slot N = tick firstTick + N:
+//            int key index, int ball count, long[words] alive bits,
+//            short[cap] dx, short[cap] dy (1/quant px, relative to the keyframe)
+//   keys     keyCount slots of keyStride bytes:
+//            long tick, int ball count, int 0, int[cap] id, int[cap] rgb,
+//            int[cap] x, int[cap] y (1/quant px), short[cap] radius
+// A keyframe is cut every KEYFRAME_INTERVAL ticks, when the layout changes or when an
+// offset would overflow a short. Seeking is O(1): one frame slot plus its keyframe.
+// Analysis code can read the raw slots through frame() and key() without copying.
+public class FrameFile implements AutoCloseable {
+    static final int MAGIC = 0x42524631; // "BRF1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 72;
+    public static final int KEYFRAME_INTERVAL = SimulationEngine.TICK_HZ;
+    // frames per mapping are chosen so one mapping stays around this size
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    private final FileChannel channel;
+    private final int quant, cap, words, frameStride, keyStride, keyCount;
+    private final double dt;
+    private final long firstTick, frameCount, keysOffset;
+    private final Window frames, keys;
+
+    // decoded state for seek()
+    private final BallStore store = new BallStore();
+    private final Map<Integer, Color> colors = new HashMap<>();
+    private int storeKey = -1;
+    private long tick = -1;
+
+    public FrameFile(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (h.getInt() != MAGIC) throw new IOException("not a frame file: " + file);
+            int version = h.getInt();
+            if (version != VERSION) throw new IOException("unsupported frame file version " + version);
+            quant = h.getInt();
+            dt = h.getDouble();
+            firstTick = h.getLong();
+            frameCount = h.getLong();
+            cap = h.getInt();
+            words = h.getInt();
+            frameStride = h.getInt();
+            keyStride = h.getInt();
+            keysOffset = h.getLong();
+            keyCount = h.getInt();
+            if (frameCount < 1 || keyCount < 1 || channel.size() < keysOffset + (long) keyCount * keyStride) {
+                throw new IOException("incomplete frame file: " + file);
+            }
+            frames = new Window(channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE, frameStride, frameCount);
+            keys = new Window(channel, FileChannel.MapMode.READ_ONLY, keysOffset, keyStride, keyCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public double getDt() { return dt; }
+    public int getQuant() { return quant; }
+    public int getCapacity() { return cap; }
+    public long getFirstTick() { return firstTick; }
+    public long getLastTick() { return firstTick + frameCount - 1; }
+    public long getFrameCount() { return frameCount; }
+    public int getKeyframeCount() { return keyCount; }
+    public long getTick() { return tick; }
+    // Table at the tick of the last seek(); velocities come from the previous frame.
+    public BallStore getStore() { return store; }
+
+    // Read-only view of tick t's frame slot (layout in the class comment).
+    public ByteBuffer frame(long t) {
+        return frames.slot(Math.max(0, Math.min(frameCount - 1, t - firstTick)));
+    }
+
+    // Read-only view of keyframe slot k.
+    public ByteBuffer key(int k) { return keys.slot(k); }
+
+    // Decodes the table at tick t, clamped to the recorded range; returns the tick.
+    public long seek(long t) {
+        long slot = Math.max(0, Math.min(frameCount - 1, t - firstTick));
+        ByteBuffer f = frames.slot(slot);
+        int k = f.getInt(0);
+        ByteBuffer kb = keys.slot(k);
+        int n = kb.getInt(8);
+        if (k != storeKey) {
+            store.clear();
+            for (int i = 0; i < n; i++) {
+                int rgb = kb.getInt(16 + 4*cap + 4*i);
+                Color c = colors.computeIfAbsent(rgb, v -> new Color(v, true));
+                store.add(kb.getInt(16 + 4*i), 0, 0, 0, 0, kb.getShort(16 + 16*cap + 2*i), c);
+            }
+            storeKey = k;
+        }
+        // the previous frame gives the velocity when it belongs to the same keyframe
+        ByteBuffer p = slot > 0 ? frames.slot(slot - 1) : null;
+        if (p != null && p.getInt(0) != k) p = null;
+        int dxAt = 8 + 8*words, dyAt = dxAt + 2*cap;
+        for (int i = 0; i < n; i++) {
+            store.setAlive(i, (f.getLong(8 + 8*(i >>> 6)) & (1L << i)) != 0);
+            int x = kb.getInt(16 + 8*cap + 4*i), y = kb.getInt(16 + 12*cap + 4*i);
+            int dx = f.getShort(dxAt + 2*i), dy = f.getShort(dyAt + 2*i);
+            store.setPosition(i, (x + dx) / (double) quant, (y + dy) / (double) quant);
+            if (p == null) {
+                store.setVelocity(i, 0, 0);
+            } else {
+                double s = quant * dt;
+                store.setVelocity(i, (dx - p.getShort(dxAt + 2*i)) / s, (dy - p.getShort(dyAt + 2*i)) / s);
+            }
+        }
+        tick = firstTick + slot;
+        return tick;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Builds a frame file from a replay recording; a tick recorded twice (a respawn)
+    // keeps its last state and a tick missing from the recording repeats the one before.
+    public static void convert(Path replayFile, Path out) throws IOException {
+        try (ReplayReader r = new ReplayReader(replayFile);
+             FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int cap = Math.max(1, r.getMaxBalls());
+            int words = (cap + 63) >>> 6;
+            int frameStride = align(8 + 8*words + 4*cap);
+            int keyStride = align(16 + 18*cap);
+            long first = r.getFirstTick(), count = r.getLastTick() - first + 1;
+            long keysOffset = align(HEADER_SIZE + count * frameStride);
+            Window frames = new Window(ch, FileChannel.MapMode.READ_WRITE, HEADER_SIZE, frameStride, count);
+
+            ByteBuffer frame = ByteBuffer.allocate(frameStride), key = ByteBuffer.allocate(keyStride);
+            int keyCount = 0, kn = -1;
+            long keyTick = 0, slot = -1;
+            int[] kid = new int[cap], krgb = new int[cap], kx = new int[cap], ky = new int[cap], kr = new int[cap];
+            r.seek(first);
+            do {
+                BallStore s = r.getStore();
+                long at = r.getTick() - first;
+                // fill a gap with the last frame
+                for (long g = slot + 1; g < at; g++) frames.slot(g).put(frame.clear());
+                int n = s.size();
+                boolean newKey = keyCount == 0 || n != kn || r.getTick() - keyTick >= KEYFRAME_INTERVAL;
+                for (int i = 0; i < n && !newKey; i++) {
+                    newKey = s.id[i] != kid[i] || s.radius[i] != kr[i] || rgb(s, i) != krgb[i]
+                            || !fitsShort(q(s.x[i]) - kx[i]) || !fitsShort(q(s.y[i]) - ky[i]);
+                }
+                if (newKey) {
+                    kn = n;
+                    keyTick = r.getTick();
+                    Arrays.fill(key.array(), (byte) 0);
+                    key.clear();
+                    key.putLong(0, keyTick).putInt(8, n).putInt(12, 0);
+                    for (int i = 0; i < n; i++) {
+                        kid[i] = s.id[i]; krgb[i] = rgb(s, i); kr[i] = s.radius[i];
+                        kx[i] = q(s.x[i]); ky[i] = q(s.y[i]);
+                        key.putInt(16 + 4*i, kid[i]).putInt(16 + 4*cap + 4*i, krgb[i])
+                           .putInt(16 + 8*cap + 4*i, kx[i]).putInt(16 + 12*cap + 4*i, ky[i])
+                           .putShort(16 + 16*cap + 2*i, (short) kr[i]);
+                    }
+                    ch.write(key, keysOffset + (long) keyCount * keyStride);
+                    keyCount++;
+                }
+                Arrays.fill(frame.array(), (byte) 0);
+                frame.putInt(0, keyCount - 1).putInt(4, n);
+                for (int w = 0; w < words && w < s.alive.length; w++) frame.putLong(8 + 8*w, s.alive[w]);
+                int dxAt = 8 + 8*words, dyAt = dxAt + 2*cap;
+                for (int i = 0; i < n; i++) {
+                    frame.putShort(dxAt + 2*i, (short) (q(s.x[i]) - kx[i]));
+                    frame.putShort(dyAt + 2*i, (short) (q(s.y[i]) - ky[i]));
+                }
+                frames.slot(at).put(frame.clear());
+                slot = at;
+            } while (r.next());
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+            h.putInt(MAGIC).putInt(VERSION).putInt(ReplayRecorder.QUANT).putDouble(r.getDt())
+             .putLong(first).putLong(count).putInt(cap).putInt(words).putInt(frameStride).putInt(keyStride)
+             .putLong(keysOffset).putInt(keyCount).flip();
+            frames.force();
+            ch.write(h, 0);
+        }
+    }
+
+    private static int q(double v) { return (int) Math.round(v * ReplayRecorder.QUANT); }
+    private static int rgb(BallStore s, int i) { return s.color[i] == null ? 0 : s.color[i].getRGB(); }
+    private static boolean fitsShort(int v) { return v >= Short.MIN_VALUE && v <= Short.MAX_VALUE; }
+    private static int align(int n) { return (n + 7) & ~7; }
+    private static long align(long n) { return (n + 7) & ~7L; }
+
+    // Fixed-stride slots over a file region, mapped lazily in chunks of whole slots so
+    // no mapping exceeds the 2 GB ByteBuffer limit.
+    private static final class Window {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long base, count;
+        private final int stride, perMap;
+        private final MappedByteBuffer[] maps;
+
+        Window(FileChannel channel, FileChannel.MapMode mode, long base, int stride, long count) {
+            this.channel = channel; this.mode = mode; this.base = base; this.stride = stride; this.count = count;
+            this.perMap = (int) Math.max(1, WINDOW_BYTES / stride);
+            this.maps = new MappedByteBuffer[(int) ((count + perMap - 1) / perMap)];
+        }
+
+        // slot i as a buffer of exactly one stride
+        ByteBuffer slot(long i) {
+            int m = (int) (i / perMap);
+            MappedByteBuffer mb = maps[m];
+            if (mb == null) {
+                long slots = Math.min(perMap, count - (long) m * perMap);
+                try {
+                    mb = channel.map(mode, base + (long) m * perMap * stride, slots * stride);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+                maps[m] = mb;
+            }
+            int off = (int) (i - (long) m * perMap) * stride;
+            ByteBuffer b = mb.slice(off, stride);
+            return mode == FileChannel.MapMode.READ_ONLY ? b.asReadOnlyBuffer() : b;
+        }
+
+        void force() {
+            for (MappedByteBuffer mb : maps) if (mb != null) mb.force();
+        }
+    }
+
+    // Converts a replay and prints a summary, or the table at a tick.
+    // Usage: java -cp billiards.jar billiards.FrameFile REPLAY FRAMES [TICK]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: FrameFile REPLAY FRAMES [TICK]");
+            System.exit(2);
+        }
+        long t0 = System.nanoTime();
+        convert(Paths.get(args[0]), Paths.get(args[1]));
+        try (FrameFile f = new FrameFile(Paths.get(args[1]))) {
+            System.out.printf("ticks %d..%d, %d keyframes, frame %d bytes, converted in %.0f ms%n",
+                    f.getFirstTick(), f.getLastTick(), f.getKeyframeCount(), f.frameStride, (System.nanoTime() - t0) / 1e6);
+            if (args.length > 2) {
+                long at = f.seek(Long.parseLong(args[2]));
+                BallStore s = f.getStore();
+                System.out.println("tick " + at + ":");
+                for (int i = 0; i < s.size(); i++) {
+                    if (!s.isAlive(i)) continue;
+                    System.out.printf("  #%d (%.2f, %.2f) v=(%.1f, %.1f)%n", s.getId(i), s.getX(i), s.getY(i),
+                            s.getVx(i), s.getVy(i));
+                }
+            }
+        }
+    }
+}
@@ -3,298 +3,616 @@ package billiards;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
 
 public class GamePanel extends JPanel {
+    private static final Font METRICS_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color METRICS_BACKGROUND = new Color(0, 0, 0, 160);
     // Panel size
     private final int WIDTH;
     private final int HEIGHT;
 
     // Simulation parameters
-    private int ballCount = 8;
-    private final int DEFAULT_RADIUS = 14;
-    private final int MIN_RADIUS = 4;
-    private int radius = DEFAULT_RADIUS;
-    private final double FRICTION = 0.995; // per tick multiplier
+    // fields shown in the HUD are volatile: the render thread reads them
+    private volatile int ballCount = 8;
+    private volatile int radius = BallPlacer.DEFAULT_RADIUS;
     private final long SIM_SECONDS = 60L;
+    private static final double PREDICT_SECONDS = 10.0;
+    // P on a table that has not moved by a quantum since the last P answers from here
+    private final PredictionCache<MonteCarloPredictor.Distribution> predictions = new PredictionCache<>(16);
+    // every respawn uses the next seed, so any run can be reproduced headless
+    private volatile long seed;
 
     // Maps
-    private List<MapDef> maps;
-    private int currentMap = 0;
+    private final List<MapDef> maps;
+    private final Rectangle[] mapBounds; // per map, computed once instead of per frame
+    private volatile int currentMap = 0;
+    private int nextMap = 0;   // EDT: map of the latest respawn asked for
+    private int respawns = 0;  // EDT: respawns asked for; only the latest is swapped in
 
     // Objects
-    private List<Ball> balls = Collections.synchronizedList(new ArrayList<>());
+    private final BallStore balls = new BallStore();
     private volatile boolean running = false;
-    private volatile long simEndTime = 0L; // epoch millis when motion must stop
+    private volatile long stopTick = 0L; // engine tick at which motion must stop
 
     // Threads
-    private ExecutorService exec;
+    private SimulationEngine engine;   // null when following a remote table
+    private final TableClient remote;  // the remote table, if any
+    private volatile SnapshotExchange snapshots;
     private ScheduledExecutorService scheduler;
-
-    // Rendering
-    private final int TARGET_FPS = 60;
-    private javax.swing.Timer repaintTimer;
+    // follows the live table and forecasts the next fall for the HUD
+    private volatile LivePredictor predictor;
+
+    // Replays: the recorder is attached to the engine; the reader is only touched on
+    // the scheduler thread, which feeds its frames to the renderer instead of ticking.
+    private final Path replayFile = Paths.get("billiards-replay.bin");
+    private ReplayRecorder recorder;
+    private ReplayReader replay;
+    private volatile boolean replaying = false;
+    private volatile double replaySpeed = 1.0;
+    private volatile double replayCursor;  // tick being shown, fractional at odd speeds
+    private final AtomicLong replayJump = new AtomicLong(); // seeks requested by the keys, in ticks
+    private volatile long replayLastTick;
+    // Scrubbing: random access into the recording converted to a memory-mapped frame file
+    private final Path framesFile = Paths.get("billiards-replay.frames");
+    private FrameFile scrub;               // scheduler thread only
+    private volatile boolean scrubbing = false;
+    private volatile long scrubFirst, scrubLast;
+    private final AtomicLong scrubTick = new AtomicLong();
+    private long scrubShown = -1;          // scheduler thread only
+    private volatile boolean converting = false;
+
+    // Rendering: a render thread draws the canvas on its own clock (see RenderLoop)
+    private final Canvas canvas = new Canvas();
+    private final TableRenderer renderer;
+    private RenderLoop renderLoop;
     // UI state
-    private boolean paused = false;
+    private volatile boolean paused = false;
+    private boolean predicting = false;
+    private volatile boolean showMetrics = false;
+    // console messages, printed off the tick thread
+    private final EventLog events = new EventLog(System.out, 4096);
+    private GcMonitor gc;
 
     public GamePanel(int w, int h) {
+        this(w, h, System.nanoTime());
+    }
+
+    public GamePanel(int w, int h, long seed) {
+        this(w, h, seed, Maps.defaults(w, h), null);
+    }
+
+    // Plays the given maps, e.g. loaded from map files; the panel fits the largest.
+    public GamePanel(List<MapDef> maps, long seed) {
+        this(width(maps), height(maps), seed, maps, null);
+    }
+
+    // Shows a table played by a TableServer; maps must be the server's. Only the view
+    // keys work: the table is the server's to run.
+    public GamePanel(List<MapDef> maps, TableClient remote) {
+        this(width(maps), height(maps), 0, maps, remote);
+    }
+
+    private GamePanel(int w, int h, long seed, List<MapDef> maps, TableClient remote) {
         this.WIDTH = w;
         this.HEIGHT = h;
-        setPreferredSize(new Dimension(WIDTH, HEIGHT));
-        setBackground(new Color(30,120,30));
+        this.seed = seed;
+        this.remote = remote;
+        this.maps = List.copyOf(maps);
+        this.mapBounds = new Rectangle[this.maps.size()];
+        for (int i = 0; i < mapBounds.length; i++) mapBounds[i] = this.maps.get(i).getBounds();
+        setLayout(new BorderLayout());
+        canvas.setPreferredSize(new Dimension(WIDTH, HEIGHT));
+        canvas.setBackground(TableRenderer.BACKGROUND);
+        // focus stays on the panel so its key bindings keep working
+        canvas.setFocusable(false);
+        add(canvas, BorderLayout.CENTER);
+        renderer = new TableRenderer(WIDTH, HEIGHT);
 
-        initMaps();
         setFocusable(true);
         requestFocusInWindow();
         setupKeyBindings();
+        setupMouse();
     }
 
-    private void initMaps() {
-        maps = new ArrayList<>();
-        maps.add(new MapDef("Classic center hole",
-                40,
-                new Point(WIDTH/2, HEIGHT/2),
-                30,
-                new Rectangle(60, 60, 200, HEIGHT-120),
-                new Rectangle(WIDTH-260, 60, 200, HEIGHT-120)
-        ));
-        maps.add(new MapDef("Left-top hole",
-                20,
-                new Point(WIDTH/4, HEIGHT/4),
-                28,
-                new Rectangle(60, HEIGHT-200, 200, 140),
-                new Rectangle(WIDTH-260, 60, 200, HEIGHT-120)
-        ));
-        maps.add(new MapDef("Bottom hole with corridor",
-                30,
-                new Point(WIDTH/2, HEIGHT-80),
-                26,
-                new Rectangle(60, 60, 200, 120),
-                new Rectangle(WIDTH-260, HEIGHT-180, 200, 120)
-        ));
+    private static int width(List<MapDef> maps) {
+        return maps.stream().mapToInt(MapDef::getWidth).max().orElse(Maps.DEFAULT_WIDTH);
     }
 
+    private static int height(List<MapDef> maps) {
+        return maps.stream().mapToInt(MapDef::getHeight).max().orElse(Maps.DEFAULT_HEIGHT);
+    }
+
+    // Balls on the first table, before start(); beyond the 200 that + reaches, the
+    // renderer's heatmap takes over from single balls.
+    public void setBallCount(int n) { ballCount = Math.max(1, n); }
+
     public void start() {
         running = true;
-        simEndTime = System.currentTimeMillis() + SIM_SECONDS * 1000L;
-        exec = Executors.newCachedThreadPool();
+        if (remote != null) {
+            // nothing to tick: the stream feeds the renderer
+            snapshots = remote.getSnapshots();
+            remote.start();
+            renderLoop = new RenderLoop(canvas, this::render, 0);
+            renderLoop.start();
+            return;
+        }
         scheduler = Executors.newScheduledThreadPool(1);
 
         recreateBalls();
-
-        // start worker threads (one worker per ball)
-        for (Ball b : balls) {
-            exec.submit(new BallWorker(b));
+        engine = new SimulationEngine(balls, maps.get(currentMap), boundary());
+        snapshots = engine.enableSnapshots();
+        stopTick = SIM_SECONDS * SimulationEngine.TICK_HZ;
+        predictor = new LivePredictor(SimulationEngine.DT, PREDICT_SECONDS);
+        predictor.setStopTick(stopTick);
+        engine.setPredictor(predictor);
+        SimulationMetrics metrics = engine.getMetrics();
+        metrics.setExchange(snapshots);
+        metrics.setEventLog(events);
+        gc = new GcMonitor();
+        metrics.setGcMonitor(gc);
+        try {
+            metrics.register("table");
+        } catch (JMException ex) {
+            events.info("JMX unavailable: " + ex.getMessage());
         }
 
-        // main collision and hole check scheduler at ~60Hz
+        // fixed-step physics: integrate, collide and check holes once per tick. Time is
+        // counted in ticks, never read from the wall clock, so a seed replays exactly.
+        long period = 1_000_000_000L / SimulationEngine.TICK_HZ;
+        long first = System.nanoTime();
+        long[] runs = {0};
         scheduler.scheduleAtFixedRate(() -> {
-            if (!paused) {
-                resolveCollisions();
-                checkHoles();
+            metrics.recordLateness(System.nanoTime() - (first + runs[0]++ * period), period);
+            if (scrubbing) {
+                showScrub();
+            } else if (replaying) {
+                stepReplay(paused ? 0 : replaySpeed);
+            } else if (!paused) {
+                engine.tick();
+                for (int k = 0; k < engine.getFallenCount(); k++) {
+                    events.ballFell(engine.getTickCount(), balls.getId(engine.getFallen(k)));
+                }
                 // stop velocities after SIM_SECONDS
-                if (System.currentTimeMillis() > simEndTime) {
-                    synchronized (balls) {
-                        for (Ball b : balls) {
-                            b.setVelocity(0,0);
-                        }
-                    }
+                if (engine.getTickCount() >= stopTick) {
+                    engine.stopAll();
                 }
             }
-        }, 0, 1000 / TARGET_FPS, TimeUnit.MILLISECONDS);
+        }, 0, period, TimeUnit.NANOSECONDS);
 
-        // repaint swing timer
-        repaintTimer = new javax.swing.Timer(1000/ TARGET_FPS, e -> repaint());
-        repaintTimer.start();
+        // active rendering, independent of the tick rate
+        renderLoop = new RenderLoop(canvas, this::render, 0);
+        metrics.setRenderNanos(renderLoop.getRenderNanos());
+        renderLoop.start();
     }
 
     public void stop() {
         running = false;
-        if (exec != null) exec.shutdownNow();
+        stopRecording();
+        if (remote != null) remote.close();
         if (scheduler != null) scheduler.shutdownNow();
-        if (repaintTimer != null) repaintTimer.stop();
+        if (engine != null) engine.setPredictor(null);
+        if (predictor != null) predictor.close();
+        if (engine != null) engine.shutdown();
+        if (renderLoop != null) renderLoop.stop();
+        if (engine != null) engine.getMetrics().unregister();
+        if (gc != null) gc.close();
+        events.close();
+    }
+
+    // Respawns the balls on map nextMap with the next seed. On the EDT: the balls are
+    // placed into a store of their own on a worker, and the scheduler thread swaps them
+    // in between two ticks, so neither the EDT nor the tick waits for the placement.
+    private void restartSimulation() {
+        if (replaying || scrubbing || !running) return;
+        long s = ++seed;
+        int map = nextMap, count = ballCount, gen = ++respawns;
+        new SwingWorker<BallStore, Void>() {
+            @Override protected BallStore doInBackground() {
+                BallStore fresh = new BallStore(count);
+                BallPlacer.place(fresh, maps.get(map), count, BallPlacer.radiusFor(count), new Random(s));
+                return fresh;
+            }
+            @Override protected void done() {
+                // a later key press already asked for another table
+                if (gen != respawns || !running) return;
+                try {
+                    BallStore fresh = get();
+                    scheduler.execute(() -> install(fresh, map, count));
+                } catch (InterruptedException | ExecutionException ex) {
+                    events.info("Respawn failed: " + ex.getMessage());
+                }
+            }
+        }.execute();
     }
 
+    // scheduler thread: makes a placed store the live table and points the engine at it
+    private void install(BallStore fresh, int map, int count) {
+        if (replaying || scrubbing) return;
+        synchronized (balls) {
+            setRadius(BallPlacer.radiusFor(count));
+            currentMap = map;
+            fresh.copyInto(balls);
+            engine.setMap(maps.get(map), boundary());
+            stopTick = engine.getTickCount() + SIM_SECONDS * SimulationEngine.TICK_HZ;
+            predictor.setStopTick(stopTick);
+            engine.republish();
+        }
+        reportShort(fresh.size(), count, map);
+    }
+
+    // the first table, placed on the calling thread before the engine starts
     private void recreateBalls() {
-        // adjust radius when many balls
-        if (ballCount > 50) {
-            radius = Math.max(MIN_RADIUS, (int)(DEFAULT_RADIUS * (8.0 / Math.sqrt(ballCount))));
-        } else {
-            radius = DEFAULT_RADIUS;
+        setRadius(BallPlacer.radiusFor(ballCount));
+        int placed;
+        synchronized (balls) {
+            placed = BallPlacer.place(balls, maps.get(currentMap), ballCount, radius, new Random(seed));
         }
-        balls.clear();
-        MapDef m = maps.get(currentMap);
-        Random rnd = new Random();
-        Rectangle s = m.getStartZone();
-        int attemptsPerBall = 1000;
-        for (int i = 0; i < ballCount; i++) {
-            boolean placed = false;
-            for (int att = 0; att < attemptsPerBall && !placed; att++) {
-                double x = s.x + radius + rnd.nextDouble() * Math.max(0, s.width - 2*radius);
-                double y = s.y + radius + rnd.nextDouble() * Math.max(0, s.height - 2*radius);
-                boolean ok = true;
-                synchronized (balls) {
-                    for (Ball other : balls) {
-                        double dx = other.getX() - x;
-                        double dy = other.getY() - y;
-                        if (Math.hypot(dx, dy) < other.getRadius() + radius + 2) {
-                            ok = false; break;
-                        }
-                    }
-                }
-                if (ok) {
-                    double[] v = randAngleVelocity(150, 260);
-                    Color color = Ball.COLOR_POOL[i % Ball.COLOR_POOL.length];
-                    Ball b = new Ball(i+1, x, y, v[0], v[1], radius, color);
-                    balls.add(b);
-                    placed = true;
-                }
+        reportShort(placed, ballCount, currentMap);
+    }
+
+    private void setRadius(int r) {
+        if (r != radius) renderer.invalidateSprites();
+        radius = r;
+    }
+
+    private void reportShort(int placed, int count, int map) {
+        if (placed < count) events.info("Only " + placed + " of " + count + " balls fit on " + maps.get(map).getName());
+    }
+
+    private void toggleRecording() {
+        if (recorder != null) {
+            stopRecording();
+            return;
+        }
+        try {
+            recorder = new ReplayRecorder(replayFile, engine.getDt());
+            engine.setRecorder(recorder);
+            events.info("Recording to " + replayFile.toAbsolutePath());
+        } catch (IOException ex) {
+            recorder = null;
+            JOptionPane.showMessageDialog(this, "Cannot record: " + ex.getMessage());
+        }
+    }
+
+    private void stopRecording() {
+        if (recorder == null) return;
+        engine.setRecorder(null);
+        try {
+            recorder.close();
+            events.info("Recorded " + recorder.getFramesWritten() + " ticks, " + recorder.getBytesWritten() + " bytes"
+                    + (recorder.getDropped() == 0 ? "" : ", " + recorder.getDropped() + " dropped while the disk was behind"));
+        } catch (IOException ex) {
+            events.info("Recording failed: " + ex.getMessage());
+        }
+        recorder = null;
+    }
+
+    // Opens or closes the replay; runs on the scheduler thread, which owns the reader.
+    private void toggleReplay() {
+        if (replay != null) {
+            replaying = false;
+            try {
+                replay.close();
+            } catch (IOException ex) {
+                events.info("Closing replay: " + ex.getMessage());
             }
-            if (!placed) { // fallback grid placement
-                int col = i % Math.max(1, (s.width / (2*radius+2)));
-                int row = i / Math.max(1, (s.width / (2*radius+2)));
-                double x = s.x + radius + col * (2*radius + 2);
-                double y = s.y + radius + row * (2*radius + 2);
-                double[] v = randAngleVelocity(150, 260);
-                Color color = Ball.COLOR_POOL[i % Ball.COLOR_POOL.length];
-                Ball b = new Ball(i+1, x, y, v[0], v[1], radius, color);
-                balls.add(b);
+            replay = null;
+            engine.republish();
+            return;
+        }
+        try {
+            replay = new ReplayReader(replayFile);
+            replayCursor = replay.getFirstTick();
+            replayLastTick = replay.getLastTick();
+            replaySpeed = 1.0;
+            replayJump.set(0);
+            replaying = true;
+            stepReplay(0);
+        } catch (IOException ex) {
+            events.info("Cannot replay " + replayFile + ": " + ex.getMessage());
+        }
+    }
+
+    // Moves the replay on by the given number of ticks and shows that frame.
+    private void stepReplay(double ticks) {
+        double c = replayCursor + ticks + replayJump.getAndSet(0);
+        c = Math.max(replay.getFirstTick(), Math.min(replayLastTick, c));
+        replayCursor = c;
+        try {
+            long t = replay.seek((long) c);
+            synchronized (balls) {
+                snapshots.publish(replay.getStore(), t);
             }
+        } catch (IOException ex) {
+            events.info("Replay failed: " + ex.getMessage());
+            toggleReplay();
         }
     }
 
-    private double[] randAngleVelocity(double min, double max) {
-        double angle = Math.random() * 2*Math.PI;
-        double speed = min + Math.random() * (max - min);
-        return new double[]{Math.cos(angle)*speed, Math.sin(angle)*speed};
+    // shared with the engine and the renderer, which only read it
+    private Rectangle boundary() {
+        return mapBounds[currentMap];
     }
 
-    private void resolveCollisions() {
-        // basic pairwise elastic collisions with slight damping
-        synchronized (balls) {
-            for (int i = 0; i < balls.size(); i++) {
-                Ball a = balls.get(i);
-                if (!a.isAlive()) continue;
-                for (int j = i+1; j < balls.size(); j++) {
-                    Ball b = balls.get(j);
-                    if (!b.isAlive()) continue;
-                    // lock ordering by id to avoid deadlock if extending to per-ball locks
-                    double dx = b.getX() - a.getX();
-                    double dy = b.getY() - a.getY();
-                    double dist = Math.hypot(dx, dy);
-                    double minDist = a.getRadius() + b.getRadius();
-                    if (dist == 0) {
-                        dist = 0.0001;
-                        dx = 0.0001;
-                    }
-                    if (dist < minDist) {
-                        // push apart equally
-                        double overlap = 0.5 * (minDist - dist + 0.0001);
-                        double nx = dx / dist;
-                        double ny = dy / dist;
-                        a.setPosition(a.getX() - nx*overlap, a.getY() - ny*overlap);
-                        b.setPosition(b.getX() + nx*overlap, b.getY() + ny*overlap);
-                        // velocities along normal
-                        double va_n = a.getVx()*nx + a.getVy()*ny;
-                        double vb_n = b.getVx()*nx + b.getVy()*ny;
-                        double restitution = 0.95;
-                        double new_va_n = vb_n * restitution;
-                        double new_vb_n = va_n * restitution;
-                        a.setVelocity(a.getVx() + (new_va_n - va_n)*nx, a.getVy() + (new_va_n - va_n)*ny);
-                        b.setVelocity(b.getVx() + (new_vb_n - vb_n)*nx, b.getVy() + (new_vb_n - vb_n)*ny);
-                    }
+    // Converts the recording off the EDT, then hands the frame file to the scheduler thread.
+    private void enterScrub() {
+        if (converting) return;
+        converting = true;
+        stopRecording();
+        new SwingWorker<FrameFile, Void>() {
+            @Override protected FrameFile doInBackground() throws IOException {
+                FrameFile.convert(replayFile, framesFile);
+                return new FrameFile(framesFile);
+            }
+            @Override protected void done() {
+                converting = false;
+                try {
+                    FrameFile f = get();
+                    scheduler.execute(() -> {
+                        scrub = f;
+                        scrubFirst = f.getFirstTick();
+                        scrubLast = f.getLastTick();
+                        scrubTick.set(scrubFirst);
+                        scrubShown = -1;
+                        scrubbing = true;
+                    });
+                } catch (InterruptedException | ExecutionException ex) {
+                    JOptionPane.showMessageDialog(GamePanel.this, "Cannot scrub " + replayFile + ": " + ex.getMessage());
                 }
             }
+        }.execute();
+    }
+
+    // scheduler thread
+    private void exitScrub() {
+        if (scrub == null) return;
+        scrubbing = false;
+        try {
+            scrub.close();
+        } catch (IOException ex) {
+            events.info("Closing frame file: " + ex.getMessage());
         }
+        scrub = null;
+        engine.republish();
     }
 
-    private void checkHoles() {
-        MapDef m = maps.get(currentMap);
-        Point hole = m.getHolePos();
-        int hr = m.getHoleRadius();
-        List<Ball> fallen = new ArrayList<>();
+    // Renders the frame under the scrub cursor, only when it moved.
+    private void showScrub() {
+        long t = scrubTick.get();
+        if (t == scrubShown) return;
+        scrubShown = scrub.seek(t);
         synchronized (balls) {
-            for (Ball b : balls) {
-                if (!b.isAlive()) continue;
-                double dx = b.getX() - hole.x;
-                double dy = b.getY() - hole.y;
-                if (Math.hypot(dx, dy) <= hr) {
-                    b.setAlive(false);
-                    fallen.add(b);
-                    System.out.println("Ball #" + b.getId() + " fell into hole.");
-                }
-            }
+            snapshots.publish(scrub.getStore(), scrubShown);
         }
-        // optionally do something with fallen list
     }
 
-    private Rectangle boundary() {
-        MapDef m = maps.get(currentMap);
-        int pad = m.getPadding();
-        return new Rectangle(pad, pad, WIDTH - 2*pad, HEIGHT - 2*pad);
+    private void moveScrub(long ticks) {
+        long lo = scrubFirst, hi = scrubLast;
+        scrubTick.updateAndGet(t -> Math.max(lo, Math.min(hi, t + ticks)));
     }
 
-    // Swing painting
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        // draw table background
-        Graphics2D g2 = (Graphics2D) g.create();
-        // draw table area
-        Rectangle bound = boundary();
-        g2.setColor(new Color(40,100,40));
-        g2.fillRect(bound.x, bound.y, bound.width, bound.height);
-        // border
-        g2.setColor(new Color(80,50,20));
-        g2.setStroke(new BasicStroke(6));
-        g2.drawRect(bound.x-10, bound.y-10, bound.width+20, bound.height+20);
-
-        // map elements
-        MapDef m = maps.get(currentMap);
-        // draw hole
-        g2.setColor(new Color(20,20,20));
-        g2.fillOval(m.getHolePos().x - m.getHoleRadius(), m.getHolePos().y - m.getHoleRadius(),
-                m.getHoleRadius()*2, m.getHoleRadius()*2);
-        // start/goal zones
-        g2.setColor(new Color(50,50,80));
-        g2.setStroke(new BasicStroke(2));
-        g2.drawRect(m.getStartZone().x, m.getStartZone().y, m.getStartZone().width, m.getStartZone().height);
-        g2.setColor(new Color(80,50,50));
-        g2.drawRect(m.getGoalZone().x, m.getGoalZone().y, m.getGoalZone().width, m.getGoalZone().height);
-
-        // draw balls
-        synchronized (balls) {
-            for (Ball b : balls) {
-                if (!b.isAlive()) continue;
-                g2.setColor(b.getColor());
-                int x = (int)(b.getX() - b.getRadius());
-                int y = (int)(b.getY() - b.getRadius());
-                int d = b.getRadius()*2;
-                g2.fillOval(x, y, d, d);
-                // number
-                g2.setColor(Color.BLACK);
-                String s = String.valueOf(b.getId());
-                FontMetrics fm = g2.getFontMetrics();
-                int sw = fm.stringWidth(s);
-                int sh = fm.getAscent();
-                g2.drawString(s, (int)b.getX() - sw/2, (int)b.getY() + sh/2 - 2);
+    // bar along the bottom edge; clicking or dragging anywhere on the table jumps there
+    private Rectangle scrubBar() {
+        return new Rectangle(10, HEIGHT - 18, WIDTH - 20, 8);
+    }
+
+    // While scrubbing a click or drag seeks; otherwise dragging pans the view and the
+    // wheel zooms it about the pointer.
+    private void setupMouse() {
+        MouseAdapter m = new MouseAdapter() {
+            private int lastX, lastY;
+            @Override public void mousePressed(MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+                scrubTo(e.getX());
             }
-        }
+            @Override public void mouseDragged(MouseEvent e) {
+                if (!scrubbing) renderer.pan(e.getX() - lastX, e.getY() - lastY);
+                lastX = e.getX();
+                lastY = e.getY();
+                scrubTo(e.getX());
+            }
+            @Override public void mouseWheelMoved(MouseWheelEvent e) {
+                renderer.zoom(Math.pow(1.25, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+            }
+        };
+        canvas.addMouseListener(m);
+        canvas.addMouseMotionListener(m);
+        canvas.addMouseWheelListener(m);
+    }
+
+    private void scrubTo(int x) {
+        if (!scrubbing) return;
+        Rectangle bar = scrubBar();
+        double f = Math.max(0, Math.min(1, (x - bar.x) / (double) bar.width));
+        scrubTick.set(scrubFirst + Math.round(f * (scrubLast - scrubFirst)));
+    }
+
+    // One frame, on the render thread. The renderer covers the whole canvas,
+    // background included.
+    private void render(Graphics2D g2, long now) {
+        if (remote != null) currentMap = remote.getMapIndex();
+        MapDef m = maps.get(currentMap);
+        renderer.paintTable(g2, m, boundary());
+
+        // draw balls from the latest published ticks, never locking the physics
+        SnapshotExchange ex = snapshots;
+        Snapshot snap = ex == null ? null : ex.acquire();
+        if (snap != null) renderer.paintBalls(g2, snap, now);
 
         // HUD text
         g2.setColor(Color.WHITE);
-        g2.drawString("Map: " + m.getName() + " | Balls: " + ballCount + " | Radius: " + radius +
-                " | Time left: " + Math.max(0, (int)((simEndTime - System.currentTimeMillis())/1000)) + "s", 10, 18);
+        if (remote != null) {
+            paintRemoteHud(g2, m, snap);
+        } else {
+            long ticksLeft = engine == null ? 0 : stopTick - engine.getTickCount();
+            g2.drawString("Map: " + m.getName() + " | Balls: " + ballCount + " | Radius: " + radius + " | Seed: " + seed +
+                    " | Time left: " + Math.max(0, ticksLeft / SimulationEngine.TICK_HZ) + "s", 10, 18);
+        }
+        if (engine != null && ex != null) {
+            LatencyHistogram h = engine.getTickNanos();
+            g2.drawString(String.format("Tick p50 %.2f ms | p99 %.2f ms | skipped ticks %d | stale frames %d",
+                    h.percentile(50) / 1e6, h.percentile(99) / 1e6, ex.getSkippedTicks(), ex.getStaleFrames()), 10, 34);
+        }
+        RenderLoop rl = renderLoop;
+        LatencyHistogram fr = rl.getRenderNanos(), fi = rl.getIntervalNanos();
+        g2.drawString(String.format("Frame p50 %.2f ms | p99 %.2f ms | interval p50 %.1f ms p99 %.1f ms | %d/%d fps target | missed %d | %s (C toggles)",
+                fr.percentile(50) / 1e6, fr.percentile(99) / 1e6, fi.percentile(50) / 1e6, fi.percentile(99) / 1e6,
+                rl.getTargetFps(), rl.getMaxFps(), rl.getMissedFrames(),
+                renderer.isCached() ? "cached sprites" : "direct drawing"), 10, 66);
+        LivePredictor lp = predictor;
+        LivePredictor.Forecast fc = lp == null ? null : lp.getForecast();
+        if (fc != null && !replaying && !scrubbing) g2.drawString(forecastText(fc, lp.getAheadTick(), engine.getTickCount()), 10, 82);
+        TableRenderer.View v = renderer.getView();
+        g2.drawString(String.format("View %.1fx | %s, %d drawn of %d in view, %.2f ms of %.0f budget, %d cut | %s heatmap (wheel zooms, drag pans, 0 all, H heatmap)",
+                v.scale, renderer.getDetail().name().toLowerCase(), renderer.getDrawnBalls(), renderer.getVisibleBalls(),
+                renderer.getBallNanos() / 1e6, renderer.getBudgetNanos() / 1e6, renderer.getCutFrames(),
+                renderer.getHeat().name().toLowerCase()), 10, 98);
+        ReplayRecorder rec = recorder;
+        if (scrubbing) {
+            long t = scrubTick.get(), span = Math.max(1, scrubLast - scrubFirst);
+            g2.drawString(String.format("SCRUB tick %d / %d (%.2f s)  (drag or click, arrows 1 tick, PgUp/PgDn 1 s, S back to live)",
+                    t, scrubLast, (t - scrubFirst) * SimulationEngine.DT), 10, 50);
+            Rectangle bar = scrubBar();
+            g2.setColor(new Color(0, 0, 0, 120));
+            g2.fillRect(bar.x, bar.y, bar.width, bar.height);
+            g2.setColor(Color.WHITE);
+            g2.fillRect(bar.x + (int) ((t - scrubFirst) * bar.width / span) - 2, bar.y - 3, 4, bar.height + 6);
+        } else if (converting) {
+            g2.drawString("Building frame file from " + replayFile + "...", 10, 50);
+        } else if (replaying) {
+            g2.drawString(String.format("REPLAY tick %d / %d at %gx  ([ ] speed, arrows seek 5 s, L back to live)",
+                    (long) replayCursor, replayLastTick, replaySpeed), 10, 50);
+        } else if (rec != null) {
+            g2.drawString(String.format("REC %s: %d ticks, %.1f KB", replayFile, rec.getFramesWritten(),
+                    rec.getBytesWritten() / 1024.0), 10, 50);
+        }
+        if (showMetrics && engine != null) paintMetrics(g2, engine.getMetrics());
+    }
+
+    // the remote table's line and the stream's health in place of the tick line
+    private void paintRemoteHud(Graphics2D g2, MapDef m, Snapshot snap) {
+        TableClient c = remote;
+        long tick = snap == null ? 0 : snap.getTick();
+        g2.drawString("Table " + c.getTable() + " at " + c.getAddress() + " | Map: " + m.getName() + " | Balls: " +
+                c.getBallCount() + " | Seed: " + c.getSeed() + " | Time left: " +
+                Math.max(0, (c.getStopTick() - tick) / SimulationEngine.TICK_HZ) + "s", 10, 18);
+        IOException failure = c.getFailure();
+        g2.drawString(failure != null ? "Disconnected: " + failure.getMessage()
+                : String.format("Stream %d records, %.1f KB | missed ticks %d | resyncs %d | stale frames %d",
+                        c.getRecords(), c.getBytesRead() / 1024.0, c.getMissedTicks(), c.getResyncs(),
+                        snapshots.getStaleFrames()), 10, 34);
+    }
+
+    private String forecastText(LivePredictor.Forecast fc, long ahead, long now) {
+        int k = fc.next(now);
+        if (k >= 0) {
+            return String.format("Next to fall: ball #%d in %.2f s", fc.getBallId(k),
+                    (fc.getFallTick(k) - now) * SimulationEngine.DT);
+        }
+        if (fc.settled) return "Next to fall: none before the table comes to rest";
+        if (ahead <= now) return "Next to fall: predicting...";
+        return String.format("Next to fall: none in the next %.1f s", (ahead - now) * SimulationEngine.DT);
+    }
+
+    // Semi-transparent panel with the live metrics, toggled with I.
+    private void paintMetrics(Graphics2D g2, SimulationMetrics mx) {
+        String[] lines = {
+            String.format("tick      p50 %7.1f us  p99 %7.1f us  max %7.1f us", mx.getTickP50Micros(), mx.getTickP99Micros(), mx.getTickMaxMicros()),
+            String.format("integrate p50 %7.1f us  p99 %7.1f us", mx.getIntegrateP50Micros(), mx.getIntegrateP99Micros()),
+            String.format("collide   p50 %7.1f us  p99 %7.1f us", mx.getCollideP50Micros(), mx.getCollideP99Micros()),
+            String.format("holes     p50 %7.1f us  p99 %7.1f us", mx.getHolesP50Micros(), mx.getHolesP99Micros()),
+            String.format("render    p50 %7.1f us  p99 %7.1f us", mx.getRenderP50Micros(), mx.getRenderP99Micros()),
+            String.format("lock wait p99 %7.1f us", mx.getLockWaitP99Micros()),
+            String.format("pairs %d  contacts %d (total %d)", mx.getCandidatePairs(), mx.getContacts(), mx.getTotalContacts()),
+            String.format("balls alive %d  moving %d  asleep %d", mx.getAliveBalls(), mx.getActiveBalls(), mx.getSleepingBalls()),
+            String.format("ticks %d  late %d  skipped frames %d", mx.getTicks(), mx.getDroppedTicks(), mx.getSkippedFrames()),
+            String.format("events %d  dropped %d", mx.getEventsLogged(), mx.getEventsDropped()),
+            String.format("alloc %.1f MB/s  tick thread %.0f B/tick", mx.getAllocationRateMBps(), mx.getTickAllocatedBytes()),
+            String.format("gc pauses %d  last %d ms  max %d ms  total %d ms", mx.getGcPauses(), mx.getGcPauseLastMillis(),
+                    mx.getGcPauseMaxMillis(), mx.getGcPauseTotalMillis()),
+        };
+        Font old = g2.getFont();
+        g2.setFont(METRICS_FONT);
+        FontMetrics fm = g2.getFontMetrics();
+        int lh = fm.getHeight(), w = 0;
+        for (String l : lines) w = Math.max(w, fm.stringWidth(l));
+        int x = WIDTH - w - 24, y = 80;
+        g2.setColor(METRICS_BACKGROUND);
+        g2.fillRect(x - 8, y - 8, w + 16, lh * lines.length + 16);
+        g2.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) g2.drawString(lines[i], x, y + fm.getAscent() + i * lh);
+        g2.setFont(old);
+    }
 
-        g2.dispose();
+    private void showPrediction(MonteCarloPredictor.Distribution d, boolean cached) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Prediction from %d rollouts (%s, %.0f ms%s)%n", d.samples,
+                d.converged ? "converged" : "sample cap", d.wallNanos / 1e6, cached ? ", cached" : ""));
+        sb.append(String.format("cache: %d hits, %d misses, %d/%d held%n", predictions.getHits(),
+                predictions.getMisses(), predictions.size(), predictions.getCapacity()));
+        int shown = 0;
+        for (MonteCarloPredictor.Outcome o : d.outcomes) {
+            if (shown++ == 5) break;
+            if (o.ballId < 0) {
+                sb.append(String.format("no ball within limit: %.0f%% [%.0f-%.0f%%]%n",
+                        o.probability*100, o.probLow*100, o.probHigh*100));
+            } else {
+                sb.append(String.format("ball #%d first: %.0f%% [%.0f-%.0f%%] at t=%.2fs [%.2f-%.2f]%n", o.ballId,
+                        o.probability*100, o.probLow*100, o.probHigh*100, o.meanTimeS, o.timeLowS, o.timeHighS));
+            }
+        }
+        events.info(sb.toString().stripTrailing()); // the log ends the line
+        JOptionPane.showMessageDialog(this, sb.toString());
     }
 
     private void setupKeyBindings() {
         InputMap im = getInputMap(WHEN_IN_FOCUSED_WINDOW);
         ActionMap am = getActionMap();
 
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_C,0), "renderCache");
+        am.put("renderCache", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                renderer.setCached(!renderer.isCached());
+                renderLoop.getRenderNanos().reset();
+            }
+        });
+
+        // Exit
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE,0), "exit");
+        am.put("exit", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                stop();
+                SwingUtilities.getWindowAncestor(GamePanel.this).dispose();
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_0,0), "viewAll");
+        am.put("viewAll", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                renderer.setView(TableRenderer.View.ALL);
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_H,0), "heatmap");
+        am.put("heatmap", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                renderer.setHeat(renderer.getHeat() == TableRenderer.Heat.DENSITY ? TableRenderer.Heat.SPEED
+                                                                                  : TableRenderer.Heat.DENSITY);
+            }
+        });
+
+        // a remote table only has the view keys
+        if (remote != null) return;
+
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE,0), "togglePause");
         am.put("togglePause", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
@@ -305,145 +623,132 @@ public class GamePanel extends JPanel {
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_R,0), "reset");
         am.put("reset", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                simEndTime = System.currentTimeMillis() + SIM_SECONDS*1000L;
-                recreateBalls();
-                // restart threads cleanly
-                if (exec != null) exec.shutdownNow();
-                exec = Executors.newCachedThreadPool();
-                for (Ball b : balls) exec.submit(new BallWorker(b));
+                restartSimulation();
             }
         });
 
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_M,0), "nextMap");
         am.put("nextMap", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                currentMap = (currentMap + 1) % maps.size();
-                simEndTime = System.currentTimeMillis() + SIM_SECONDS*1000L;
-                recreateBalls();
-                if (exec != null) exec.shutdownNow();
-                exec = Executors.newCachedThreadPool();
-                for (Ball b : balls) exec.submit(new BallWorker(b));
+                nextMap = (nextMap + 1) % maps.size();
+                restartSimulation();
             }
         });
 
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_P,0), "predict");
         am.put("predict", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                // run headless prediction in background thread
-                new Thread(() -> {
-                    Predictor pred = new Predictor();
-                    int[] ids = new int[1];
-                    double[] t = new double[1];
-                    // deep copy required
-                    synchronized (balls) {
-                        Predictor.Result r = pred.predictFirstToHole(balls, maps.get(currentMap), 10.0);
-                        if (r != null && r.ballId >= 0) {
-                            System.out.println("Prediction: ball #" + r.ballId + " at t=" + String.format("%.2f", r.timeS) + "s");
-                            // Show a temporary message on HUD? Here we just print.
-                            JOptionPane.showMessageDialog(GamePanel.this,
-                                    "Prediction: ball #" + r.ballId + " first to fall at t=" + String.format("%.2f", r.timeS) + "s");
-                        } else {
-                            JOptionPane.showMessageDialog(GamePanel.this, "Prediction: no ball falls within limit");
+                if (predicting) return;
+                predicting = true;
+                MapDef map = maps.get(currentMap);
+                // Monte Carlo rollouts run on the fork/join pool; only done() touches Swing
+                long hits = predictions.getHits();
+                new SwingWorker<MonteCarloPredictor.Distribution, Void>() {
+                    @Override protected MonteCarloPredictor.Distribution doInBackground() {
+                        return new MonteCarloPredictor(ForkJoinPool.commonPool(), System.nanoTime())
+                                .predict(balls, map, PREDICT_SECONDS, predictions);
+                    }
+                    @Override protected void done() {
+                        predicting = false;
+                        try {
+                            showPrediction(get(), predictions.getHits() > hits);
+                        } catch (InterruptedException | ExecutionException ex) {
+                            JOptionPane.showMessageDialog(GamePanel.this, "Prediction failed: " + ex.getMessage());
                         }
                     }
-                }).start();
+                }.execute();
             }
         });
 
-        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_PLUS,0), "moreBalls");
-        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS,0), "moreBalls");
-        am.put("moreBalls", new AbstractAction() {
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_V,0), "record");
+        am.put("record", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                if (ballCount < 200) ballCount = Math.min(200, ballCount + 8);
-                recreateBalls();
-                if (exec != null) exec.shutdownNow();
-                exec = Executors.newCachedThreadPool();
-                for (Ball b : balls) exec.submit(new BallWorker(b));
+                if (!replaying && !scrubbing) toggleRecording();
             }
         });
 
-        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS,0), "lessBalls");
-        am.put("lessBalls", new AbstractAction() {
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_L,0), "replay");
+        am.put("replay", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                if (ballCount > 1) ballCount = Math.max(1, ballCount - 8);
-                recreateBalls();
-                if (exec != null) exec.shutdownNow();
-                exec = Executors.newCachedThreadPool();
-                for (Ball b : balls) exec.submit(new BallWorker(b));
+                if (scrubbing) return;
+                stopRecording();
+                scheduler.execute(GamePanel.this::toggleReplay);
             }
         });
 
-        // Exit
-        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE,0), "exit");
-        am.put("exit", new AbstractAction() {
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_CLOSE_BRACKET,0), "replayFaster");
+        am.put("replayFaster", new AbstractAction() {
             @Override public void actionPerformed(ActionEvent e) {
-                stop();
-                SwingUtilities.getWindowAncestor(GamePanel.this).dispose();
+                replaySpeed = Math.min(64, replaySpeed * 2);
             }
         });
-    }
 
-    // BallWorker inner class: updates position independently
-    private class BallWorker implements Runnable {
-        private final Ball ball;
-        private final Random rnd = new Random();
-        public BallWorker(Ball b) { this.ball = b; }
-        @Override
-        public void run() {
-            Rectangle bnd = boundary();
-            long prev = System.nanoTime();
-            while (running) {
-                if (paused) {
-                    try { Thread.sleep(20); } catch (InterruptedException ignored) {}
-                    prev = System.nanoTime();
-                    continue;
-                }
-                if (!ball.isAlive()) {
-                    try { Thread.sleep(20); } catch (InterruptedException ignored) {}
-                    prev = System.nanoTime();
-                    continue;
-                }
-                long now = System.nanoTime();
-                double dt = (now - prev) / 1e9;
-                prev = now;
-                // integrate
-                double nx = ball.getX() + ball.getVx()*dt;
-                double ny = ball.getY() + ball.getVy()*dt;
-                double nvx = ball.getVx() * Math.pow(FRICTION, dt*60);
-                double nvy = ball.getVy() * Math.pow(FRICTION, dt*60);
-
-                // bounce on walls
-                if (nx - ball.getRadius() < bnd.x) {
-                    nx = bnd.x + ball.getRadius();
-                    nvx = Math.abs(nvx);
-                }
-                if (nx + ball.getRadius() > bnd.x + bnd.width) {
-                    nx = bnd.x + bnd.width - ball.getRadius();
-                    nvx = -Math.abs(nvx);
-                }
-                if (ny - ball.getRadius() < bnd.y) {
-                    ny = bnd.y + ball.getRadius();
-                    nvy = Math.abs(nvy);
-                }
-                if (ny + ball.getRadius() > bnd.y + bnd.height) {
-                    ny = bnd.y + bnd.height - ball.getRadius();
-                    nvy = -Math.abs(nvy);
-                }
-                ball.setPosition(nx, ny);
-                ball.setVelocity(nvx, nvy);
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_OPEN_BRACKET,0), "replaySlower");
+        am.put("replaySlower", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                replaySpeed = Math.max(1.0 / 8, replaySpeed / 2);
+            }
+        });
 
-                // if global time over, zero velocity
-                if (System.currentTimeMillis() > simEndTime) {
-                    ball.setVelocity(0,0);
-                }
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT,0), "replayForward");
+        am.put("replayForward", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (scrubbing) moveScrub(1); else replayJump.addAndGet(5 * SimulationEngine.TICK_HZ);
+            }
+        });
 
-                try {
-                    Thread.sleep(2);
-                } catch (InterruptedException ex) {
-                    break;
-                }
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT,0), "replayBack");
+        am.put("replayBack", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (scrubbing) moveScrub(-1); else replayJump.addAndGet(-5 * SimulationEngine.TICK_HZ);
             }
-        }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_I,0), "metrics");
+        am.put("metrics", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                showMetrics = !showMetrics;
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_S,0), "scrub");
+        am.put("scrub", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (replaying) return;
+                if (scrubbing) scheduler.execute(GamePanel.this::exitScrub); else enterScrub();
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN,0), "scrubForward");
+        am.put("scrubForward", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (scrubbing) moveScrub(SimulationEngine.TICK_HZ);
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP,0), "scrubBack");
+        am.put("scrubBack", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (scrubbing) moveScrub(-SimulationEngine.TICK_HZ);
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_PLUS,0), "moreBalls");
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS,0), "moreBalls");
+        am.put("moreBalls", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (ballCount < 200) ballCount = Math.min(200, ballCount + 8);
+                restartSimulation();
+            }
+        });
+
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS,0), "lessBalls");
+        am.put("lessBalls", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (ballCount > 1) ballCount = Math.max(1, ballCount - 8);
+                restartSimulation();
+            }
+        });
     }
 
     // shut down on finalize
@@ -0,0 +1,104 @@
+package billiards;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+// Garbage collection as the game sees it: pauses reported by the collectors' JMX
+// notifications, and the process allocation rate from the per-thread allocation
+// counters, sampled at most every RATE_WINDOW_NANOS when read. Collectors that also
+// report whole concurrent cycles (ZGC, Shenandoah) have a separate "Cycles" bean;
+// those are not pauses and are skipped. Readings are 0 on a JVM without the counters.
+public class GcMonitor implements AutoCloseable {
+    private static final long RATE_WINDOW_NANOS = 500_000_000L;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOC = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = this::onGc;
+    private volatile long pauses, lastPauseMillis, maxPauseMillis, totalPauseMillis;
+    // allocation rate, updated by whichever reader finds the window over
+    private long rateBytes, rateNanos;
+    private volatile double bytesPerSecond;
+
+    public GcMonitor() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getName().endsWith("Cycles") || !(gc instanceof NotificationEmitter)) continue;
+            NotificationEmitter e = (NotificationEmitter) gc;
+            e.addNotificationListener(listener, null, null);
+            emitters.add(e);
+        }
+        rateBytes = totalAllocatedBytes();
+        rateNanos = System.nanoTime();
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM does not count them.
+    static long threadAllocatedBytes() {
+        return ALLOC == null ? -1 : ALLOC.getCurrentThreadAllocatedBytes();
+    }
+
+    // Bytes allocated so far by all threads, or -1 if the JVM does not count them.
+    static long totalAllocatedBytes() {
+        return ALLOC == null ? -1 : ALLOC.getTotalThreadAllocatedBytes();
+    }
+
+    public long getPauses() { return pauses; }
+    public long getLastPauseMillis() { return lastPauseMillis; }
+    public long getMaxPauseMillis() { return maxPauseMillis; }
+    public long getTotalPauseMillis() { return totalPauseMillis; }
+
+    // Allocation rate of the whole process over the last window, in bytes per second.
+    public double getAllocationRate() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (now - rateNanos >= RATE_WINDOW_NANOS) {
+                long bytes = totalAllocatedBytes();
+                if (bytes >= 0) bytesPerSecond = (bytes - rateBytes) * 1e9 / (now - rateNanos);
+                rateBytes = bytes;
+                rateNanos = now;
+            }
+        }
+        return bytesPerSecond;
+    }
+
+    public synchronized void reset() {
+        pauses = 0;
+        lastPauseMillis = 0;
+        maxPauseMillis = 0;
+        totalPauseMillis = 0;
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter e : emitters) {
+            try {
+                e.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException ignored) {
+                // already gone
+            }
+        }
+        emitters.clear();
+    }
+
+    // on the JVM's notification thread
+    private synchronized void onGc(Notification n, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+        long ms = info.getGcInfo().getDuration();
+        pauses++;
+        lastPauseMillis = ms;
+        maxPauseMillis = Math.max(maxPauseMillis, ms);
+        totalPauseMillis += ms;
+    }
+}
@@ -0,0 +1,139 @@
+package billiards;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Runs the physics without any Swing classes, as fast as the CPU allows: simulated
+// time advances by the engine's fixed step, never by the wall clock.
+//
+// Usage: java -cp billiards.jar billiards.HeadlessRunner [--map 0] [--balls 8] [--seed 1]
+//            [--duration 60] [--runs 1] [--threads N] [--record FILE] [--maps DIR]
+//
+// With --record every tick goes to a replay file (one per seed when --runs > 1); the
+// same seed always produces a byte-identical file, whatever --threads is.
+public class HeadlessRunner {
+    // a ball slower than this (px/s) counts as stopped
+    public static final double REST_SPEED = 0.1;
+
+    public static class Fall {
+        public final int ballId;
+        public final double timeS;
+        public Fall(int id, double t) { this.ballId = id; this.timeS = t; }
+    }
+
+    public static class RunResult {
+        public final int mapIndex, ballCount;
+        public final long seed;
+        public final List<Fall> holeOrder;
+        public final double stopTimeS;   // simulated time when the table came to rest
+        public final long ticks;
+        public final long wallNanos;
+        public RunResult(int mapIndex, int ballCount, long seed, List<Fall> holeOrder, double stopTimeS, long ticks, long wallNanos) {
+            this.mapIndex = mapIndex; this.ballCount = ballCount; this.seed = seed; this.holeOrder = holeOrder;
+            this.stopTimeS = stopTimeS; this.ticks = ticks; this.wallNanos = wallNanos;
+        }
+        public Fall first() { return holeOrder.isEmpty() ? null : holeOrder.get(0); }
+    }
+
+    // One seeded run. Motion is cut off after durationS of simulated time, like the
+    // panel's one-minute limit; the run ends early once every ball stopped or fell.
+    public static RunResult run(List<MapDef> maps, int mapIndex, int ballCount, long seed, double durationS, int threads) {
+        return run(maps, mapIndex, ballCount, seed, durationS, threads, null);
+    }
+
+    // As above, also recording every tick to the given replay file unless it is null.
+    public static RunResult run(List<MapDef> maps, int mapIndex, int ballCount, long seed, double durationS, int threads,
+                                Path record) {
+        MapDef map = maps.get(mapIndex);
+        BallStore balls = new BallStore(ballCount);
+        BallPlacer.place(balls, map, ballCount, BallPlacer.radiusFor(ballCount), new Random(seed));
+        SimulationEngine engine = new SimulationEngine(balls, map, map.getBounds(), threads, SimulationEngine.DT);
+        List<Fall> order = new ArrayList<>();
+        long maxTicks = (long) Math.ceil(durationS / engine.getDt());
+        ReplayRecorder recorder = null;
+        long t0 = System.nanoTime();
+        try {
+            if (record != null) {
+                recorder = new ReplayRecorder(record, engine.getDt(), true); // every tick, however slow the disk
+                engine.setRecorder(recorder);
+            }
+            while (engine.getTickCount() < maxTicks) {
+                engine.tick();
+                for (int k = 0; k < engine.getFallenCount(); k++) {
+                    order.add(new Fall(balls.getId(engine.getFallen(k)), engine.getSimTime()));
+                }
+                if (balls.aliveCount() == 0 || !balls.anyMoving(REST_SPEED)) break;
+            }
+            if (recorder != null) {
+                engine.setRecorder(null);
+                recorder.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            engine.shutdown();
+        }
+        return new RunResult(mapIndex, ballCount, seed, order, engine.getSimTime(), engine.getTickCount(),
+                System.nanoTime() - t0);
+    }
+
+    public static void main(String[] args) {
+        int map = 0, balls = 8, runs = 1;
+        long seed = 1L;
+        double duration = 60.0;
+        int threads = 1;
+        String record = null, mapDir = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) usage("missing value for " + a);
+            String v = args[++i];
+            switch (a) {
+                case "--map": map = Integer.parseInt(v); break;
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--duration": duration = Double.parseDouble(v); break;
+                case "--runs": runs = Integer.parseInt(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--record": record = v; break;
+                case "--maps": mapDir = v; break;
+                default: usage("unknown option " + a);
+            }
+        }
+        List<MapDef> maps = Maps.defaults();
+        if (mapDir != null) {
+            try {
+                maps = Maps.loadAll(Paths.get(mapDir));
+            } catch (IOException e) {
+                usage(e.getMessage());
+            }
+        }
+        if (map < 0 || map >= maps.size()) usage("map must be 0.." + (maps.size() - 1));
+        if (balls < 1) usage("balls must be positive");
+
+        for (int r = 0; r < runs; r++) {
+            Path file = record == null ? null : Paths.get(runs > 1 ? record + "." + (seed + r) : record);
+            RunResult res = run(maps, map, balls, seed + r, duration, threads, file);
+            StringBuilder sb = new StringBuilder();
+            sb.append("map=").append(map).append(" balls=").append(balls).append(" seed=").append(res.seed)
+              .append(String.format(" stop=%.3fs ticks=%d wall=%.1fms", res.stopTimeS, res.ticks, res.wallNanos / 1e6))
+              .append(" holes=[");
+            for (int k = 0; k < res.holeOrder.size(); k++) {
+                Fall f = res.holeOrder.get(k);
+                if (k > 0) sb.append(' ');
+                sb.append('#').append(f.ballId).append(String.format("@%.3f", f.timeS));
+            }
+            System.out.println(sb.append(']'));
+        }
+    }
+
+    private static void usage(String msg) {
+        System.err.println(msg);
+        System.err.println("usage: HeadlessRunner [--map N] [--balls N] [--seed S] [--duration SEC] [--runs R] [--threads T] [--record FILE] [--maps DIR]");
+        System.exit(2);
+    }
+}
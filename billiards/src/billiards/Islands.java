@@ -0,0 +1,71 @@
+package billiards;
+
+// Splits a tick's candidate pairs into islands: groups of balls linked through pairs.
+// No pair joins two islands and resolving a pair only touches its two balls, so islands
+// can be resolved on different threads. Each island keeps its pairs in their global
+// order, so the outcome is the same as running the whole list in one loop. Islands
+// whose balls are all asleep are dropped, since none of their pairs would run. Reused
+// from tick to tick; only the balls named by a pair are touched.
+final class Islands {
+    private int[] parent = new int[0];
+    private int[] slot = new int[0]; // per root ball: island index, -1 dropped, -2 kept but not numbered yet
+    private int[] cursor = new int[0];
+    int count;                        // islands kept
+    int[] start = new int[1];         // per island, offsets into pairs; start[count] is the pair total
+    int[] pairs = new int[0];         // pair indices grouped by island, in order within each
+
+    void build(int[] pairA, int[] pairB, int pairCount, int balls, int[] still, int sleepTicks) {
+        if (parent.length < balls) {
+            parent = new int[balls];
+            slot = new int[balls];
+        }
+        if (start.length < pairCount + 1) {
+            start = new int[pairCount + 1];
+            cursor = new int[pairCount];
+            pairs = new int[pairCount];
+        }
+        for (int k = 0; k < pairCount; k++) {
+            int a = pairA[k], b = pairB[k];
+            parent[a] = a; parent[b] = b;
+            slot[a] = -1; slot[b] = -1;
+        }
+        for (int k = 0; k < pairCount; k++) {
+            int ra = find(pairA[k]), rb = find(pairB[k]);
+            if (ra < rb) parent[rb] = ra; else if (rb < ra) parent[ra] = rb;
+        }
+        for (int k = 0; k < pairCount; k++) {
+            int a = pairA[k], b = pairB[k];
+            if (still[a] < sleepTicks || still[b] < sleepTicks) slot[find(a)] = -2;
+        }
+        // number kept islands by their first pair and count their pairs
+        count = 0;
+        start[0] = 0;
+        for (int k = 0; k < pairCount; k++) {
+            int r = find(pairA[k]), s = slot[r];
+            if (s == -1) continue;
+            if (s == -2) {
+                s = count++;
+                slot[r] = s;
+                start[s + 1] = 0;
+            }
+            start[s + 1]++;
+        }
+        for (int s = 0; s < count; s++) {
+            start[s + 1] += start[s];
+            cursor[s] = start[s];
+        }
+        for (int k = 0; k < pairCount; k++) {
+            int s = slot[find(pairA[k])];
+            if (s >= 0) pairs[cursor[s]++] = k;
+        }
+    }
+
+    // root of i, halving the path on the way
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,62 @@
+package billiards;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram of durations in nanoseconds (8 sub-buckets per power of two,
+// so percentiles are within ~12%). Lock-free: one recorder, any number of readers.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) { }
+    }
+
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+    public long getMean() { long c = count.get(); return c == 0 ? 0 : sum.get() / c; }
+
+    // Upper bound of the bucket holding the given percentile (0..100).
+    public long percentile(double p) {
+        long c = count.get();
+        if (c == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(c * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    private static long upperBound(int idx) {
+        if (idx < SUB) return idx;
+        int shift = idx / SUB - 1;
+        long lower = (long) (SUB + idx % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
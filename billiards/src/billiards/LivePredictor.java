@@ -0,0 +1,196 @@
+package billiards;
+
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Keeps a running forecast of which ball falls next, and when, on its own thread.
+// The fixed-step engine is deterministic, so a copy of the live store stepped with the
+// same engine replays the live table exactly: the predictor forks the store once, runs
+// its copy up to a lookahead ahead of the live tick, and from then on advances it one
+// step per live tick instead of re-simulating. It only forks again when the live state
+// changes outside the engine's own steps (respawn, map switch, stop), which the engine
+// reports as a new epoch.
+//
+// The engine calls offer() at the end of each tick under the store lock. Unless a fork
+// is due that is a volatile write and an unpark; a fork is one array copy into a buffer
+// the predictor handed back, never a wait on the predictor. Readers poll getForecast().
+public class LivePredictor implements AutoCloseable {
+    // most steps taken between looks at the live tick and new forks
+    private static final int STEPS_PER_PASS = 120;
+    // the rollout stops once every ball is slower than this (px/s)
+    private static final double REST_SPEED = 0.01;
+    // falls listed in a forecast; more would be further ahead than anyone reads
+    private static final int LISTED = 16;
+
+    // What the rollout knows at one moment: the falls it found ahead of the live table,
+    // in order. Ticks are live engine ticks. The live table may have moved on since it
+    // was published, so readers ask for the first fall after their own tick. A new one
+    // is only published when the falls or settled change; how far the rollout has got
+    // is getAheadTick().
+    public static final class Forecast {
+        private final long[] fallTicks;
+        private final int[] ballIds;
+        public final boolean settled; // the rollout reached the stop tick or a resting table
+
+        Forecast(long[] fallTicks, int[] ballIds, boolean settled) {
+            this.fallTicks = fallTicks; this.ballIds = ballIds; this.settled = settled;
+        }
+
+        // true if this lists exactly the first falls of the deque and has the same settled
+        boolean matches(ArrayDeque<Fall> falls, boolean settled) {
+            if (settled != this.settled || Math.min(LISTED, falls.size()) != fallTicks.length) return false;
+            int k = 0;
+            for (Fall f : falls) {
+                if (k == fallTicks.length) break;
+                if (f.tick != fallTicks[k] || f.ballId != ballIds[k]) return false;
+                k++;
+            }
+            return true;
+        }
+
+        // index of the first fall after tick now, or -1 if none is known
+        public int next(long now) {
+            for (int k = 0; k < fallTicks.length; k++) if (fallTicks[k] > now) return k;
+            return -1;
+        }
+
+        public int getBallId(int k) { return ballIds[k]; }
+        public long getFallTick(int k) { return fallTicks[k]; }
+    }
+
+    private static final class Fork {
+        final BallStore store;
+        final long tick;
+        final MapDef map;
+        final Rectangle bounds;
+        Fork(BallStore store, long tick, MapDef map, Rectangle bounds) {
+            this.store = store; this.tick = tick; this.map = map; this.bounds = bounds;
+        }
+    }
+
+    private static final class Fall {
+        final long tick;
+        final int ballId;
+        Fall(long tick, int ballId) { this.tick = tick; this.ballId = ballId; }
+    }
+
+    private final double dt;
+    private final long lookahead; // ticks
+    private final Thread worker;
+    private volatile boolean closed;
+    private volatile long liveTick;
+    private volatile long stopTick = Long.MAX_VALUE;
+    private volatile Forecast forecast;
+    private volatile long aheadTick; // live tick the rollout has reached
+    // the engine copies into free and hands it over as pending; the predictor returns
+    // the store it replaced to free
+    private final AtomicReference<BallStore> free = new AtomicReference<>(new BallStore());
+    private final AtomicReference<Fork> pending = new AtomicReference<>();
+    private long forkedEpoch = -1; // under the store lock
+    private volatile long forks, steps;
+
+    public LivePredictor(double dt, double lookaheadSeconds) {
+        this.dt = dt;
+        this.lookahead = Math.max(1, Math.round(lookaheadSeconds / dt));
+        worker = new Thread(this::run, "predictor");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    // Latest forecast, or null until the first fork is evaluated.
+    public Forecast getForecast() { return forecast; }
+    public long getAheadTick() { return aheadTick; }
+    public double getLookaheadSeconds() { return lookahead * dt; }
+    public long getForks() { return forks; }
+    public long getSteps() { return steps; }
+
+    // Tick after which the live engine stops every ball; the rollout ends there too.
+    public void setStopTick(long tick) {
+        stopTick = tick;
+        LockSupport.unpark(worker);
+    }
+
+    // Called by the engine with the store lock held, after every tick and whenever the
+    // store changed outside a tick. Forks if the epoch moved on since the last fork; if
+    // the predictor still holds both buffers the fork is retried on the next call.
+    void offer(BallStore live, long tick, long epoch, MapDef map, Rectangle bounds) {
+        liveTick = tick;
+        if (epoch != forkedEpoch) {
+            BallStore buf = free.getAndSet(null);
+            if (buf != null) {
+                live.copyInto(buf);
+                forkedEpoch = epoch;
+                pending.set(new Fork(buf, tick, map, bounds));
+                forks++;
+            }
+        }
+        LockSupport.unpark(worker);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        Fork cur = null;
+        SimulationEngine sim = null;
+        ArrayDeque<Fall> falls = new ArrayDeque<>();
+        boolean resting = false;
+        while (!closed) {
+            Fork f = pending.getAndSet(null);
+            if (f != null) {
+                free.set(cur != null ? cur.store : new BallStore());
+                cur = f;
+                sim = new SimulationEngine(f.store, f.map, f.bounds, 1, dt);
+                falls.clear();
+                resting = false;
+            }
+            if (cur == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            long live = liveTick, stop = stopTick;
+            while (!falls.isEmpty() && falls.peekFirst().tick <= live) falls.pollFirst();
+            long end = Math.min(live + lookahead, stop);
+            int budget = STEPS_PER_PASS;
+            while (!resting && budget > 0 && cur.tick + sim.getTickCount() < end) {
+                sim.tick();
+                budget--;
+                for (int k = 0; k < sim.getFallenCount(); k++) {
+                    falls.addLast(new Fall(cur.tick + sim.getTickCount(), cur.store.getId(sim.getFallen(k))));
+                }
+                resting = !cur.store.anyMoving(REST_SPEED);
+            }
+            steps += STEPS_PER_PASS - budget;
+            long ahead = cur.tick + sim.getTickCount();
+            boolean settled = resting || ahead >= stop;
+            // most passes only move the horizon; those publish nothing new
+            Forecast old = forecast;
+            if (old == null || !old.matches(falls, settled)) {
+                int listed = Math.min(LISTED, falls.size());
+                long[] ticks = new long[listed];
+                int[] ids = new int[listed];
+                int k = 0;
+                for (Fall fall : falls) {
+                    if (k == listed) break;
+                    ticks[k] = fall.tick;
+                    ids[k++] = fall.ballId;
+                }
+                forecast = new Forecast(ticks, ids, settled);
+            }
+            aheadTick = ahead;
+            // caught up: wait for the next live tick or fork
+            if (budget > 0 && pending.get() == null) LockSupport.park(this);
+        }
+    }
+}
@@ -1,13 +1,46 @@
 package billiards;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class Main {
+    // Usage: java -jar billiards.jar [--seed S] [--maps DIR] [--balls N] [--connect HOST:PORT[/TABLE]];
+    // without a seed every start differs, without a map directory the built-in maps are
+    // played. --balls starts with N balls instead of 8. --connect shows a table of a
+    // TableServer instead of playing one here.
     public static void main(String[] args) {
+        long seed = System.nanoTime();
+        List<MapDef> maps = Maps.defaults();
+        String connect = null;
+        int balls = 8;
+        TableClient client = null;
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                    case "--maps": maps = Maps.loadAll(Paths.get(args[i + 1])); break;
+                    case "--balls": balls = Integer.parseInt(args[i + 1]); break;
+                    case "--connect": connect = args[i + 1]; break;
+                    default: throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            if (connect != null) client = connect(connect, maps);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java -jar billiards.jar [--seed S] [--maps DIR] [--balls N] [--connect HOST:PORT[/TABLE]]");
+            System.exit(2);
+        }
+        long s = seed;
+        List<MapDef> m = maps;
+        TableClient c = client;
+        int n = balls;
         SwingUtilities.invokeLater(() -> {
-            JFrame f = new JFrame("Parallel Billiards Simulation");
+            JFrame f = new JFrame(c == null ? "Parallel Billiards Simulation" : "Billiards table " + c.getTable() + " at " + c.getAddress());
             f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            GamePanel panel = new GamePanel(1000, 600);
+            GamePanel panel = c == null ? new GamePanel(m, s) : new GamePanel(m, c);
+            panel.setBallCount(n);
             f.getContentPane().add(panel);
             f.pack();
             f.setLocationRelativeTo(null);
@@ -15,4 +48,13 @@ public class Main {
             panel.start(); // start simulation
         });
     }
+
+    // HOST:PORT[/TABLE], table 0 by default
+    private static TableClient connect(String spec, List<MapDef> maps) throws IOException {
+        int slash = spec.indexOf('/'), colon = spec.lastIndexOf(':', slash < 0 ? spec.length() : slash);
+        if (colon < 0) throw new IllegalArgumentException("--connect needs HOST:PORT[/TABLE], got " + spec);
+        int port = Integer.parseInt(spec.substring(colon + 1, slash < 0 ? spec.length() : slash));
+        int table = slash < 0 ? 0 : Integer.parseInt(spec.substring(slash + 1));
+        return new TableClient(spec.substring(0, colon), port, table, maps);
+    }
 }
@@ -1,24 +1,74 @@
 package billiards;
 
 import java.awt.*;
+import java.util.List;
 
+// A table layout in the coordinates of a width x height panel: the cushion outline, solid
+// obstacles, any number of holes, and the start and goal zones. The collision geometry
+// is compiled once, here, and shared by everything that simulates on the map. Maps are
+// immutable; the polygons must not be changed after construction.
 public class MapDef {
+    public static class Hole {
+        public final int x, y, radius;
+        public Hole(int x, int y, int radius) { this.x = x; this.y = y; this.radius = radius; }
+    }
+
     private final String name;
-    private final int padding;
-    private final Point holePos;
-    private final int holeRadius;
+    private final int width, height;
+    private final Polygon table;
+    private final List<Polygon> obstacles;
+    private final List<Hole> holes;
     private final Rectangle startZone;
     private final Rectangle goalZone;
+    private final Rectangle bounds;
+    private final boolean rectangular;
+    private final MapGeometry geometry;
 
-    public MapDef(String name, int padding, Point holePos, int holeRadius, Rectangle startZone, Rectangle goalZone) {
-        this.name = name; this.padding = padding; this.holePos = holePos; this.holeRadius = holeRadius;
+    public MapDef(String name, int width, int height, Polygon table, List<Polygon> obstacles, List<Hole> holes,
+                  Rectangle startZone, Rectangle goalZone) {
+        if (table.npoints < 3) throw new IllegalArgumentException("table outline needs at least 3 points");
+        this.name = name; this.width = width; this.height = height; this.table = table;
+        this.obstacles = List.copyOf(obstacles);
+        this.holes = List.copyOf(holes);
         this.startZone = startZone; this.goalZone = goalZone;
+        this.bounds = table.getBounds();
+        this.rectangular = table.npoints == 4 && isBox(table, bounds);
+        this.geometry = new MapGeometry(this);
+    }
+
+    // A rectangular table padding pixels inside the panel with one hole.
+    public MapDef(String name, int width, int height, int padding, Point holePos, int holeRadius,
+                  Rectangle startZone, Rectangle goalZone) {
+        this(name, width, height, box(new Rectangle(padding, padding, width - 2*padding, height - 2*padding)),
+                List.of(), List.of(new Hole(holePos.x, holePos.y, holeRadius)), startZone, goalZone);
     }
 
     public String getName() { return name; }
-    public int getPadding() { return padding; }
-    public Point getHolePos() { return holePos; }
-    public int getHoleRadius() { return holeRadius; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public Polygon getTable() { return table; }
+    public List<Polygon> getObstacles() { return obstacles; }
+    public List<Hole> getHoles() { return holes; }
     public Rectangle getStartZone() { return startZone; }
     public Rectangle getGoalZone() { return goalZone; }
+    // Bounding box of the cushions: the engine's walls. Other cushion edges are in the geometry.
+    public Rectangle getBounds() { return new Rectangle(bounds); }
+    // true if the cushions are exactly the bounding box
+    public boolean isRectangular() { return rectangular; }
+    public MapGeometry getGeometry() { return geometry; }
+
+    static Polygon box(Rectangle r) {
+        return new Polygon(new int[]{r.x, r.x + r.width, r.x + r.width, r.x},
+                new int[]{r.y, r.y, r.y + r.height, r.y + r.height}, 4);
+    }
+
+    private static boolean isBox(Polygon p, Rectangle b) {
+        for (int i = 0; i < 4; i++) {
+            int x = p.xpoints[i], y = p.ypoints[i];
+            if ((x != b.x && x != b.x + b.width) || (y != b.y && y != b.y + b.height)) return false;
+            int nx = p.xpoints[(i + 1) % 4], ny = p.ypoints[(i + 1) % 4];
+            if (x != nx && y != ny) return false; // a diagonal
+        }
+        return true;
+    }
 }
@@ -0,0 +1,202 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+// A map compiled for collision queries. Its edges are the cushion edges that the
+// engine's bounding-box walls do not already cover, plus every obstacle edge, each with
+// the normal pointing into the playing area. Edges and holes are bucketed into a fixed
+// grid of CELL-sized cells over the panel: a cell lists every edge passing within MARGIN
+// of it and every hole overlapping it, so a ball is only tested against its own cell's
+// lists. Positions off the grid are clamped to the edge cells, and so were the items
+// when they were bucketed, which keeps the lookup exact for any position. Immutable, so
+// one instance serves all engines and predictors on its map.
+public final class MapGeometry {
+    static final int CELL = 32;
+    // largest ball radius the per-cell edge lists cover; larger balls test every edge
+    static final int MARGIN = 32;
+
+    private final Polygon table;
+    private final List<Polygon> obstacles;
+
+    // edges: start point, vector to the end point, unit normal into play, 1 / length^2
+    final int edges;
+    final double[] ax, ay, ex, ey, nx, ny, invLen2;
+    final int holes;
+    final int[] hx, hy, hr;
+
+    private final int cols, rows;
+    private final int[] edgeStart, edgeItems; // per cell, offsets into edgeItems
+    private final int[] holeStart, holeItems;
+
+    MapGeometry(MapDef m) {
+        table = m.getTable();
+        obstacles = m.getObstacles();
+        Rectangle b = m.getBounds();
+        int max = table.npoints;
+        for (Polygon p : obstacles) max += p.npoints;
+        double[] eax = new double[max], eay = new double[max], eex = new double[max], eey = new double[max];
+        double[] enx = new double[max], eny = new double[max], einv = new double[max];
+        int n = 0;
+        for (int pass = 0; pass <= obstacles.size(); pass++) {
+            Polygon p = pass == 0 ? table : obstacles.get(pass - 1);
+            for (int i = 0; i < p.npoints; i++) {
+                int x0 = p.xpoints[i], y0 = p.ypoints[i];
+                int x1 = p.xpoints[(i + 1) % p.npoints], y1 = p.ypoints[(i + 1) % p.npoints];
+                if (x0 == x1 && y0 == y1) continue;
+                // cushion edges along the bounding box are the engine's walls
+                if (pass == 0 && ((x0 == x1 && (x0 == b.x || x0 == b.x + b.width))
+                        || (y0 == y1 && (y0 == b.y || y0 == b.y + b.height)))) continue;
+                double dx = x1 - x0, dy = y1 - y0, len = Math.sqrt(dx*dx + dy*dy);
+                double lx = -dy / len, ly = dx / len;
+                // into the table, out of obstacles
+                boolean inside = p.contains((x0 + x1) / 2.0 + lx * 0.5, (y0 + y1) / 2.0 + ly * 0.5);
+                if (inside != (pass == 0)) { lx = -lx; ly = -ly; }
+                eax[n] = x0; eay[n] = y0; eex[n] = dx; eey[n] = dy;
+                enx[n] = lx; eny[n] = ly; einv[n] = 1 / (len * len);
+                n++;
+            }
+        }
+        edges = n;
+        ax = Arrays.copyOf(eax, n); ay = Arrays.copyOf(eay, n);
+        ex = Arrays.copyOf(eex, n); ey = Arrays.copyOf(eey, n);
+        nx = Arrays.copyOf(enx, n); ny = Arrays.copyOf(eny, n);
+        invLen2 = Arrays.copyOf(einv, n);
+
+        List<MapDef.Hole> hl = m.getHoles();
+        holes = hl.size();
+        hx = new int[holes]; hy = new int[holes]; hr = new int[holes];
+        for (int h = 0; h < holes; h++) {
+            hx[h] = hl.get(h).x; hy[h] = hl.get(h).y; hr[h] = hl.get(h).radius;
+        }
+
+        cols = Math.max(1, (m.getWidth() + CELL - 1) / CELL);
+        rows = Math.max(1, (m.getHeight() + CELL - 1) / CELL);
+        double[] box = new double[4 * Math.max(edges, holes)];
+        for (int e = 0; e < edges; e++) {
+            box[4*e] = Math.min(ax[e], ax[e] + ex[e]) - MARGIN;
+            box[4*e + 1] = Math.min(ay[e], ay[e] + ey[e]) - MARGIN;
+            box[4*e + 2] = Math.max(ax[e], ax[e] + ex[e]) + MARGIN;
+            box[4*e + 3] = Math.max(ay[e], ay[e] + ey[e]) + MARGIN;
+        }
+        edgeStart = new int[cols * rows + 1];
+        edgeItems = bucket(box, edges, edgeStart);
+        for (int h = 0; h < holes; h++) {
+            box[4*h] = hx[h] - hr[h]; box[4*h + 1] = hy[h] - hr[h];
+            box[4*h + 2] = hx[h] + hr[h]; box[4*h + 3] = hy[h] + hr[h];
+        }
+        holeStart = new int[cols * rows + 1];
+        holeItems = bucket(box, holes, holeStart);
+    }
+
+    public int getEdgeCount() { return edges; }
+    public int getHoleCount() { return holes; }
+
+    // Cell of a position, clamped to the grid.
+    int cellOf(double x, double y) {
+        int cx = Math.min(cols - 1, Math.max(0, (int) (x / CELL)));
+        int cy = Math.min(rows - 1, Math.max(0, (int) (y / CELL)));
+        return cy * cols + cx;
+    }
+
+    // Index of the hole whose circle contains (x, y), or -1.
+    public int holeAt(double x, double y) {
+        int c = cellOf(x, y);
+        for (int k = holeStart[c], end = holeStart[c + 1]; k < end; k++) {
+            int h = holeItems[k];
+            double dx = x - hx[h];
+            double dy = y - hy[h];
+            if (dx*dx + dy*dy <= hr[h]*hr[h]) return h;
+        }
+        return -1;
+    }
+
+    // Whether an edge or hole may lie within the box [x0, x1] x [y0, y1], judged by the
+    // cells it covers; exact for balls no larger than MARGIN, conservative otherwise.
+    boolean nearFeature(double x0, double y0, double x1, double y1) {
+        int c0 = cellOf(x0, y0), c1 = cellOf(x1, y1);
+        for (int cy = c0 / cols; cy <= c1 / cols; cy++) {
+            for (int c = cy * cols + c0 % cols, end = cy * cols + c1 % cols; c <= end; c++) {
+                if (edgeStart[c + 1] > edgeStart[c] || holeStart[c + 1] > holeStart[c]) return true;
+            }
+        }
+        return false;
+    }
+
+    // Pushes ball i out of every edge it overlaps and reflects its velocity off them,
+    // losing no speed, like the walls. Touches only ball i, so chunks may run in parallel.
+    void bounce(int i, double[] x, double[] y, double[] vx, double[] vy, int r) {
+        int from, to;
+        if (r <= MARGIN) {
+            int c = cellOf(x[i], y[i]);
+            from = edgeStart[c]; to = edgeStart[c + 1];
+        } else {
+            from = 0; to = edges;
+        }
+        for (int k = from; k < to; k++) {
+            int e = r <= MARGIN ? edgeItems[k] : k;
+            double px = x[i] - ax[e], py = y[i] - ay[e];
+            double t = Math.max(0, Math.min(1, (px*ex[e] + py*ey[e]) * invLen2[e]));
+            double dx = px - t*ex[e], dy = py - t*ey[e];
+            double d2 = dx*dx + dy*dy;
+            if (d2 >= r*r) continue;
+            double d = Math.sqrt(d2), cnx, cny;
+            if (d > 1e-9) {
+                cnx = dx / d; cny = dy / d;
+            } else { // centre on the edge
+                cnx = nx[e]; cny = ny[e];
+            }
+            x[i] += cnx * (r - d);
+            y[i] += cny * (r - d);
+            double vn = vx[i]*cnx + vy[i]*cny;
+            if (vn < 0) {
+                vx[i] -= 2*vn*cnx;
+                vy[i] -= 2*vn*cny;
+            }
+        }
+    }
+
+    // Whether a ball of radius r at (x, y) lies wholly on the table, clear of the
+    // obstacles and of every hole; used to place new balls.
+    public boolean isClear(double x, double y, int r) {
+        if (!table.contains(x, y)) return false;
+        for (Polygon p : obstacles) if (p.contains(x, y)) return false;
+        for (int e = 0; e < edges; e++) {
+            double px = x - ax[e], py = y - ay[e];
+            double t = Math.max(0, Math.min(1, (px*ex[e] + py*ey[e]) * invLen2[e]));
+            double dx = px - t*ex[e], dy = py - t*ey[e];
+            if (dx*dx + dy*dy < r*r) return false;
+        }
+        for (int h = 0; h < holes; h++) {
+            double dx = x - hx[h], dy = y - hy[h], reach = hr[h] + r;
+            if (dx*dx + dy*dy < reach*reach) return false;
+        }
+        return true;
+    }
+
+    // Counting sort of items into every cell their box overlaps; fills start (cells + 1
+    // offsets) and returns the item list.
+    private int[] bucket(double[] box, int count, int[] start) {
+        for (int pass = 0; pass < 2; pass++) {
+            int[] items = pass == 0 ? null : new int[start[start.length - 1]];
+            int[] cursor = pass == 0 ? null : start.clone();
+            for (int i = 0; i < count; i++) {
+                int c0 = cellOf(box[4*i], box[4*i + 1]), c1 = cellOf(box[4*i + 2], box[4*i + 3]);
+                for (int cy = c0 / cols; cy <= c1 / cols; cy++) {
+                    for (int cx = c0 % cols; cx <= c1 % cols; cx++) {
+                        int c = cy * cols + cx;
+                        if (pass == 0) start[c + 1]++;
+                        else items[cursor[c]++] = i;
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < cols * rows; c++) start[c + 1] += start[c];
+            } else {
+                return items;
+            }
+        }
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,152 @@
+package billiards;
+
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The built-in table layouts, shared by the Swing panel and the headless tools, and the
+// loader for map files.
+//
+// A map file is plain text, one directive per line; blank lines and anything after '#'
+// are ignored. Coordinates are pixels of the panel given by size.
+//
+//   name      Corner pockets          shown in the HUD (default: the file name)
+//   size      1000 600                the panel the map is drawn on
+//   table     x1 y1 x2 y2 x3 y3 ...   cushion outline, any simple polygon
+//   padding   40                      or: a rectangular table this far inside the panel
+//   obstacle  x1 y1 x2 y2 x3 y3 ...   a solid polygon; any number
+//   hole      x y radius              any number
+//   start     x y width height        where the balls are spawned
+//   goal      x y width height
+public class Maps {
+    public static final int DEFAULT_WIDTH = 1000;
+    public static final int DEFAULT_HEIGHT = 600;
+    public static final String EXTENSION = ".map";
+
+    public static List<MapDef> defaults(int width, int height) {
+        List<MapDef> maps = new ArrayList<>();
+        maps.add(new MapDef("Classic center hole",
+                width, height, 40,
+                new Point(width/2, height/2),
+                30,
+                new Rectangle(60, 60, 200, height-120),
+                new Rectangle(width-260, 60, 200, height-120)
+        ));
+        maps.add(new MapDef("Left-top hole",
+                width, height, 20,
+                new Point(width/4, height/4),
+                28,
+                new Rectangle(60, height-200, 200, 140),
+                new Rectangle(width-260, 60, 200, height-120)
+        ));
+        maps.add(new MapDef("Bottom hole with corridor",
+                width, height, 30,
+                new Point(width/2, height-80),
+                26,
+                new Rectangle(60, 60, 200, 120),
+                new Rectangle(width-260, height-180, 200, 120)
+        ));
+        return maps;
+    }
+
+    public static List<MapDef> defaults() {
+        return defaults(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    // Every *.map file in a directory, in file name order.
+    public static List<MapDef> loadAll(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (Path p : ds) files.add(p);
+        }
+        if (files.isEmpty()) throw new IOException("no " + EXTENSION + " files in " + dir);
+        files.sort(null);
+        List<MapDef> maps = new ArrayList<>();
+        for (Path p : files) maps.add(load(p));
+        return maps;
+    }
+
+    // Reads and compiles one map file.
+    public static MapDef load(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String name = fileName.endsWith(EXTENSION) ? fileName.substring(0, fileName.length() - EXTENSION.length()) : fileName;
+        int width = -1, height = -1, padding = -1;
+        Polygon table = null;
+        List<Polygon> obstacles = new ArrayList<>();
+        List<MapDef.Hole> holes = new ArrayList<>();
+        Rectangle start = null, goal = null;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int no = 0;
+            while ((line = in.readLine()) != null) {
+                no++;
+                int hash = line.indexOf('#');
+                if (hash >= 0) line = line.substring(0, hash);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] w = line.split("\\s+", 2);
+                String key = w[0], rest = w.length > 1 ? w[1] : "";
+                String where = file + ":" + no + ": ";
+                switch (key) {
+                    case "name": name = rest; break;
+                    case "size": {
+                        int[] v = ints(rest, 2, where);
+                        width = v[0]; height = v[1];
+                        break;
+                    }
+                    case "table": table = polygon(rest, where); break;
+                    case "padding": padding = ints(rest, 1, where)[0]; break;
+                    case "obstacle": obstacles.add(polygon(rest, where)); break;
+                    case "hole": {
+                        int[] v = ints(rest, 3, where);
+                        if (v[2] <= 0) throw new IOException(where + "hole radius must be positive");
+                        holes.add(new MapDef.Hole(v[0], v[1], v[2]));
+                        break;
+                    }
+                    case "start": start = rect(rest, where); break;
+                    case "goal": goal = rect(rest, where); break;
+                    default: throw new IOException(where + "unknown directive '" + key + "'");
+                }
+            }
+        }
+        if (width <= 0 || height <= 0) throw new IOException(file + ": missing size");
+        if (start == null || goal == null) throw new IOException(file + ": missing start or goal zone");
+        if (table != null && padding >= 0) throw new IOException(file + ": both table and padding given");
+        if (table == null) {
+            int pad = Math.max(0, padding);
+            table = MapDef.box(new Rectangle(pad, pad, width - 2*pad, height - 2*pad));
+        }
+        return new MapDef(name, width, height, table, obstacles, holes, start, goal);
+    }
+
+    private static int[] ints(String s, int count, String where) throws IOException {
+        String[] w = s.isEmpty() ? new String[0] : s.split("\\s+");
+        if (count > 0 && w.length != count) throw new IOException(where + "expected " + count + " numbers");
+        int[] v = new int[w.length];
+        try {
+            for (int i = 0; i < w.length; i++) v[i] = Integer.parseInt(w[i]);
+        } catch (NumberFormatException e) {
+            throw new IOException(where + "not a number: " + e.getMessage());
+        }
+        return v;
+    }
+
+    private static Polygon polygon(String s, String where) throws IOException {
+        int[] v = ints(s, -1, where);
+        if (v.length < 6 || v.length % 2 != 0) throw new IOException(where + "a polygon needs at least 3 x y pairs");
+        Polygon p = new Polygon();
+        for (int i = 0; i < v.length; i += 2) p.addPoint(v[i], v[i + 1]);
+        return p;
+    }
+
+    private static Rectangle rect(String s, String where) throws IOException {
+        int[] v = ints(s, 4, where);
+        return new Rectangle(v[0], v[1], v[2], v[3]);
+    }
+}
@@ -0,0 +1,178 @@
+package billiards;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Many perturbed Predictor rollouts fanned out over a ForkJoinPool. Each sample jitters
+// every ball's position and velocity a little, and the outcomes are aggregated into a
+// distribution of which ball falls first and when. Samples run in batches and stop
+// early once the leading ball's probability interval is narrow enough.
+public class MonteCarloPredictor {
+    private static final double Z95 = 1.96;
+
+    private final ForkJoinPool pool;
+    private int maxSamples = 2000;
+    private int batchSize = 64;
+    private double positionNoise = 1.0;  // px, standard deviation
+    private double velocityNoise = 0.02; // fraction of speed, standard deviation
+    private double targetHalfWidth = 0.03;
+    private final long seed;
+
+    public MonteCarloPredictor() {
+        this(ForkJoinPool.commonPool(), 1L);
+    }
+
+    public MonteCarloPredictor(ForkJoinPool pool, long seed) {
+        this.pool = pool;
+        this.seed = seed;
+    }
+
+    public void setMaxSamples(int n) { this.maxSamples = n; }
+    public void setBatchSize(int n) { this.batchSize = Math.max(1, n); }
+    public void setPositionNoise(double px) { this.positionNoise = px; }
+    public void setVelocityNoise(double frac) { this.velocityNoise = frac; }
+    // stop once the 95% interval of the leading probability is within +/- this
+    public void setTargetHalfWidth(double w) { this.targetHalfWidth = w; }
+
+    // Outcome statistics for one ball (ballId -1 collects rollouts where nothing fell).
+    public static class Outcome {
+        public final int ballId;
+        public final int count;
+        public final double probability, probLow, probHigh;  // Wilson 95% interval
+        public final double meanTimeS, timeLowS, timeHighS;  // mean fall time and its 95% interval
+        Outcome(int ballId, int count, int samples, double meanT, double sdT) {
+            this.ballId = ballId;
+            this.count = count;
+            this.probability = count / (double) samples;
+            double[] w = wilson(count, samples);
+            this.probLow = w[0];
+            this.probHigh = w[1];
+            this.meanTimeS = meanT;
+            double half = count > 1 ? Z95 * sdT / Math.sqrt(count) : 0;
+            this.timeLowS = meanT - half;
+            this.timeHighS = meanT + half;
+        }
+    }
+
+    public static class Distribution {
+        public final int samples;
+        public final boolean converged;
+        public final long wallNanos;
+        public final List<Outcome> outcomes; // most likely first
+        Distribution(int samples, boolean converged, long wallNanos, List<Outcome> outcomes) {
+            this.samples = samples; this.converged = converged; this.wallNanos = wallNanos; this.outcomes = outcomes;
+        }
+        public Outcome leader() {
+            for (Outcome o : outcomes) if (o.ballId >= 0) return o;
+            return null;
+        }
+    }
+
+    public Distribution predict(BallStore balls, MapDef map, double simLimitSec) {
+        BallStore base;
+        synchronized (balls) {
+            base = balls.copy();
+        }
+        return run(base, map, simLimitSec);
+    }
+
+    // As above, but answered from cache if it holds the table (in its quanta) for the
+    // same horizon; use one cache per predictor setup. Near misses are not reused: a
+    // distribution is already an average over jitter of about a quantum.
+    public Distribution predict(BallStore balls, MapDef map, double simLimitSec, PredictionCache<Distribution> cache) {
+        BallStore base;
+        synchronized (balls) {
+            base = balls.copy();
+        }
+        PredictionCache.Key key = PredictionCache.Key.of(base, map, Double.doubleToLongBits(simLimitSec));
+        return cache.get(key, -1, (k, near, cp) -> run(base, map, simLimitSec));
+    }
+
+    private Distribution run(BallStore base, MapDef map, double simLimitSec) {
+        long t0 = System.nanoTime();
+        Map<Integer, double[]> acc = new HashMap<>(); // id -> {count, sumT, sumT2}
+        int samples = 0;
+        boolean converged = false;
+        while (samples < maxSamples && !converged) {
+            int n = Math.min(batchSize, maxSamples - samples);
+            double[][] batch = pool.invoke(new RolloutTask(base, map, simLimitSec, samples, samples + n));
+            for (double[] r : batch) {
+                double[] a = acc.computeIfAbsent((int) r[0], k -> new double[3]);
+                a[0]++; a[1] += r[1]; a[2] += r[1] * r[1];
+            }
+            samples += n;
+            converged = halfWidthOfLeader(acc, samples) <= targetHalfWidth;
+        }
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Map.Entry<Integer, double[]> e : acc.entrySet()) {
+            double[] a = e.getValue();
+            int c = (int) a[0];
+            double mean = a[1] / c;
+            double var = c > 1 ? Math.max(0, (a[2] - c * mean * mean) / (c - 1)) : 0;
+            outcomes.add(new Outcome(e.getKey(), c, samples, mean, Math.sqrt(var)));
+        }
+        outcomes.sort((x, y) -> Integer.compare(y.count, x.count));
+        return new Distribution(samples, converged, System.nanoTime() - t0, outcomes);
+    }
+
+    private static double halfWidthOfLeader(Map<Integer, double[]> acc, int samples) {
+        int best = 0;
+        for (double[] a : acc.values()) best = Math.max(best, (int) a[0]);
+        double[] w = wilson(best, samples);
+        return (w[1] - w[0]) / 2;
+    }
+
+    static double[] wilson(int k, int n) {
+        if (n == 0) return new double[]{0, 1};
+        double p = k / (double) n, z2 = Z95 * Z95;
+        double denom = 1 + z2 / n;
+        double centre = (p + z2 / (2.0 * n)) / denom;
+        double half = Z95 * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n)) / denom;
+        return new double[]{Math.max(0, centre - half), Math.min(1, centre + half)};
+    }
+
+    // One perturbed rollout; the sample index fixes its noise, so results do not
+    // depend on how the pool splits the work.
+    private double[] sample(BallStore base, MapDef map, double limit, int index) {
+        BallStore sim = base.copy();
+        SplittableRandom rnd = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        for (int i = 0; i < sim.size(); i++) {
+            if (!sim.isAlive(i)) continue;
+            sim.x[i] += rnd.nextGaussian() * positionNoise;
+            sim.y[i] += rnd.nextGaussian() * positionNoise;
+            sim.vx[i] *= 1 + rnd.nextGaussian() * velocityNoise;
+            sim.vy[i] *= 1 + rnd.nextGaussian() * velocityNoise;
+        }
+        sim.wakeAll(); // a ball asleep in the live table may now overlap a neighbour
+        Predictor.Result r = Predictor.rollout(sim, map, limit);
+        return r == null ? new double[]{-1, limit} : new double[]{r.ballId, r.timeS};
+    }
+
+    private class RolloutTask extends RecursiveTask<double[][]> {
+        private final BallStore base;
+        private final MapDef map;
+        private final double limit;
+        private final int from, to;
+        RolloutTask(BallStore base, MapDef map, double limit, int from, int to) {
+            this.base = base; this.map = map; this.limit = limit; this.from = from; this.to = to;
+        }
+        @Override
+        protected double[][] compute() {
+            if (to - from == 1) return new double[][]{sample(base, map, limit, from)};
+            int mid = (from + to) >>> 1;
+            RolloutTask left = new RolloutTask(base, map, limit, from, mid);
+            left.fork();
+            double[][] right = new RolloutTask(base, map, limit, mid, to).compute();
+            double[][] l = left.join();
+            double[][] all = Arrays.copyOf(l, l.length + right.length);
+            System.arraycopy(right, 0, all, l.length, right.length);
+            return all;
+        }
+    }
+}
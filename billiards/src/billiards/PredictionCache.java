@@ -0,0 +1,256 @@
+package billiards;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Remembers predictions by the table they were made for, so asking again about a table
+// that has barely changed costs a lookup instead of a rollout. Tables are keyed on their
+// live balls quantized to POSITION_QUANTUM and VELOCITY_QUANTUM plus the map: two tables
+// in the same cells share an answer, which moves no ball by more than the quanta.
+//
+// A value may also list checkpoints, keys of the states its computation passed through
+// and how many steps in; a lookup that misses is offered the checkpoint closest to it
+// (within a distance in quanta), so a rollout can pick up where a cached one left off.
+//
+// Holds at most capacity values and drops the least recently used one. Safe for any
+// number of callers: lookups take one lock, computations run outside it, and callers
+// asking for a key that is already being computed wait for that result instead of
+// computing it again.
+public class PredictionCache<V> {
+    public static final double POSITION_QUANTUM = 1.0; // px
+    public static final double VELOCITY_QUANTUM = 1.0; // px/s
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // A table in quanta. Keys of different maps, salts or ball sets never match or count
+    // as near each other.
+    public static final class Key {
+        private final MapDef map;
+        private final long salt;
+        private final int[] q;       // per live ball: id, radius, x, y, vx, vy
+        private final long hash;     // of all of the above
+        private final long shape;    // of the map, salt, ids and radii
+
+        private Key(MapDef map, long salt, int[] q) {
+            this.map = map;
+            this.salt = salt;
+            this.q = q;
+            long h = mix(System.identityHashCode(map) ^ salt), s = h;
+            for (int k = 0; k < q.length; k += 6) {
+                s = mix(s ^ ((long) q[k] << 32 | q[k + 1] & 0xFFFFFFFFL));
+                h = mix(h ^ ((long) q[k] << 32 | q[k + 1] & 0xFFFFFFFFL));
+                h = mix(h ^ ((long) q[k + 2] << 32 | q[k + 3] & 0xFFFFFFFFL));
+                h = mix(h ^ ((long) q[k + 4] << 32 | q[k + 5] & 0xFFFFFFFFL));
+            }
+            this.hash = h;
+            this.shape = s;
+        }
+
+        // The live balls of s on map; salt tells apart questions asked with different
+        // settings, e.g. horizons. The caller owns s or holds its lock.
+        public static Key of(BallStore s, MapDef map, long salt) {
+            int n = s.size(), live = 0;
+            for (int i = 0; i < n; i++) if (s.isAlive(i)) live++;
+            int[] q = new int[6 * live];
+            for (int i = 0, k = 0; i < n; i++) {
+                if (!s.isAlive(i)) continue;
+                q[k++] = s.id[i];
+                q[k++] = s.radius[i];
+                q[k++] = (int) Math.round(s.x[i] / POSITION_QUANTUM);
+                q[k++] = (int) Math.round(s.y[i] / POSITION_QUANTUM);
+                q[k++] = (int) Math.round(s.vx[i] / VELOCITY_QUANTUM);
+                q[k++] = (int) Math.round(s.vy[i] / VELOCITY_QUANTUM);
+            }
+            return new Key(map, salt, q);
+        }
+
+        // largest difference in quanta of any ball's position or velocity, or
+        // Integer.MAX_VALUE for tables of different shapes
+        public int distance(Key o) {
+            if (shape != o.shape || map != o.map || salt != o.salt || q.length != o.q.length) return Integer.MAX_VALUE;
+            int d = 0;
+            for (int k = 0; k < q.length; k += 6) {
+                if (q[k] != o.q[k] || q[k + 1] != o.q[k + 1]) return Integer.MAX_VALUE;
+                for (int j = k + 2; j < k + 6; j++) d = Math.max(d, Math.abs(q[j] - o.q[j]));
+            }
+            return d;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return hash == k.hash && map == k.map && salt == k.salt && Arrays.equals(q, k.q);
+        }
+
+        @Override
+        public int hashCode() { return (int) (hash ^ (hash >>> 32)); }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+            z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return z ^ (z >>> 33);
+        }
+    }
+
+    // A value found for a key: exact, or a checkpoint step steps into another value's
+    // computation, distance quanta away from the key.
+    public static final class Hit<V> {
+        public final V value;
+        public final int step, distance;
+        Hit(V value, int step, int distance) { this.value = value; this.step = step; this.distance = distance; }
+    }
+
+    // Where a computation records its checkpoints.
+    public static final class Checkpoints {
+        private final List<Key> keys = new ArrayList<>();
+        private final List<Integer> steps = new ArrayList<>();
+
+        public void add(Key key, int step) {
+            keys.add(key);
+            steps.add(step);
+        }
+    }
+
+    // Computes the value for key on a miss; near is the closest checkpoint found, or null.
+    public interface Loader<V> {
+        V load(Key key, Hit<V> near, Checkpoints checkpoints);
+    }
+
+    private static final class Entry<V> {
+        final Key key;
+        final V value;
+        final List<Point<V>> points = new ArrayList<>();
+        Entry(Key key, V value) { this.key = key; this.value = value; }
+    }
+
+    private static final class Point<V> {
+        final Key key;
+        final int step;
+        final Entry<V> entry;
+        Point(Key key, int step, Entry<V> entry) { this.key = key; this.step = step; this.entry = entry; }
+    }
+
+    private final int capacity;
+    // everything below is guarded by this
+    private final LinkedHashMap<Key, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, List<Point<V>>> byShape = new HashMap<>();
+    private final Map<Key, CompletableFuture<V>> pending = new HashMap<>();
+    private long hits, nearHits, misses, evictions;
+
+    public PredictionCache() { this(DEFAULT_CAPACITY); }
+
+    public PredictionCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // The value for key: cached, being computed by another caller, or loaded here and
+    // cached. A miss hands the loader the closest checkpoint no more than maxDistance
+    // quanta away, if there is one.
+    public V get(Key key, int maxDistance, Loader<V> loader) {
+        CompletableFuture<V> running, mine = null;
+        Hit<V> near = null;
+        synchronized (this) {
+            Entry<V> e = entries.get(key);
+            if (e != null) {
+                hits++;
+                return e.value;
+            }
+            running = pending.get(key);
+            if (running != null) {
+                hits++;
+            } else {
+                near = nearest(key, maxDistance);
+                if (near != null) nearHits++; else misses++;
+                mine = new CompletableFuture<>();
+                pending.put(key, mine);
+            }
+        }
+        if (running != null) return running.join();
+        try {
+            Checkpoints cp = new Checkpoints();
+            V v = loader.load(key, near, cp);
+            synchronized (this) {
+                put(key, v, cp);
+                pending.remove(key);
+            }
+            mine.complete(v);
+            return v;
+        } catch (RuntimeException | Error t) {
+            synchronized (this) {
+                pending.remove(key);
+            }
+            mine.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    // exact hits, including callers that waited for another's computation
+    public synchronized long getHits() { return hits; }
+    // misses that were handed a checkpoint
+    public synchronized long getNearHits() { return nearHits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized int size() { return entries.size(); }
+    public int getCapacity() { return capacity; }
+
+    public synchronized void clear() {
+        entries.clear();
+        byShape.clear();
+    }
+
+    public synchronized void resetCounters() {
+        hits = nearHits = misses = evictions = 0;
+    }
+
+    // closest checkpoint of key's shape, touching its value as used
+    private Hit<V> nearest(Key key, int maxDistance) {
+        List<Point<V>> points = byShape.get(key.shape);
+        if (points == null || maxDistance < 0) return null;
+        Point<V> best = null;
+        int bestDistance = maxDistance + 1;
+        for (Point<V> p : points) {
+            int d = key.distance(p.key);
+            if (d < bestDistance) {
+                best = p;
+                bestDistance = d;
+            }
+        }
+        if (best == null) return null;
+        entries.get(best.entry.key);
+        return new Hit<>(best.entry.value, best.step, bestDistance);
+    }
+
+    private void put(Key key, V value, Checkpoints cp) {
+        Entry<V> e = new Entry<>(key, value);
+        Entry<V> old = entries.put(key, e);
+        if (old != null) unindex(old);
+        index(e, new Point<>(key, 0, e));
+        for (int k = 0; k < cp.keys.size(); k++) index(e, new Point<>(cp.keys.get(k), cp.steps.get(k), e));
+        if (entries.size() > capacity) {
+            Iterator<Entry<V>> it = entries.values().iterator();
+            Entry<V> eldest = it.next();
+            it.remove();
+            unindex(eldest);
+            evictions++;
+        }
+    }
+
+    private void index(Entry<V> e, Point<V> p) {
+        e.points.add(p);
+        byShape.computeIfAbsent(p.key.shape, s -> new ArrayList<>()).add(p);
+    }
+
+    private void unindex(Entry<V> e) {
+        for (Point<V> p : e.points) {
+            List<Point<V>> points = byShape.get(p.key.shape);
+            points.remove(p);
+            if (points.isEmpty()) byShape.remove(p.key.shape);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package billiards;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class Predictor {
+    public static final double DT = 0.005; // small step
+    // a cached rollout leaves a checkpoint every this many steps (0.5 s)
+    static final int CHECKPOINT_STEPS = 100;
+    // a table at most this many quanta from a checkpoint resumes that rollout
+    static final int NEAR_QUANTA = 1;
 
     public static class Result {
         public final int ballId;
@@ -11,84 +13,112 @@ public class Predictor {
         public Result(int id, double t) { this.ballId = id; this.timeS = t; }
     }
 
+    // What one rollout found, in steps of DT: the first fall, or that the table came to
+    // rest, or neither within the horizon; then end is the table at the horizon, for
+    // rollouts that resume this one. Immutable once cached.
+    public static final class Trajectory {
+        public final int ballId;   // -1 if nothing fell
+        public final int fallStep; // step the ball fell in, -1 if nothing fell
+        public final int steps;    // the horizon
+        public final boolean settled;
+        final BallStore end;
+        Trajectory(int ballId, int fallStep, int steps, boolean settled, BallStore end) {
+            this.ballId = ballId; this.fallStep = fallStep; this.steps = steps; this.settled = settled; this.end = end;
+        }
+        public Result result() { return ballId < 0 ? null : new Result(ballId, fallStep * DT); }
+    }
+
+    private final PredictionCache<Trajectory> cache; // null: every call rolls out
+
+    public Predictor() { this(null); }
+
+    // Shares cache with other predictors; answers for tables in the same quanta as a
+    // cached one come from it, and tables near a checkpoint of a cached rollout resume it.
+    public Predictor(PredictionCache<Trajectory> cache) {
+        this.cache = cache;
+    }
+
+    public PredictionCache<Trajectory> getCache() { return cache; }
+
     // Deep-simulate quickly to predict first ball to fall (headless)
-    public Result predictFirstToHole(List<Ball> balls, MapDef map, double simLimitSec) {
+    public Result predictFirstToHole(BallStore balls, MapDef map, double simLimitSec) {
         // copy balls
-        List<SimBall> sim = new ArrayList<>();
-        for (Ball b : balls) {
-            SimBall sb = new SimBall(b.getId(), b.getX(), b.getY(), b.getVx(), b.getVy(), b.getRadius());
-            sim.add(sb);
+        BallStore sim;
+        synchronized (balls) {
+            sim = balls.copy();
+        }
+        if (cache == null) return rollout(sim, map, simLimitSec);
+        int steps = (int) Math.ceil(simLimitSec / DT);
+        PredictionCache.Key key = PredictionCache.Key.of(sim, map, steps);
+        return cache.get(key, NEAR_QUANTA, (k, near, cp) -> trace(sim, map, steps, near, cp)).result();
+    }
+
+    // Same question answered by the event-driven engine: exact impact times instead of
+    // 5 ms steps, so no tunnelling and far less work on sparse tables.
+    public Result predictFirstToHoleExact(BallStore balls, MapDef map, double simLimitSec) {
+        BallStore sim;
+        synchronized (balls) {
+            sim = balls.copy();
         }
-        double dt = 0.005; // small step
-        int steps = (int) Math.ceil(simLimitSec / dt);
-        int left = map.getPadding();
-        int top = map.getPadding();
-        int right = left + (1000 - 2*map.getPadding()); // note: Main panel width assumed 1000
-        int bottom = top + (600 - 2*map.getPadding());
-        double hx = map.getHolePos().x;
-        double hy = map.getHolePos().y;
-        double hr = map.getHoleRadius();
+        return rolloutEvents(sim, map, simLimitSec);
+    }
+
+    // Same rollout by multi-rate stepping (AdaptiveEngine); measured against the fixed
+    // steps by AdaptiveStepBenchmark.
+    static Result rolloutAdaptive(BallStore sim, MapDef map, double simLimitSec) {
+        AdaptiveEngine engine = new AdaptiveEngine(sim, map, map.getBounds());
+        int fallen = engine.runUntilFall(simLimitSec);
+        return fallen < 0 ? null : new Result(sim.getId(fallen), engine.getTime());
+    }
+
+    static Result rolloutEvents(BallStore sim, MapDef map, double simLimitSec) {
+        EventDrivenEngine engine = new EventDrivenEngine(sim, map, map.getBounds(), simLimitSec);
+        int fallen = engine.runUntilFall();
+        return fallen < 0 ? null : new Result(sim.getId(fallen), engine.getTime());
+    }
+
+    // Simulates the given store in place until the first ball falls or all stop.
+    static Result rollout(BallStore sim, MapDef map, double simLimitSec) {
+        int steps = (int) Math.ceil(simLimitSec / DT);
+        // the map's own compiled geometry, shared with the live engine
+        SimulationEngine engine = new SimulationEngine(sim, map, map.getBounds(), 1, DT);
         for (int s = 0; s < steps; s++) {
-            for (SimBall sb : sim) {
-                if (!sb.alive) continue;
-                sb.x += sb.vx * dt;
-                sb.y += sb.vy * dt;
-                sb.vx *= Math.pow(0.995, dt*60);
-                sb.vy *= Math.pow(0.995, dt*60);
-                if (sb.x - sb.radius < left) { sb.x = left + sb.radius; sb.vx = Math.abs(sb.vx); }
-                if (sb.x + sb.radius > right) { sb.x = right - sb.radius; sb.vx = -Math.abs(sb.vx); }
-                if (sb.y - sb.radius < top) { sb.y = top + sb.radius; sb.vy = Math.abs(sb.vy); }
-                if (sb.y + sb.radius > bottom) { sb.y = bottom - sb.radius; sb.vy = -Math.abs(sb.vy); }
-            }
-            // simple collisions
-            for (int i = 0; i < sim.size(); i++) {
-                SimBall a = sim.get(i);
-                if (!a.alive) continue;
-                for (int j = i+1; j < sim.size(); j++) {
-                    SimBall b = sim.get(j);
-                    if (!b.alive) continue;
-                    double dx = b.x - a.x;
-                    double dy = b.y - a.y;
-                    double dist = Math.hypot(dx,dy);
-                    double min = a.radius + b.radius;
-                    if (dist == 0) dist = 0.0001;
-                    if (dist < min) {
-                        double overlap = 0.5*(min - dist + 0.0001);
-                        double nx = dx / dist;
-                        double ny = dy / dist;
-                        a.x -= nx*overlap; a.y -= ny*overlap;
-                        b.x += nx*overlap; b.y += ny*overlap;
-                        double va_n = a.vx*nx + a.vy*ny;
-                        double vb_n = b.vx*nx + b.vy*ny;
-                        double r = 0.95;
-                        double new_va = vb_n*r;
-                        double new_vb = va_n*r;
-                        a.vx += (new_va - va_n)*nx; a.vy += (new_va - va_n)*ny;
-                        b.vx += (new_vb - vb_n)*nx; b.vy += (new_vb - vb_n)*ny;
-                    }
-                }
-            }
+            engine.tick();
             // check holes
-            double t = s*dt;
-            for (SimBall sb : sim) {
-                if (!sb.alive) continue;
-                double dx = sb.x - hx, dy = sb.y - hy;
-                if (Math.hypot(dx, dy) <= hr) {
-                    return new Result(sb.id, t);
-                }
+            if (engine.getFallenCount() > 0) {
+                return new Result(sim.getId(engine.getFallen(0)), s*DT);
             }
             // early break if all stopped
-            boolean allStopped = true;
-            for (SimBall sb : sim) {
-                if (sb.alive && Math.hypot(sb.vx, sb.vy) > 0.1) { allStopped = false; break; }
-            }
-            if (allStopped) break;
+            if (!sim.anyMoving(0.1)) break;
         }
         return null;
     }
 
-    private static class SimBall {
-        int id; double x,y,vx,vy; int radius; boolean alive=true;
-        SimBall(int id,double x,double y,double vx,double vy,int r){this.id=id;this.x=x;this.y=y;this.vx=vx;this.vy=vy;this.radius=r;}
+    // rollout() for the cache: the same steps, recording checkpoints. A table near a
+    // checkpoint step c of a cached rollout is that rollout c steps in, so its answer is
+    // the rest of that rollout, and only the steps past its horizon are simulated, from
+    // its end.
+    static Trajectory trace(BallStore sim, MapDef map, int steps, PredictionCache.Hit<Trajectory> near,
+                            PredictionCache.Checkpoints cp) {
+        int done = 0;
+        if (near != null) {
+            Trajectory t = near.value;
+            int c = near.step;
+            // checkpoints all come before the fall, if any
+            if (t.fallStep >= 0) return new Trajectory(t.ballId, t.fallStep - c, steps, false, null);
+            if (t.settled) return new Trajectory(-1, -1, steps, true, null);
+            sim = t.end.copy();
+            done = t.steps - c;
+        }
+        SimulationEngine engine = new SimulationEngine(sim, map, map.getBounds(), 1, DT);
+        for (int s = done; s < steps; s++) {
+            engine.tick();
+            if (engine.getFallenCount() > 0) {
+                return new Trajectory(sim.getId(engine.getFallen(0)), s, steps, false, null);
+            }
+            if (!sim.anyMoving(0.1)) return new Trajectory(-1, -1, steps, true, null);
+            if ((s + 1) % CHECKPOINT_STEPS == 0 && s + 1 < steps) cp.add(PredictionCache.Key.of(sim, map, steps), s + 1);
+        }
+        return new Trajectory(-1, -1, steps, false, sim);
     }
 }
@@ -0,0 +1,129 @@
+package billiards;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+// Active rendering: a dedicated thread draws into a Canvas's BufferStrategy and flips
+// it, paced by absolute deadlines rather than a timer, so the frame rate has nothing
+// to do with the physics tick. The target starts at the display's refresh rate; when
+// frames keep costing more than most of the period it is halved, and it is doubled
+// back once they are cheap again. A frame that misses its deadline is not made up.
+public class RenderLoop {
+    public interface Frame {
+        // draws one frame; nowNanos is the time the frame is meant for
+        void render(Graphics2D g, long nowNanos);
+    }
+
+    private static final int MIN_FPS = 15;
+    // adapt after this long at a steady cost
+    private static final long ADAPT_NANOS = 1_000_000_000L;
+
+    private final Canvas canvas;
+    private final Frame frame;
+    private final int maxFps;
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile int targetFps;
+    private volatile long missedFrames;
+    private final LatencyHistogram renderNanos = new LatencyHistogram();   // drawing and flipping
+    private final LatencyHistogram intervalNanos = new LatencyHistogram(); // frame start to frame start
+
+    // maxFps <= 0 uses the display refresh rate, or 60 if it is unknown
+    public RenderLoop(Canvas canvas, Frame frame, int maxFps) {
+        this.canvas = canvas;
+        this.frame = frame;
+        this.maxFps = maxFps > 0 ? maxFps : refreshRate(canvas);
+        this.targetFps = this.maxFps;
+    }
+
+    public int getTargetFps() { return targetFps; }
+    public int getMaxFps() { return maxFps; }
+    public long getMissedFrames() { return missedFrames; }
+    public LatencyHistogram getRenderNanos() { return renderNanos; }
+    public LatencyHistogram getIntervalNanos() { return intervalNanos; }
+
+    // The canvas must be displayable.
+    public void start() {
+        canvas.setIgnoreRepaint(true);
+        canvas.createBufferStrategy(2);
+        running = true;
+        thread = new Thread(this::loop, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void loop() {
+        BufferStrategy bs = canvas.getBufferStrategy();
+        long next = System.nanoTime(), lastStart = 0;
+        long since = next; // start of the current adaptation window
+        double cost = 0;   // smoothed render cost
+        while (running) {
+            long start = System.nanoTime();
+            if (lastStart != 0) intervalNanos.record(start - lastStart);
+            lastStart = start;
+            // redraw until the buffers survived the flip
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) bs.getDrawGraphics();
+                    try {
+                        frame.render(g, start);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (bs.contentsRestored());
+                bs.show();
+            } while (bs.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+            long end = System.nanoTime();
+            renderNanos.record(end - start);
+
+            long period = 1_000_000_000L / targetFps;
+            cost = cost == 0 ? end - start : 0.9 * cost + 0.1 * (end - start);
+            if (end - since > ADAPT_NANOS) {
+                if (cost > 0.8 * period && targetFps > MIN_FPS) {
+                    targetFps = Math.max(MIN_FPS, targetFps / 2);
+                } else if (cost < 0.3 * period / 2 && targetFps < maxFps) {
+                    targetFps = Math.min(maxFps, targetFps * 2);
+                }
+                since = end;
+                period = 1_000_000_000L / targetFps;
+            }
+
+            next += period;
+            long now = System.nanoTime();
+            if (now > next) {
+                missedFrames++;
+                next = now;
+            } else {
+                LockSupport.parkNanos(next - now);
+            }
+        }
+    }
+
+    private static int refreshRate(Canvas canvas) {
+        try {
+            GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+            GraphicsDevice dev = gc != null ? gc.getDevice()
+                    : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            int hz = dev.getDisplayMode().getRefreshRate();
+            if (hz != DisplayMode.REFRESH_RATE_UNKNOWN && hz > 0) return hz;
+        } catch (UnsupportedOperationException e) { // includes HeadlessException
+            // fall through
+        }
+        return 60;
+    }
+}
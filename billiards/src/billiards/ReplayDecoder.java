@@ -0,0 +1,106 @@
+package billiards;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Rebuilds the table from KEYFRAME and DELTA records (layout in ReplayRecorder); the
+// decoding half of ReplayEncoder, shared by ReplayReader and TableClient. Positions are
+// exact to 1/quant px and the velocities are the quantized per-tick motion. Not
+// thread-safe.
+final class ReplayDecoder {
+    private final int quant;
+    private final double dt;
+    private final BallStore store = new BallStore();
+    private int[] qx = new int[0], qy = new int[0], dqx = new int[0], dqy = new int[0];
+    private final Map<Integer, Color> colors = new HashMap<>();
+    private long tick = -1;
+
+    ReplayDecoder(int quant, double dt) {
+        this.quant = quant;
+        this.dt = dt;
+    }
+
+    // tick of the last decoded record, -1 before the first keyframe
+    long getTick() { return tick; }
+    // Decoded table; reused across records.
+    BallStore getStore() { return store; }
+
+    // Applies one record: b holds its body, i.e. is positioned just past the length.
+    void decode(int type, ByteBuffer b) throws IOException {
+        if (type == ReplayRecorder.KEYFRAME) {
+            keyframe(b);
+        } else if (type == ReplayRecorder.DELTA) {
+            if (tick < 0) throw new IOException("delta before the first keyframe");
+            delta(b);
+        } else {
+            throw new IOException("bad record type " + type);
+        }
+    }
+
+    private void keyframe(ByteBuffer b) throws IOException {
+        tick = varint(b);
+        int n = (int) varint(b);
+        if (qx.length < n) {
+            qx = new int[n]; qy = new int[n]; dqx = new int[n]; dqy = new int[n];
+        }
+        store.clear();
+        for (int i = 0; i < n; i++) {
+            int id = (int) varint(b);
+            int r = (int) varint(b);
+            int rgb = b.getInt();
+            boolean alive = b.get() != 0;
+            qx[i] = unzigzag(varint(b)); qy[i] = unzigzag(varint(b));
+            dqx[i] = unzigzag(varint(b)); dqy[i] = unzigzag(varint(b));
+            Color c = colors.computeIfAbsent(rgb, v -> new Color(v, true));
+            store.add(id, 0, 0, 0, 0, r, c);
+            store.setAlive(i, alive);
+            put(i);
+        }
+    }
+
+    private void delta(ByteBuffer b) throws IOException {
+        tick += varint(b);
+        int fell = (int) varint(b);
+        for (int k = 0, i = 0; k < fell; k++) {
+            i += (int) varint(b);
+            store.setAlive(i, false);
+        }
+        int moved = (int) varint(b);
+        int next = moved > 0 ? (int) varint(b) : -1;
+        for (int i = 0, n = store.size(); i < n; i++) {
+            if (!store.isAlive(i)) continue;
+            if (i == next) {
+                int rx = unzigzag(varint(b)), ry = unzigzag(varint(b));
+                dqx[i] += rx; dqy[i] += ry;
+                next = --moved > 0 ? next + (int) varint(b) : -1;
+            }
+            qx[i] += dqx[i]; qy[i] += dqy[i];
+            put(i);
+        }
+    }
+
+    private void put(int i) {
+        store.setPosition(i, qx[i] / (double) quant, qy[i] / (double) quant);
+        store.setVelocity(i, dqx[i] / (quant * dt), dqy[i] / (quant * dt));
+    }
+
+    static long varint(ByteBuffer b) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!b.hasRemaining()) throw new EOFException("truncated varint");
+            byte x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int unzigzag(long v) {
+        int u = (int) v;
+        return (u >>> 1) ^ -(u & 1);
+    }
+}
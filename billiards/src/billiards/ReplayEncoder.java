@@ -0,0 +1,197 @@
+package billiards;
+
+import java.util.Arrays;
+
+// Turns the table after each tick into the KEYFRAME and DELTA records described in
+// ReplayRecorder; shared by the replay file and the table server's streams. It has two
+// halves with separate state, so they may run on different threads: capture() runs
+// on the tick thread, quantizes the store into a Frame and decides whether it must be
+// a keyframe; encode() turns the frames, in capture order, into records.
+final class ReplayEncoder {
+    private final int keyInterval;
+
+    // capture side
+    private long lastTick = Long.MIN_VALUE, lastKeyTick;
+    private int lastSize = -1;
+    private long[] lastAlive = new long[0];
+    private boolean keyRequested;
+
+    // encode side
+    private int[] qx = new int[0], qy = new int[0], dqx = new int[0], dqy = new int[0];
+    private long[] alive = new long[0];
+    private long prevTick;
+    private final Bytes body = new Bytes(), moves = new Bytes();
+
+    // a keyframe at least every keyInterval ticks
+    ReplayEncoder(int keyInterval) {
+        this.keyInterval = keyInterval;
+    }
+
+    // Makes the next capture a keyframe that keeps the motion going, e.g. for a reader
+    // that joins or lost frames. Capture side.
+    void requestKeyframe() {
+        keyRequested = true;
+    }
+
+    // Fills f with the store's state after the given tick. Caller holds the store lock; a
+    // forced keyframe marks an out-of-band change such as a respawn.
+    void capture(BallStore s, long tick, boolean forceKeyframe, Frame f) {
+        int n = s.size();
+        boolean reset = forceKeyframe || n != lastSize || tick < lastTick || revived(s);
+        boolean key = reset || keyRequested || tick - lastKeyTick >= keyInterval;
+        f.fill(s, tick, key, !reset);
+        if (key) lastKeyTick = tick;
+        keyRequested = false;
+        lastTick = tick;
+        lastSize = n;
+        if (lastAlive.length != s.alive.length) lastAlive = new long[s.alive.length];
+        System.arraycopy(s.alive, 0, lastAlive, 0, s.alive.length);
+    }
+
+    // a ball that came back to life can only be described by a keyframe
+    private boolean revived(BallStore s) {
+        for (int w = 0; w < lastAlive.length && w < s.alive.length; w++) {
+            if ((s.alive[w] & ~lastAlive[w]) != 0) return true;
+        }
+        return false;
+    }
+
+    // Appends f to out as one record. Encode side.
+    void encode(Frame f, Bytes out) {
+        int n = f.size;
+        body.len = 0;
+        if (f.key) {
+            if (qx.length < n) {
+                qx = new int[n]; qy = new int[n]; dqx = new int[n]; dqy = new int[n];
+            }
+            body.varint(f.tick);
+            body.varint(n);
+            for (int i = 0; i < n; i++) {
+                // motion since the previous frame carries over unless the table was reset
+                dqx[i] = f.carry ? f.qx[i] - qx[i] : 0;
+                dqy[i] = f.carry ? f.qy[i] - qy[i] : 0;
+                qx[i] = f.qx[i]; qy[i] = f.qy[i];
+                body.varint(f.id[i]);
+                body.varint(f.radius[i]);
+                body.int32(f.rgb[i]);
+                body.buf(1)[body.len++] = (byte) (f.isAlive(i) ? 1 : 0);
+                body.zigzag(qx[i]); body.zigzag(qy[i]);
+                body.zigzag(dqx[i]); body.zigzag(dqy[i]);
+            }
+            record(ReplayRecorder.KEYFRAME, out);
+        } else {
+            body.varint(f.tick - prevTick);
+            // balls that fell since the last frame, as index gaps
+            int fell = 0;
+            for (int w = 0; w < f.alive.length; w++) fell += Long.bitCount(alive[w] & ~f.alive[w]);
+            body.varint(fell);
+            for (int i = 0, last = 0; i < n; i++) {
+                if (wasAlive(i) && !f.isAlive(i)) { body.varint(i - last); last = i; }
+            }
+            // residuals against constant motion, only for balls that deviate
+            moves.len = 0;
+            int moved = 0;
+            for (int i = 0, last = 0; i < n; i++) {
+                if (!f.isAlive(i)) continue;
+                int rx = f.qx[i] - (qx[i] + dqx[i]);
+                int ry = f.qy[i] - (qy[i] + dqy[i]);
+                dqx[i] = f.qx[i] - qx[i]; dqy[i] = f.qy[i] - qy[i];
+                qx[i] = f.qx[i]; qy[i] = f.qy[i];
+                if (rx == 0 && ry == 0) continue;
+                moves.varint(i - last); last = i;
+                moves.zigzag(rx); moves.zigzag(ry);
+                moved++;
+            }
+            body.varint(moved);
+            body.append(moves);
+            record(ReplayRecorder.DELTA, out);
+        }
+        if (alive.length != f.alive.length) alive = new long[f.alive.length];
+        System.arraycopy(f.alive, 0, alive, 0, f.alive.length);
+        prevTick = f.tick;
+    }
+
+    private boolean wasAlive(int i) { return (alive[i >>> 6] & (1L << i)) != 0; }
+
+    private void record(byte type, Bytes out) {
+        out.buf(1)[out.len++] = type;
+        out.varint(body.len);
+        out.append(body);
+    }
+
+    // One captured tick, in quantized units.
+    static final class Frame {
+        long tick;
+        int size;
+        boolean key, carry; // carry: a keyframe that continues the previous frame's motion
+        int[] qx = new int[0], qy = new int[0];
+        int[] id = new int[0], radius = new int[0], rgb = new int[0];
+        long[] alive = new long[0];
+
+        boolean isAlive(int i) { return (alive[i >>> 6] & (1L << i)) != 0; }
+
+        void fill(BallStore s, long tickNo, boolean keyframe, boolean continues) {
+            int n = s.size();
+            if (qx.length < n) {
+                qx = new int[n]; qy = new int[n];
+            }
+            for (int i = 0; i < n; i++) {
+                qx[i] = (int) Math.round(s.x[i] * ReplayRecorder.QUANT);
+                qy[i] = (int) Math.round(s.y[i] * ReplayRecorder.QUANT);
+            }
+            int words = (n + 63) >>> 6;
+            if (alive.length != words) alive = new long[words];
+            System.arraycopy(s.alive, 0, alive, 0, words);
+            if (keyframe) {
+                if (id.length < n) {
+                    id = new int[n]; radius = new int[n]; rgb = new int[n];
+                }
+                System.arraycopy(s.id, 0, id, 0, n);
+                System.arraycopy(s.radius, 0, radius, 0, n);
+                for (int i = 0; i < n; i++) rgb[i] = s.color[i] == null ? 0 : s.color[i].getRGB();
+            }
+            size = n;
+            tick = tickNo;
+            key = keyframe;
+            carry = continues;
+        }
+    }
+
+    // Growable byte array with the varint encoders.
+    static final class Bytes {
+        byte[] buf = new byte[256];
+        int len;
+
+        byte[] buf(int extra) {
+            if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            return buf;
+        }
+
+        void varint(long v) {
+            buf(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void zigzag(int v) { varint(((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL); }
+
+        void int32(int v) {
+            buf(4);
+            buf[len++] = (byte) (v >>> 24); buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 8); buf[len++] = (byte) v;
+        }
+
+        void bytes(byte[] b) {
+            System.arraycopy(b, 0, buf(b.length), len, b.length);
+            len += b.length;
+        }
+
+        void append(Bytes b) {
+            System.arraycopy(b.buf, 0, buf(b.len), len, b.len);
+            len += b.len;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package billiards;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Plays back a file written by ReplayRecorder. Opening scans the record headers once
+// to index the keyframes; after that only the records being decoded are read, so an
+// hours-long file costs a few longs per second of recording in memory. seek() jumps
+// to the nearest keyframe at or before the target and decodes forward from there;
+// short forward seeks just decode the next few deltas, so playback at any speed is a
+// series of seeks. Not thread-safe.
+public class ReplayReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final double dt;
+    private final int quant, keyInterval;
+    private final long end; // offset just past the last complete record
+
+    // keyframe index
+    private long[] keyTicks = new long[64], keyOffsets = new long[64];
+    private int keyCount;
+    private long firstTick, lastTick, records;
+    private int maxBalls;
+
+    // read window over the file
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16).limit(0);
+    private long bufStart; // file offset of buf[0]
+
+    // decoded state
+    private final ReplayDecoder decoder;
+    private long pos;  // offset of the next record
+
+    public ReplayReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer h = ByteBuffer.allocate(ReplayRecorder.HEADER_SIZE);
+            while (h.hasRemaining()) {
+                if (channel.read(h, h.position()) < 0) throw new EOFException("truncated replay header");
+            }
+            h.flip();
+            if (h.getInt() != ReplayRecorder.MAGIC) throw new IOException("not a replay file: " + file);
+            int version = h.getInt();
+            if (version != ReplayRecorder.VERSION) throw new IOException("unsupported replay version " + version);
+            quant = h.getInt();
+            dt = h.getDouble();
+            keyInterval = h.getInt();
+            decoder = new ReplayDecoder(quant, dt);
+            end = index();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (keyCount == 0) {
+            channel.close();
+            throw new IOException("replay has no keyframe: " + file);
+        }
+        seek(firstTick);
+    }
+
+    public double getDt() { return dt; }
+    public long getFirstTick() { return firstTick; }
+    public long getLastTick() { return lastTick; }
+    public long getRecordCount() { return records; }
+    public int getKeyframeCount() { return keyCount; }
+    // largest table in the recording
+    public int getMaxBalls() { return maxBalls; }
+    public long getTick() { return decoder.getTick(); }
+    // Decoded table at the current tick; positions are exact to 1/quant px and the
+    // velocities are the quantized per-tick motion. Reused across calls.
+    public BallStore getStore() { return decoder.getStore(); }
+
+    // Decodes the next recorded tick; false at the end of the file.
+    public boolean next() throws IOException {
+        if (pos >= end) return false;
+        int len = load(pos);
+        int type = buf.get();
+        varint(); // length, already known
+        decoder.decode(type, buf);
+        pos += len;
+        return true;
+    }
+
+    // Positions the reader on the last recorded tick at or before target (the first tick
+    // if target precedes it) and returns that tick.
+    public long seek(long target) throws IOException {
+        long t = Math.max(target, firstTick), tick = decoder.getTick();
+        if (tick < 0 || t < tick || t - tick > keyInterval) {
+            int k = Arrays.binarySearch(keyTicks, 0, keyCount, t);
+            if (k < 0) k = -k - 2;
+            // several keyframes can share a tick after a respawn; take the last
+            while (k + 1 < keyCount && keyTicks[k + 1] == keyTicks[k]) k++;
+            pos = keyOffsets[k];
+            next();
+        }
+        while (pos < end && peekTick() <= t) next();
+        return decoder.getTick();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Scans all record headers, filling the keyframe index; returns the end of the
+    // last complete record, so a file cut off mid-write still plays.
+    private long index() throws IOException {
+        long p = ReplayRecorder.HEADER_SIZE, size = channel.size(), t = -1;
+        while (p < size) {
+            int len;
+            try {
+                len = load(p);
+            } catch (EOFException e) {
+                break;
+            }
+            int type = buf.get();
+            varint();
+            if (type == ReplayRecorder.KEYFRAME) {
+                t = varint();
+                maxBalls = Math.max(maxBalls, (int) varint());
+                if (keyCount == keyTicks.length) {
+                    keyTicks = Arrays.copyOf(keyTicks, keyCount * 2);
+                    keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+                }
+                keyTicks[keyCount] = t;
+                keyOffsets[keyCount++] = p;
+            } else if (type == ReplayRecorder.DELTA) {
+                if (t < 0) throw new IOException("delta before the first keyframe at offset " + p);
+                t += varint();
+            } else {
+                throw new IOException("bad record type " + type + " at offset " + p);
+            }
+            if (records++ == 0) firstTick = t;
+            lastTick = t;
+            p += len;
+        }
+        return p;
+    }
+
+    private long peekTick() throws IOException {
+        load(pos);
+        int type = buf.get();
+        varint();
+        return type == ReplayRecorder.KEYFRAME ? varint() : decoder.getTick() + varint();
+    }
+
+    // Makes the whole record at offset p readable, leaves buf positioned on its type
+    // byte and returns the record's total length.
+    private int load(long p) throws IOException {
+        ensure(p, 11);
+        int type = buf.get();
+        long len = varint();
+        int header = (int) (buf.position() - (p - bufStart));
+        if (len < 0 || len > Integer.MAX_VALUE - header) throw new IOException("bad record length at offset " + p);
+        int total = header + (int) len;
+        ensure(p, total);
+        if (buf.remaining() < total) throw new EOFException("truncated record at offset " + p);
+        return total;
+    }
+
+    // Brings bytes [p, p + n) into the window (fewer at the end of the file) and
+    // positions buf at p.
+    private void ensure(long p, int n) throws IOException {
+        if (p < bufStart || p + n > bufStart + buf.limit()) {
+            if (buf.capacity() < n) buf = ByteBuffer.allocate(Math.max(n, buf.capacity() * 2));
+            buf.clear();
+            bufStart = p;
+            while (buf.hasRemaining()) {
+                int r = channel.read(buf, bufStart + buf.position());
+                if (r < 0) break;
+            }
+            buf.flip();
+        }
+        buf.position((int) (p - bufStart));
+    }
+
+    private long varint() throws IOException {
+        return ReplayDecoder.varint(buf);
+    }
+
+    // Prints a summary of a replay file, or the table at a given tick.
+    // Usage: java -cp billiards.jar billiards.ReplayReader FILE [TICK]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ReplayReader FILE [TICK]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        try (ReplayReader r = new ReplayReader(file)) {
+            long ticks = r.getLastTick() - r.getFirstTick() + 1;
+            System.out.printf("ticks %d..%d (%.1f s), %d records, %d keyframes, %.1f bytes/tick%n",
+                    r.getFirstTick(), r.getLastTick(), ticks * r.getDt(), r.getRecordCount(), r.getKeyframeCount(),
+                    (double) java.nio.file.Files.size(file) / ticks);
+            if (args.length > 1) {
+                long at = r.seek(Long.parseLong(args[1]));
+                BallStore s = r.getStore();
+                System.out.println("tick " + at + ":");
+                for (int i = 0; i < s.size(); i++) {
+                    if (!s.isAlive(i)) continue;
+                    System.out.printf("  #%d (%.2f, %.2f) v=(%.1f, %.1f)%n", s.getId(i), s.getX(i), s.getY(i),
+                            s.getVx(i), s.getVy(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package billiards;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Streams every tick of a table to a compact binary replay file.
+//
+// The tick thread only quantizes positions into a pooled frame and queues it; a
+// background thread encodes (ReplayEncoder) and writes, so the live tick never waits on
+// the disk. Frames are allocated once, so recording adds no garbage per tick. A writer
+// a whole pool behind costs frames, not ticks: the capture is dropped and counted and
+// the next one made a keyframe. Deltas carry their tick step, so the gap plays back as
+// a jump. A recorder made blocking waits for the writer instead and loses nothing; that
+// is for headless runs, where no one else waits on the tick.
+//
+// File layout: a fixed header (magic, version, quantum, dt, keyframe interval), then
+// records of [type byte][varint payload length][payload]. Positions are stored in
+// 1/QUANT px units. A keyframe holds the whole table (ids, radii, colours, alive flags,
+// positions and last per-tick motion) and is self-contained, so seeking starts there.
+// A delta holds the tick step, the balls that fell, and for each ball whose position
+// differs from the constant-motion prediction (q + dq) its zigzag-varint residual. A
+// rolling ball costs nothing most ticks, and a table at rest costs about three bytes.
+public class ReplayRecorder implements AutoCloseable {
+    static final int MAGIC = 0x42524c31; // "BRL1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final byte KEYFRAME = 1, DELTA = 2;
+    public static final int QUANT = 16;            // position units per pixel
+    public static final int KEYFRAME_INTERVAL = SimulationEngine.TICK_HZ; // ticks
+    // frames in flight; a writer this many ticks behind makes capture drop or wait
+    private static final int POOL = 64;
+    private static final int FLUSH_BYTES = 1 << 16;
+    private static final ReplayEncoder.Frame END = new ReplayEncoder.Frame();
+
+    private final FileChannel channel;
+    private final BlockingQueue<ReplayEncoder.Frame> pending = new ArrayBlockingQueue<>(POOL + 1); // and END
+    private final BlockingQueue<ReplayEncoder.Frame> free = new ArrayBlockingQueue<>(POOL);
+    private final Thread writer;
+    private volatile IOException failure;
+    private volatile long framesWritten, bytesWritten;
+    private final boolean blocking;
+    private volatile long dropped, stalls;
+    private volatile boolean closed;
+
+    // the capturing thread uses the capture half, the writer thread the encode half
+    private final ReplayEncoder encoder = new ReplayEncoder(KEYFRAME_INTERVAL);
+    private final ReplayEncoder.Bytes out = new ReplayEncoder.Bytes(); // writer thread only
+
+    public ReplayRecorder(Path file, double dt) throws IOException {
+        this(file, dt, false);
+    }
+
+    // blocking: capture waits for the writer rather than drop frames
+    public ReplayRecorder(Path file, double dt, boolean blocking) throws IOException {
+        this.blocking = blocking;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+        h.putInt(MAGIC).putInt(VERSION).putInt(QUANT).putDouble(dt).putInt(KEYFRAME_INTERVAL).flip();
+        while (h.hasRemaining()) channel.write(h);
+        bytesWritten = HEADER_SIZE;
+        for (int k = 0; k < POOL; k++) free.add(new ReplayEncoder.Frame());
+        writer = new Thread(this::writeLoop, "replay-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues the store's state after the given tick. Caller holds the store lock; a
+    // forced keyframe marks an out-of-band change such as a respawn. With every pooled
+    // frame queued the tick is dropped, or for a blocking recorder waited for.
+    public void capture(BallStore s, long tick, boolean forceKeyframe) {
+        if (closed || failure != null) return;
+        ReplayEncoder.Frame f = free.poll();
+        if (f == null && !blocking) {
+            dropped++;
+            encoder.requestKeyframe();
+            return;
+        }
+        if (f == null) {
+            stalls++;
+            try {
+                while ((f = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    if (failure != null) return; // the writer is gone and will not hand any back
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new IOException("replay capture interrupted", e);
+                return;
+            }
+        }
+        encoder.capture(s, tick, forceKeyframe, f);
+        pending.add(f);
+    }
+
+    public long getFramesWritten() { return framesWritten; }
+    public long getBytesWritten() { return bytesWritten; }
+    // ticks not recorded because the writer was a whole pool behind
+    public long getDropped() { return dropped; }
+    // captures of a blocking recorder that waited for the writer to hand back a frame
+    public long getStalls() { return stalls; }
+
+    // Writes everything queued so far and closes the file. Call from the capturing side
+    // once no more captures can happen.
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        pending.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) throw failure;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ReplayEncoder.Frame f = pending.poll(200, TimeUnit.MILLISECONDS);
+                if (f == null) { // idle: push what we have so a crash loses little
+                    flush();
+                    continue;
+                }
+                if (f == END) break;
+                encoder.encode(f, out);
+                free.offer(f);
+                framesWritten++;
+                if (out.len >= FLUSH_BYTES) flush();
+            }
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("replay writer interrupted", e);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (out.len == 0) return;
+        ByteBuffer b = ByteBuffer.wrap(out.buf, 0, out.len);
+        while (b.hasRemaining()) channel.write(b);
+        bytesWritten += out.len;
+        out.len = 0;
+    }
+}
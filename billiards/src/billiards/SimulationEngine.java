@@ -0,0 +1,514 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Fixed-step simulation: every tick integrates all balls in parallel chunks on a
+// core-sized pool, joins, then resolves collisions and holes on the calling thread.
+// The tick runs under the store's monitor; pool workers only touch the primitive arrays.
+//
+// A ball that stays slower than SLEEP_SPEED for SLEEP_TICKS falls asleep: its velocity
+// is zeroed and the phases skip it until a contact with an awake ball wakes it. Pairs of
+// sleeping balls are not resolved, and a table with nothing awake costs a few bitset
+// scans per tick. Large pair lists are split into islands (see Islands) and resolved
+// in parallel.
+public class SimulationEngine {
+    public static final int TICK_HZ = 120;
+    public static final double DT = 1.0 / TICK_HZ;
+    public static final double FRICTION = 0.995; // per 1/60 s multiplier
+    public static final double RESTITUTION = 0.95;
+
+    // below this many balls a chunk is integrated without forking further
+    private static final int CHUNK = 512;
+    // a ball slower than this (px/s) counts as resting in the metrics
+    private static final double ACTIVE_SPEED = 0.1;
+    static final double SLEEP_SPEED = ACTIVE_SPEED;
+    static final int SLEEP_TICKS = TICK_HZ / 2;
+    // with a pool, pair lists at least this long are resolved island by island in
+    // parallel, in tasks of about ISLAND_CHUNK pairs
+    private static final int ISLAND_PAIRS = 4096;
+    private static final int ISLAND_CHUNK = 1024;
+    // SIMD kernels (VectorKernels) when the JVM runs with --add-modules jdk.incubator.vector
+    // and the CPU has vector lanes; -Dbilliards.vector=false forces the scalar loops
+    static final boolean VECTOR_AVAILABLE = Boolean.parseBoolean(System.getProperty("billiards.vector", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorKernels.usable();
+
+    private final BallStore store;
+    private final ForkJoinPool pool; // null when running single-threaded
+    private final double dt;
+    private final double damping;
+    private final UniformGrid grid = new UniformGrid();
+    private final Islands islands = new Islands();
+    // with the SIMD narrow phase: the grid's per-pair overlap bits (else null) and the
+    // balls a contact has moved during this tick's collision phase
+    private long[] tested;
+    private boolean[] moved = new boolean[0];
+    // leaf tasks of the parallel phases, kept from tick to tick and reset before each
+    // use, so a steady-state tick allocates nothing; grown when a phase needs more
+    private Slice[] slices = new Slice[0];
+    private final Fan fan = new Fan();
+    private boolean vectorized = VECTOR_AVAILABLE;
+    private boolean sleeping = true;
+    private volatile Rectangle bounds;
+    private volatile Rectangle gridBounds; // null: the collision grid covers the walls
+    private volatile MapDef map;
+    private long tickCount = 0L;
+    // indices of balls that fell during the last tick
+    private int[] fallen = new int[16];
+    private int fallenCount;
+    // optional hand-off of each finished tick to a renderer
+    private volatile SnapshotExchange snapshots;
+    // optional recording of every tick
+    private volatile ReplayRecorder recorder;
+    // optional forecast of the next fall; epoch counts changes made outside tick()
+    private volatile LivePredictor predictor;
+    private long epoch;
+    private final SimulationMetrics metrics = new SimulationMetrics();
+    // counts of the last tick, for the metrics
+    private int candidatePairs, contacts, aliveCount, activeCount, sleepingCount;
+
+    // bounds are the walls, normally map.getBounds(); the map adds its other cushion
+    // edges, obstacles and holes
+    public SimulationEngine(BallStore store, MapDef map, Rectangle bounds) {
+        this(store, map, bounds, Runtime.getRuntime().availableProcessors(), DT);
+    }
+
+    public SimulationEngine(BallStore store, MapDef map, Rectangle bounds, int parallelism, double dt) {
+        this.store = store;
+        this.map = map;
+        this.bounds = bounds;
+        this.dt = dt;
+        this.damping = Math.pow(FRICTION, dt * 60);
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public void setMap(MapDef map, Rectangle bounds) {
+        synchronized (store) {
+            this.map = map;
+            this.bounds = bounds;
+            epoch++;
+        }
+    }
+
+    public BallStore getStore() { return store; }
+    public double getDt() { return dt; }
+    public long getTickCount() { return tickCount; }
+    public double getSimTime() { return tickCount * dt; }
+    public int getParallelism() { return pool == null ? 1 : pool.getParallelism(); }
+    public int getFallenCount() { return fallenCount; }
+    public int getFallen(int k) { return fallen[k]; }
+    public LatencyHistogram getTickNanos() { return metrics.tick; }
+    public SimulationMetrics getMetrics() { return metrics; }
+    public boolean isVectorized() { return vectorized; }
+    public boolean isSleeping() { return sleeping; }
+
+    // Chooses SIMD or scalar kernels, e.g. to compare them; SIMD only if available.
+    // Both give identical results. Call between ticks.
+    void setVectorized(boolean on) {
+        vectorized = on && VECTOR_AVAILABLE;
+    }
+
+    // Turns ball sleeping on or off, e.g. to measure what it saves; off wakes every ball.
+    // Call between ticks.
+    void setSleeping(boolean on) {
+        synchronized (store) {
+            sleeping = on;
+            if (!on) store.wakeAll();
+        }
+    }
+
+    // Spans the collision grid over r instead of the walls, for an engine that steps only
+    // the balls in part of the table (DomainWorker); a ball outside r still collides, in
+    // r's edge cells. null goes back to the walls. Call between ticks.
+    void setGridBounds(Rectangle r) {
+        gridBounds = r;
+    }
+
+    // Starts publishing a snapshot at the end of every tick; returns the exchange to read from.
+    public SnapshotExchange enableSnapshots() {
+        if (snapshots == null) snapshots = new SnapshotExchange();
+        return snapshots;
+    }
+
+    // Records every following tick, starting with a keyframe of the current table;
+    // null stops recording. The caller closes the recorder after detaching it.
+    public void setRecorder(ReplayRecorder r) {
+        synchronized (store) {
+            recorder = r;
+            if (r != null) r.capture(store, tickCount, true);
+        }
+    }
+
+    // Lets p follow this table, forking it right away; null detaches. The caller closes
+    // the predictor after detaching it.
+    public void setPredictor(LivePredictor p) {
+        synchronized (store) {
+            predictor = p;
+            if (p != null) p.offer(store, tickCount, epoch, map, bounds);
+        }
+    }
+
+    // Advances the whole table by one fixed step.
+    public void tick() {
+        SimulationMetrics m = metrics;
+        long t0 = System.nanoTime();
+        synchronized (store) {
+            long t1 = System.nanoTime();
+            integrateAll();
+            long t2 = System.nanoTime();
+            resolveCollisions();
+            long t3 = System.nanoTime();
+            checkHoles();
+            long t4 = System.nanoTime();
+            tickCount++;
+            SnapshotExchange ex = snapshots;
+            if (ex != null) ex.publish(store, tickCount);
+            ReplayRecorder rec = recorder;
+            if (rec != null) rec.capture(store, tickCount, false);
+            LivePredictor p = predictor;
+            if (p != null) p.offer(store, tickCount, epoch, map, bounds);
+            m.lockWait.record(t1 - t0);
+            m.integrate.record(t2 - t1);
+            m.collide.record(t3 - t2);
+            m.holes.record(t4 - t3);
+            m.recordCounts(candidatePairs, contacts, aliveCount, activeCount, sleepingCount);
+            if (tickCount % SimulationMetrics.ALLOC_SAMPLE_TICKS == 0) m.sampleAllocation(tickCount);
+        }
+        m.tick.record(System.nanoTime() - t0);
+    }
+
+    public void stopAll() {
+        synchronized (store) {
+            // called every tick once time is up; only a real change is a new epoch, and
+            // once everything sleeps this is a scan of the awake bits
+            if (!store.anyMoving(0)) return;
+            epoch++;
+            store.stopAll();
+        }
+    }
+
+    // Publishes the current store without stepping, e.g. after the balls were respawned;
+    // a recording gets a keyframe.
+    public void republish() {
+        synchronized (store) {
+            SnapshotExchange ex = snapshots;
+            if (ex != null) ex.publish(store, tickCount);
+            ReplayRecorder rec = recorder;
+            if (rec != null) rec.capture(store, tickCount, true);
+            epoch++;
+            LivePredictor p = predictor;
+            if (p != null) p.offer(store, tickCount, epoch, map, bounds);
+        }
+    }
+
+    public void shutdown() {
+        if (pool != null) pool.shutdownNow();
+    }
+
+    // The tick phases below are package-private so the benchmarks can time them one
+    // by one and DomainWorker can exchange its strip edges between them; callers must
+    // hold the store lock.
+
+    void integrateAll() {
+        int n = store.size();
+        if (store.awakeCount() == 0) return;
+        if (pool == null || n <= CHUNK) {
+            integrate(0, n);
+        } else {
+            int count = (n + CHUNK - 1) / CHUNK;
+            for (int k = 0; k < count; k++) slice(k).set(k * CHUNK, Math.min(n, (k + 1) * CHUNK), false);
+            runSlices(count);
+        }
+    }
+
+    private void integrate(int from, int to) {
+        Rectangle bnd = bounds;
+        double left = bnd.x, top = bnd.y, right = bnd.x + bnd.width, bottom = bnd.y + bnd.height;
+        if (vectorized) {
+            VectorKernels.integrate(store, from, to, dt, damping, left, top, right, bottom);
+        } else {
+            integrateScalar(store, from, to, dt, damping, left, top, right, bottom);
+        }
+        // cushion edges off the box, and obstacles
+        MapGeometry geo = map.getGeometry();
+        if (geo.getEdgeCount() > 0) {
+            double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+            for (int i = from; i < to; i++) {
+                if (store.isAwake(i)) geo.bounce(i, x, y, vx, vy, store.radius[i]);
+            }
+        }
+    }
+
+    // Moves awake balls in [from, to) by v*dt, damps them and bounces them off the walls.
+    static void integrateScalar(BallStore store, int from, int to, double dt, double damping,
+                                double left, double top, double right, double bottom) {
+        double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        int[] radius = store.radius;
+        long[] awake = store.awake;
+        for (int i = from; i < to; i++) {
+            long w = awake[i >>> 6];
+            if (w == 0) {
+                i |= 63; // skip the rest of an empty word
+                continue;
+            }
+            if ((w & (1L << i)) == 0) continue;
+            int r = radius[i];
+            double nx = x[i] + vx[i]*dt;
+            double ny = y[i] + vy[i]*dt;
+            double nvx = vx[i] * damping;
+            double nvy = vy[i] * damping;
+
+            // bounce on walls
+            if (nx - r < left) {
+                nx = left + r;
+                nvx = Math.abs(nvx);
+            }
+            if (nx + r > right) {
+                nx = right - r;
+                nvx = -Math.abs(nvx);
+            }
+            if (ny - r < top) {
+                ny = top + r;
+                nvy = Math.abs(nvy);
+            }
+            if (ny + r > bottom) {
+                ny = bottom - r;
+                nvy = -Math.abs(nvy);
+            }
+            x[i] = nx; y[i] = ny;
+            vx[i] = nvx; vy[i] = nvy;
+        }
+    }
+
+    void resolveCollisions() {
+        // the SIMD narrow phase pays once a ball's candidates fill the lanes; on sparse
+        // grids, with fewer candidates per ball on the last tick, the scalar loop is faster
+        boolean test = vectorized && candidatePairs >= (long) VectorKernels.NARROW_LANES * store.aliveCount();
+        candidatePairs = 0;
+        contacts = 0;
+        // sleeping balls only need a grid to be found by awake ones
+        if (store.awakeCount() == 0) return;
+        int[] still = store.still;
+        int maxRadius = store.maxRadius();
+        Rectangle gb = gridBounds;
+        grid.build(gb != null ? gb : bounds, 2*maxRadius, store);
+        int pairs;
+        if (test) {
+            pairs = grid.findPairsTested(store);
+            tested = grid.touching();
+            if (moved.length < store.size()) moved = new boolean[store.size()];
+            else Arrays.fill(moved, 0, store.size(), false);
+        } else {
+            pairs = grid.findPairs();
+            tested = null;
+        }
+        int[] pairA = grid.pairsA(), pairB = grid.pairsB();
+        int hits = 0;
+        if (pool != null && pairs >= ISLAND_PAIRS) {
+            islands.build(pairA, pairB, pairs, store.size(), still, SLEEP_TICKS);
+            // consecutive islands up to about ISLAND_CHUNK pairs per task
+            int[] start = islands.start;
+            int count = 0;
+            for (int from = 0, to; from < islands.count; from = to) {
+                to = from + 1;
+                while (to < islands.count && start[to + 1] - start[from] <= ISLAND_CHUNK) to++;
+                slice(count++).set(from, to, true);
+            }
+            hits = runSlices(count);
+        } else {
+            hits = test ? resolveTested(pairs) : resolveAll(pairs);
+        }
+        // a contact reset both balls' still counts; wake the ones that were asleep
+        if (hits > 0) {
+            for (int k = 0; k < pairs; k++) {
+                if (still[pairA[k]] == 0) store.wake(pairA[k]);
+                if (still[pairB[k]] == 0) store.wake(pairB[k]);
+            }
+        }
+        candidatePairs = pairs;
+        contacts = hits;
+    }
+
+    private int resolveAll(int pairs) {
+        int[] pairA = grid.pairsA(), pairB = grid.pairsB();
+        int hits = 0;
+        for (int k = 0; k < pairs; k++) if (resolve(store, pairA[k], pairB[k])) hits++;
+        return hits;
+    }
+
+    // The pairs in order as resolvePair() takes them. Past the last pair involving a ball
+    // a contact has moved (UniformGrid.pairsEnd) every pair still has both balls where
+    // the grid tested them, so the loop jumps from one overlapping pair to the next.
+    private int resolveTested(int pairs) {
+        int[] pairA = grid.pairsA(), pairB = grid.pairsB();
+        long[] t = tested;
+        int hits = 0, reach = 0;
+        for (int k = 0; k < pairs; k++) {
+            if (k >= reach) { // next set bit at or after k
+                int w = k >>> 6;
+                long bits = t[w] & (-1L << k);
+                while (bits == 0 && ++w < t.length) bits = t[w];
+                if (bits == 0) break;
+                k = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (k >= pairs) break;
+            }
+            int a = pairA[k], b = pairB[k];
+            if (resolvePair(k, a, b)) {
+                hits++;
+                reach = Math.max(reach, Math.max(grid.pairsEnd(a), grid.pairsEnd(b)));
+            }
+        }
+        return hits;
+    }
+
+    // Candidate pair k of this tick. With the SIMD test, a pair that did not overlap when
+    // the grid tested it and whose balls no contact has moved since cannot overlap now, so
+    // it is skipped without touching the balls: resolve() would find the same. Islands
+    // share no balls, so parallel islands never mark the same entry of moved.
+    private boolean resolvePair(int k, int a, int b) {
+        long[] t = tested;
+        if (t == null) return resolve(store, a, b);
+        if ((t[k >>> 6] & (1L << k)) == 0 && !moved[a] && !moved[b]) return false;
+        if (!resolve(store, a, b)) return false;
+        moved[a] = true;
+        moved[b] = true;
+        return true;
+    }
+
+    // One candidate pair: skipped if both balls sleep, otherwise collided; a contact
+    // restarts both balls' still counts. Touches only a and b. Static so DomainWorker can
+    // resolve the pairs along a strip edge with exactly the engine's arithmetic.
+    static boolean resolve(BallStore store, int a, int b) {
+        int[] still = store.still;
+        if (still[a] >= SLEEP_TICKS && still[b] >= SLEEP_TICKS) return false;
+        if (!collide(store, a, b)) return false;
+        still[a] = 0;
+        still[b] = 0;
+        return true;
+    }
+
+    // basic pairwise elastic collision with slight damping; false if a and b do not touch
+    private static boolean collide(BallStore store, int a, int b) {
+        double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        int[] radius = store.radius;
+        double dx = x[b] - x[a];
+        double dy = y[b] - y[a];
+        double minDist = radius[a] + radius[b];
+        double d2 = dx*dx + dy*dy;
+        if (d2 >= minDist*minDist) return false;
+        double dist = Math.sqrt(d2);
+        if (dist == 0) {
+            dist = 0.0001;
+            dx = 0.0001;
+        }
+        // push apart equally
+        double overlap = 0.5 * (minDist - dist + 0.0001);
+        double nx = dx / dist;
+        double ny = dy / dist;
+        x[a] -= nx*overlap; y[a] -= ny*overlap;
+        x[b] += nx*overlap; y[b] += ny*overlap;
+        // velocities along normal
+        double va_n = vx[a]*nx + vy[a]*ny;
+        double vb_n = vx[b]*nx + vy[b]*ny;
+        double new_va_n = vb_n * RESTITUTION;
+        double new_vb_n = va_n * RESTITUTION;
+        vx[a] += (new_va_n - va_n)*nx; vy[a] += (new_va_n - va_n)*ny;
+        vx[b] += (new_vb_n - vb_n)*nx; vy[b] += (new_vb_n - vb_n)*ny;
+        return true;
+    }
+
+    // Drops awake balls that are over a hole and puts slow ones to sleep; sleeping
+    // balls have not moved, so they are not looked at.
+    void checkHoles() {
+        MapGeometry geo = map.getGeometry();
+        double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        long[] awake = store.awake;
+        int[] still = store.still;
+        fallenCount = 0;
+        int moving = 0;
+        for (int w = 0; w < awake.length; w++) {
+            for (long bits = awake[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (geo.holeAt(x[i], y[i]) >= 0) {
+                    store.setAlive(i, false);
+                    if (fallenCount == fallen.length) fallen = Arrays.copyOf(fallen, fallenCount * 2);
+                    fallen[fallenCount++] = i;
+                    continue;
+                }
+                double v2 = vx[i]*vx[i] + vy[i]*vy[i];
+                if (v2 > ACTIVE_SPEED*ACTIVE_SPEED) moving++;
+                if (!sleeping) continue;
+                if (v2 >= SLEEP_SPEED*SLEEP_SPEED) {
+                    still[i] = 0;
+                } else if (++still[i] >= SLEEP_TICKS) {
+                    vx[i] = 0; vy[i] = 0;
+                    awake[w] &= ~(1L << i);
+                }
+            }
+        }
+        aliveCount = store.aliveCount();
+        activeCount = moving;
+        sleepingCount = aliveCount - store.awakeCount();
+    }
+
+    private Slice slice(int k) {
+        if (k == slices.length) {
+            slices = Arrays.copyOf(slices, Math.max(16, 2 * k));
+            for (int j = k; j < slices.length; j++) slices[j] = new Slice();
+        }
+        return slices[k];
+    }
+
+    // Runs slices [0, count) on the pool and returns their summed contacts.
+    private int runSlices(int count) {
+        if (count == 0) return 0;
+        for (int k = 0; k < count; k++) slices[k].reinitialize();
+        fan.count = count;
+        fan.reinitialize();
+        pool.invoke(fan);
+        int hits = 0;
+        for (int k = 0; k < count; k++) hits += slices[k].hits;
+        return hits;
+    }
+
+    // One leaf: a ball range to integrate, or a range of islands to resolve.
+    private final class Slice extends RecursiveAction {
+        private int from, to, hits;
+        private boolean islandRange;
+
+        void set(int from, int to, boolean islandRange) {
+            this.from = from; this.to = to; this.islandRange = islandRange;
+        }
+
+        @Override
+        protected void compute() {
+            if (!islandRange) {
+                integrate(from, to);
+                return;
+            }
+            int[] start = islands.start, order = islands.pairs;
+            int[] pairA = grid.pairsA(), pairB = grid.pairsB();
+            int h = 0;
+            for (int p = start[from], end = start[to]; p < end; p++) {
+                int k = order[p];
+                if (resolvePair(k, pairA[k], pairB[k])) h++;
+            }
+            hits = h;
+        }
+    }
+
+    // Forks the first count slices and joins them; the first runs on the calling thread.
+    private final class Fan extends RecursiveAction {
+        private int count;
+
+        @Override
+        protected void compute() {
+            Slice[] s = slices;
+            for (int k = count - 1; k > 0; k--) s[k].fork();
+            s[0].compute();
+            for (int k = 1; k < count; k++) s[k].join();
+        }
+    }
+}
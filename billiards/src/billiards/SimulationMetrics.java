@@ -0,0 +1,139 @@
+package billiards;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// What one table's simulation is doing: per-phase tick durations, time spent waiting
+// for the store lock, collision and ball counts, ticks that ran late, and what the tick
+// thread allocates. The engine records into it on the tick thread with a few nanoTime
+// calls per tick; anything can read it, including JMX once register() was called.
+// Histograms and counters are lock-free; the per-tick gauges are plain volatiles.
+public class SimulationMetrics implements SimulationMetricsMBean {
+    final LatencyHistogram tick = new LatencyHistogram();
+    final LatencyHistogram lockWait = new LatencyHistogram();
+    final LatencyHistogram integrate = new LatencyHistogram();
+    final LatencyHistogram collide = new LatencyHistogram();
+    final LatencyHistogram holes = new LatencyHistogram();
+    // the engine samples the tick thread's allocation counter once per this many ticks
+    static final int ALLOC_SAMPLE_TICKS = SimulationEngine.TICK_HZ;
+    // optional sources owned by the UI
+    private volatile LatencyHistogram render;
+    private volatile SnapshotExchange exchange;
+    private volatile EventLog events;
+    private volatile GcMonitor gc;
+
+    volatile int candidatePairs, contacts, alive, active, sleeping;
+    private volatile long totalContacts, droppedTicks;
+    private volatile double tickAllocBytes;
+    // tick thread: the last allocation sample
+    private Thread allocThread;
+    private long allocBytes, allocTicks;
+    private ObjectName name;
+
+    public LatencyHistogram getTickNanos() { return tick; }
+    public LatencyHistogram getLockWaitNanos() { return lockWait; }
+    public LatencyHistogram getIntegrateNanos() { return integrate; }
+    public LatencyHistogram getCollideNanos() { return collide; }
+    public LatencyHistogram getHolesNanos() { return holes; }
+    public LatencyHistogram getRenderNanos() { return render; }
+
+    public void setRenderNanos(LatencyHistogram h) { render = h; }
+    public void setExchange(SnapshotExchange ex) { exchange = ex; }
+    public void setEventLog(EventLog log) { events = log; }
+    public void setGcMonitor(GcMonitor m) { gc = m; }
+
+    // tick thread: counts of the tick just finished
+    void recordCounts(int pairs, int hits, int aliveBalls, int activeBalls, int sleepingBalls) {
+        candidatePairs = pairs;
+        contacts = hits;
+        totalContacts += hits;
+        alive = aliveBalls;
+        active = activeBalls;
+        sleeping = sleepingBalls;
+    }
+
+    // tick thread, every ALLOC_SAMPLE_TICKS ticks: bytes it allocated per tick since the
+    // last sample; a sample from another thread only starts a new window
+    void sampleAllocation(long ticks) {
+        long bytes = GcMonitor.threadAllocatedBytes();
+        Thread t = Thread.currentThread();
+        if (bytes >= 0 && t == allocThread && ticks > allocTicks) {
+            tickAllocBytes = (bytes - allocBytes) / (double) (ticks - allocTicks);
+        }
+        allocThread = t;
+        allocBytes = bytes;
+        allocTicks = ticks;
+    }
+
+    // Scheduler side: a tick that started more than one period after its slot was dropped
+    // from real time, even though the fixed-rate schedule still runs it.
+    public void recordLateness(long lateNanos, long periodNanos) {
+        if (lateNanos > periodNanos) droppedTicks++;
+    }
+
+    // Publishes this object as billiards:type=Simulation,name=<name> on the platform server.
+    public void register(String tableName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName n = new ObjectName("billiards:type=Simulation,name=" + ObjectName.quote(tableName));
+        if (server.isRegistered(n)) server.unregisterMBean(n);
+        server.registerMBean(this, n);
+        name = n;
+    }
+
+    public void unregister() {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+        name = null;
+    }
+
+    @Override public long getTicks() { return tick.getCount(); }
+    @Override public double getTickP50Micros() { return micros(tick, 50); }
+    @Override public double getTickP99Micros() { return micros(tick, 99); }
+    @Override public double getTickMaxMicros() { return tick.getMax() / 1e3; }
+    @Override public double getLockWaitP99Micros() { return micros(lockWait, 99); }
+    @Override public double getIntegrateP50Micros() { return micros(integrate, 50); }
+    @Override public double getIntegrateP99Micros() { return micros(integrate, 99); }
+    @Override public double getCollideP50Micros() { return micros(collide, 50); }
+    @Override public double getCollideP99Micros() { return micros(collide, 99); }
+    @Override public double getHolesP50Micros() { return micros(holes, 50); }
+    @Override public double getHolesP99Micros() { return micros(holes, 99); }
+    @Override public double getRenderP50Micros() { return micros(render, 50); }
+    @Override public double getRenderP99Micros() { return micros(render, 99); }
+    @Override public int getCandidatePairs() { return candidatePairs; }
+    @Override public int getContacts() { return contacts; }
+    @Override public long getTotalContacts() { return totalContacts; }
+    @Override public int getAliveBalls() { return alive; }
+    @Override public int getActiveBalls() { return active; }
+    @Override public int getSleepingBalls() { return sleeping; }
+    @Override public long getDroppedTicks() { return droppedTicks; }
+    @Override public long getSkippedFrames() { SnapshotExchange ex = exchange; return ex == null ? 0 : ex.getSkippedTicks(); }
+    @Override public long getEventsLogged() { EventLog l = events; return l == null ? 0 : l.getLogged(); }
+    @Override public long getEventsDropped() { EventLog l = events; return l == null ? 0 : l.getDropped(); }
+    @Override public double getTickAllocatedBytes() { return tickAllocBytes; }
+    @Override public double getAllocationRateMBps() { GcMonitor m = gc; return m == null ? 0 : m.getAllocationRate() / 1e6; }
+    @Override public long getGcPauses() { GcMonitor m = gc; return m == null ? 0 : m.getPauses(); }
+    @Override public long getGcPauseLastMillis() { GcMonitor m = gc; return m == null ? 0 : m.getLastPauseMillis(); }
+    @Override public long getGcPauseMaxMillis() { GcMonitor m = gc; return m == null ? 0 : m.getMaxPauseMillis(); }
+    @Override public long getGcPauseTotalMillis() { GcMonitor m = gc; return m == null ? 0 : m.getTotalPauseMillis(); }
+
+    @Override
+    public void reset() {
+        tick.reset(); lockWait.reset(); integrate.reset(); collide.reset(); holes.reset();
+        LatencyHistogram r = render;
+        if (r != null) r.reset();
+        GcMonitor m = gc;
+        if (m != null) m.reset();
+        totalContacts = 0;
+        droppedTicks = 0;
+    }
+
+    private static double micros(LatencyHistogram h, double p) {
+        return h == null ? 0 : h.percentile(p) / 1e3;
+    }
+}
@@ -0,0 +1,35 @@
+package billiards;
+
+// JMX view of SimulationMetrics; durations are in microseconds.
+public interface SimulationMetricsMBean {
+    long getTicks();
+    double getTickP50Micros();
+    double getTickP99Micros();
+    double getTickMaxMicros();
+    double getLockWaitP99Micros();
+    double getIntegrateP50Micros();
+    double getIntegrateP99Micros();
+    double getCollideP50Micros();
+    double getCollideP99Micros();
+    double getHolesP50Micros();
+    double getHolesP99Micros();
+    double getRenderP50Micros();
+    double getRenderP99Micros();
+    int getCandidatePairs();
+    int getContacts();
+    long getTotalContacts();
+    int getAliveBalls();
+    int getActiveBalls();
+    int getSleepingBalls();
+    long getDroppedTicks();
+    long getSkippedFrames();
+    long getEventsLogged();
+    long getEventsDropped();
+    double getTickAllocatedBytes();
+    double getAllocationRateMBps();
+    long getGcPauses();
+    long getGcPauseLastMillis();
+    long getGcPauseMaxMillis();
+    long getGcPauseTotalMillis();
+    void reset();
+}
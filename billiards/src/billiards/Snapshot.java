@@ -0,0 +1,51 @@
+package billiards;
+
+import java.awt.*;
+
+// One published frame of ball state. Only the engine writes it, and only while it
+// is the back buffer of a SnapshotExchange; readers treat it as immutable.
+public class Snapshot {
+    long tick = -1;
+    long seq = -1; // publish order, also covers republishes without a tick
+    long publishNanos;
+    int size;
+    double[] x = new double[0], y = new double[0];
+    int[] radius = new int[0], id = new int[0];
+    long[] alive = new long[0];
+    Color[] color = new Color[0];
+    // set by the reader when it takes this frame, so the writer can count skipped ticks
+    volatile boolean consumed;
+
+    public long getTick() { return tick; }
+    public long getPublishNanos() { return publishNanos; }
+    public int size() { return size; }
+    public int getId(int i) { return id[i]; }
+    public double getX(int i) { return x[i]; }
+    public double getY(int i) { return y[i]; }
+    public int getRadius(int i) { return radius[i]; }
+    public Color getColor(int i) { return color[i]; }
+    public boolean isAlive(int i) { return (alive[i >>> 6] & (1L << i)) != 0; }
+
+    void copyFrom(BallStore s, long tickNo, long seqNo) {
+        int n = s.size();
+        if (x.length < n) {
+            int c = Math.max(n, x.length * 2);
+            x = new double[c]; y = new double[c];
+            radius = new int[c]; id = new int[c];
+            color = new Color[c];
+        }
+        if (alive.length < s.alive.length) alive = new long[s.alive.length];
+        System.arraycopy(s.x, 0, x, 0, n);
+        System.arraycopy(s.y, 0, y, 0, n);
+        System.arraycopy(s.radius, 0, radius, 0, n);
+        System.arraycopy(s.id, 0, id, 0, n);
+        System.arraycopy(s.color, 0, color, 0, n);
+        System.arraycopy(s.alive, 0, alive, 0, s.alive.length);
+        for (int w = s.alive.length; w < alive.length; w++) alive[w] = 0L;
+        size = n;
+        tick = tickNo;
+        seq = seqNo;
+        publishNanos = System.nanoTime();
+        consumed = false;
+    }
+}
@@ -0,0 +1,43 @@
+package billiards;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Lock-free triple buffer between the physics tick (single writer) and the renderer
+// (single reader). The writer fills its back buffer and swaps it into the middle slot;
+// the reader swaps its front buffer with the middle slot only when that holds a newer
+// frame. Neither side ever waits for the other, and no frame is written while read.
+public class SnapshotExchange {
+    private final AtomicReference<Snapshot> middle = new AtomicReference<>(new Snapshot());
+    private Snapshot back = new Snapshot();   // writer-owned
+    private Snapshot front = new Snapshot();  // reader-owned
+    private long seq = 0;                     // writer-owned
+    private final AtomicLong skippedTicks = new AtomicLong();
+    private final AtomicLong staleFrames = new AtomicLong();
+
+    // Writer side: copy the store into the back buffer and make it the latest frame.
+    public void publish(BallStore store, long tick) {
+        back.copyFrom(store, tick, seq++);
+        Snapshot prev = middle.getAndSet(back);
+        // a frame the renderer never took was skipped
+        if (prev.seq >= 0 && !prev.consumed) skippedTicks.incrementAndGet();
+        back = prev;
+    }
+
+    // Reader side: the latest frame, or null before the first publish.
+    public Snapshot acquire() {
+        Snapshot m = middle.get();
+        if (m.seq > front.seq) {
+            front = middle.getAndSet(front);
+            front.consumed = true;
+        } else {
+            staleFrames.incrementAndGet();
+        }
+        return front.seq >= 0 ? front : null;
+    }
+
+    // ticks overwritten before the renderer saw them
+    public long getSkippedTicks() { return skippedTicks.get(); }
+    // renders that found no newer tick than the previous render
+    public long getStaleFrames() { return staleFrames.get(); }
+}
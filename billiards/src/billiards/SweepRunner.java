@@ -0,0 +1,224 @@
+package billiards;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sweeps maps x ball counts x seeds with headless runs, for tuning table layouts.
+// Every (map, ball count) pair is a cell; its seeds are split into chunks that run
+// single-threaded on a work-stealing pool, at most a few chunks per worker in flight,
+// and fold into the cell's fixed-size totals. A finished cell is written to the CSV at
+// once, so memory stays flat however many seeds run and rows arrive as cells complete.
+// A chunk that throws still counts towards its cell, whose row then holds only the runs
+// that finished; the failure is reported and the sweep exits with status 1.
+//
+// Usage: java -cp billiards.jar billiards.SweepRunner [--maps DIR] [--balls 8,32,200]
+//            [--seeds 1000] [--seed 1] [--duration 60] [--threads N] [--out sweep.csv]
+//
+// --maps runs every map file in DIR instead of the built-in maps, as in the other tools.
+public class SweepRunner {
+    private static final int SEEDS_PER_CHUNK = 16;
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final String HEADER = "map,map_name,balls,runs,pocket_rate,first_none_rate,"
+            + "first_time_mean,first_time_sd,top_first_ball,top_first_share,stop_time_mean,stop_time_sd";
+
+    // Totals of one (map, ball count) cell; merged under its own lock.
+    static class Cell {
+        final int mapIndex, balls;
+        final String mapName;
+        final int chunks;
+        int runs, chunksDone, chunksFailed, noFirst;
+        long pocketed;
+        double firstSum, firstSum2, stopSum, stopSum2;
+        final int[] firstCount; // by ball id
+
+        Cell(int mapIndex, String mapName, int balls, int chunks) {
+            this.mapIndex = mapIndex; this.mapName = mapName; this.balls = balls; this.chunks = chunks;
+            this.firstCount = new int[balls + 1];
+        }
+
+        // folds in one finished run
+        synchronized void add(HeadlessRunner.RunResult r) {
+            runs++;
+            pocketed += r.holeOrder.size();
+            HeadlessRunner.Fall f = r.first();
+            if (f == null) {
+                noFirst++;
+            } else {
+                firstSum += f.timeS; firstSum2 += f.timeS * f.timeS;
+                if (f.ballId >= 0 && f.ballId < firstCount.length) firstCount[f.ballId]++;
+            }
+            stopSum += r.stopTimeS; stopSum2 += r.stopTimeS * r.stopTimeS;
+        }
+
+        // a chunk that stopped at seed with t; its later seeds do not run
+        synchronized void fail(long seed, Throwable t) {
+            chunksFailed++;
+            System.err.printf("  %-30s %4d balls seed %d failed: %s%n", mapName, balls, seed, t);
+        }
+
+        // true once the last chunk reported, finished or failed
+        synchronized boolean chunkDone() { return ++chunksDone == chunks; }
+
+        double pocketRate() { return runs == 0 ? 0 : pocketed / ((double) runs * balls); }
+
+        synchronized String csv() {
+            int firsts = runs - noFirst, top = 0;
+            for (int id = 1; id < firstCount.length; id++) if (firstCount[id] > firstCount[top]) top = id;
+            return String.format(Locale.ROOT, "%d,%s,%d,%d,%.4f,%.4f,%.4f,%.4f,%s,%.4f,%.4f,%.4f",
+                    mapIndex, quote(mapName), balls, runs, pocketRate(), runs == 0 ? 0 : noFirst / (double) runs,
+                    mean(firstSum, firsts), sd(firstSum, firstSum2, firsts),
+                    firsts == 0 ? "" : String.valueOf(top), firsts == 0 ? 0 : firstCount[top] / (double) runs,
+                    mean(stopSum, runs), sd(stopSum, stopSum2, runs));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mapDir = null, out = "sweep.csv";
+        int[] counts = {8, 16, 32, 64, 128, 200};
+        int seeds = 1000, threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1L;
+        double duration = 60.0;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) usage("missing value for " + a);
+            String v = args[++i];
+            switch (a) {
+                case "--maps": mapDir = v; break;
+                case "--balls": counts = parseList(v); break;
+                case "--seeds": seeds = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--duration": duration = Double.parseDouble(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--out": out = v; break;
+                default: usage("unknown option " + a);
+            }
+        }
+        if (seeds < 1 || threads < 1) usage("seeds and threads must be positive");
+        for (int n : counts) if (n < 1) usage("ball counts must be positive");
+        List<MapDef> maps = loadMaps(mapDir);
+
+        List<Cell> cells = new ArrayList<>();
+        int chunks = (seeds + SEEDS_PER_CHUNK - 1) / SEEDS_PER_CHUNK;
+        for (int m = 0; m < maps.size(); m++) {
+            for (int n : counts) cells.add(new Cell(m, maps.get(m).getName(), n, chunks));
+        }
+        long total = (long) cells.size() * seeds;
+        System.err.printf("sweep: %d maps x %d ball counts x %d seeds = %d runs on %d threads -> %s%n",
+                maps.size(), counts.length, seeds, total, threads, out);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore inFlight = new Semaphore(threads * CHUNKS_PER_WORKER);
+        AtomicLong done = new AtomicLong();
+        long t0 = System.nanoTime();
+        try (BufferedWriter csv = Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8)) {
+            csv.write(HEADER);
+            csv.newLine();
+            csv.flush();
+            for (Cell cell : cells) {
+                for (int c = 0; c < chunks; c++) {
+                    long from = seed + (long) c * SEEDS_PER_CHUNK, to = seed + Math.min(seeds, (c + 1L) * SEEDS_PER_CHUNK);
+                    inFlight.acquire();
+                    double dur = duration;
+                    pool.execute(() -> {
+                        long s = from;
+                        try {
+                            for (; s < to; s++) {
+                                cell.add(HeadlessRunner.run(maps, cell.mapIndex, cell.balls, s, dur, 1));
+                                done.incrementAndGet();
+                            }
+                        } catch (RuntimeException | Error t) {
+                            cell.fail(s, t);
+                            throw t;
+                        } finally {
+                            try {
+                                if (cell.chunkDone()) finish(cell, csv, done.get(), total, t0);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.err.printf("sweep: %d runs in %.1f s, %.1f simulations/s%n", done.get(), secs, done.get() / secs);
+
+        // the handful of cells is all that is kept; rank layouts by how much they pocket
+        cells.sort((a, b) -> Double.compare(b.pocketRate(), a.pocketRate()));
+        System.out.println("rank  pocket  map                            balls");
+        for (int k = 0; k < cells.size(); k++) {
+            Cell c = cells.get(k);
+            System.out.printf(Locale.ROOT, "%4d  %5.1f%%  %-30s %5d%n", k + 1, c.pocketRate() * 100, c.mapName, c.balls);
+        }
+        int failed = 0;
+        for (Cell c : cells) failed += c.chunksFailed;
+        if (failed > 0) {
+            System.err.printf("sweep: %d chunks failed; their cells' rows count only the runs that finished%n", failed);
+            System.exit(1);
+        }
+    }
+
+    private static void finish(Cell cell, BufferedWriter csv, long done, long total, long t0) {
+        synchronized (csv) {
+            try {
+                csv.write(cell.csv());
+                csv.newLine();
+                csv.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.err.printf("  %-30s %4d balls done  [%d/%d runs, %.1f sims/s]%s%n", cell.mapName, cell.balls,
+                done, total, done / secs, cell.chunksFailed == 0 ? "" : ", " + cell.chunksFailed + " chunks failed");
+    }
+
+    // the map files in dir, or the built-in maps without one
+    private static List<MapDef> loadMaps(String dir) {
+        if (dir == null) return Maps.defaults();
+        try {
+            return Maps.loadAll(Paths.get(dir));
+        } catch (IOException e) {
+            usage(e.getMessage());
+            return null;
+        }
+    }
+
+    private static double mean(double sum, int n) { return n == 0 ? 0 : sum / n; }
+
+    private static double sd(double sum, double sum2, int n) {
+        if (n < 2) return 0;
+        double m = sum / n;
+        return Math.sqrt(Math.max(0, (sum2 - n * m * m) / (n - 1)));
+    }
+
+    private static String quote(String s) {
+        return s.indexOf(',') < 0 && s.indexOf('"') < 0 ? s : '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static int[] parseList(String s) {
+        String[] w = s.split(",");
+        int[] r = new int[w.length];
+        for (int i = 0; i < w.length; i++) r[i] = Integer.parseInt(w[i].trim());
+        return r;
+    }
+
+    private static void usage(String msg) {
+        System.err.println(msg);
+        System.err.println("usage: SweepRunner [--maps DIR] [--balls 8,32,200] [--seeds N] [--seed S] [--duration SEC] [--threads T] [--out FILE]");
+        System.exit(2);
+    }
+}
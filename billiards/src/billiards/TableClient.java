@@ -0,0 +1,169 @@
+package billiards;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Follows one table of a TableServer: a virtual thread reads the stream, decodes it
+// (ReplayDecoder) and publishes every tick to a SnapshotExchange, which a renderer
+// reads exactly like a local engine's. Ticks the server dropped because this client
+// fell behind show up as missed ticks.
+public class TableClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final String address;
+    private final int table, tableCount;
+    private final List<MapDef> maps;
+    private final ReplayDecoder decoder;
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+    private byte[] body = new byte[1 << 12]; // reader thread only
+    private Thread reader;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // from the last TABLE record
+    private volatile int mapIndex;
+    private volatile long seed, stopTick;
+    private volatile int ballCount;
+    // stream totals
+    private volatile long bytesRead, records, missedTicks, resyncs;
+
+    // Connects and reads the server's header; maps must hold every map the server plays.
+    public TableClient(String host, int port, int table, List<MapDef> maps) throws IOException {
+        this.table = table;
+        this.maps = List.copyOf(maps);
+        this.address = host + ":" + port;
+        socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(table);
+            out.flush();
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            if (in.readInt() != TableServer.MAGIC) throw new IOException(address + " is not a table server");
+            int version = in.readInt();
+            if (version != TableServer.VERSION) throw new IOException("unsupported server version " + version);
+            int quant = in.readInt();
+            double dt = in.readDouble();
+            tableCount = in.readInt();
+            if (table < 0 || table >= tableCount) {
+                throw new IOException("no table " + table + " on " + address + ", it hosts 0.." + (tableCount - 1));
+            }
+            decoder = new ReplayDecoder(quant, dt);
+            bytesRead = TableServer.HEADER_SIZE;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Starts following the stream.
+    public void start() {
+        reader = Thread.ofVirtual().name("table-client").start(this::readLoop);
+    }
+
+    public SnapshotExchange getSnapshots() { return snapshots; }
+    public String getAddress() { return address; }
+    public int getTable() { return table; }
+    public int getTableCount() { return tableCount; }
+    // index into the maps passed in; 0 until the first TABLE record
+    public int getMapIndex() { return mapIndex; }
+    public long getSeed() { return seed; }
+    public int getBallCount() { return ballCount; }
+    public long getStopTick() { return stopTick; }
+    public long getBytesRead() { return bytesRead; }
+    public long getRecords() { return records; }
+    public long getMissedTicks() { return missedTicks; }
+    // keyframes that did not follow the previous tick, i.e. the server resynced us
+    public long getResyncs() { return resyncs; }
+    public boolean isConnected() { return !closed && failure == null; }
+    // why the stream ended, or null while it runs or after close()
+    public IOException getFailure() { return failure; }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+        if (reader != null) {
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (!closed) {
+                int type = in.read();
+                if (type < 0) throw new EOFException("server closed the stream");
+                int len = (int) varint();
+                if (body.length < len) body = new byte[Math.max(len, body.length * 2)];
+                in.readFully(body, 0, len);
+                ByteBuffer b = ByteBuffer.wrap(body, 0, len);
+                bytesRead += 1 + varintSize(len) + len;
+                records++;
+                if (type == TableServer.TABLE) {
+                    tableInfo(b);
+                    continue;
+                }
+                long prev = decoder.getTick();
+                decoder.decode(type, b);
+                long t = decoder.getTick();
+                if (prev >= 0 && t > prev + 1) {
+                    missedTicks += t - prev - 1;
+                    if (type == ReplayRecorder.KEYFRAME) resyncs++;
+                }
+                snapshots.publish(decoder.getStore(), t);
+            }
+        } catch (IOException e) {
+            if (!closed) failure = e;
+        }
+    }
+
+    private void tableInfo(ByteBuffer b) throws IOException {
+        ReplayDecoder.varint(b); // table index, already known
+        byte[] name = new byte[(int) ReplayDecoder.varint(b)];
+        b.get(name);
+        String mapName = new String(name, StandardCharsets.UTF_8);
+        seed = ReplayDecoder.varint(b);
+        ballCount = (int) ReplayDecoder.varint(b);
+        stopTick = ReplayDecoder.varint(b);
+        for (int i = 0; i < maps.size(); i++) {
+            if (maps.get(i).getName().equals(mapName)) {
+                mapIndex = i;
+                return;
+            }
+        }
+        throw new IOException("the server plays map " + mapName + ", which this client does not have (see --maps)");
+    }
+
+    private long varint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int x = in.read();
+            if (x < 0) throw new EOFException("truncated record header");
+            v |= (long) (x & 0x7F) << shift;
+            if (x < 0x80) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int varintSize(long v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+}
@@ -0,0 +1,580 @@
+package billiards;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Draws a table and its balls. With caching on, the static map (background, cloth,
+// border, obstacles, holes, zones) is drawn once into an image, and every ball is blitted from a
+// sprite atlas holding one pre-rendered numbered ball per id; a frame is then one
+// image copy plus one small copy per ball, with no per-frame Color, Stroke, String or
+// FontMetrics work. Caching off draws everything directly, as the panel always did.
+// Sprites are looked up by id and rebuilt whenever an id's radius or colour changes.
+// Given the frame time, balls are drawn between the last two published ticks.
+//
+// The view can zoom into and pan over the table, and balls outside it are skipped.
+// Each frame picks a level of detail for the balls: numbered sprites, plain discs once
+// balls are under LABEL_PX on screen, and a heatmap of ball density or speed once they
+// are under MIN_DISC_PX or more than HEATMAP_BALLS are in view. The heatmap is binned
+// into an int[] raster in parallel, so its cost hardly grows with the count. Balls get
+// a time budget per frame: a frame past twice the budget is cut short, and when the
+// frames' smoothed cost exceeds it the following frames draw one level lower. A level
+// up is tried again after a run of frames within budget, and waited for longer after
+// each try that failed.
+//
+// Use from one rendering thread; only setCached(), invalidateSprites() and the view,
+// heat and budget setters may be called from elsewhere.
+public class TableRenderer {
+    public enum Detail { SPRITES, DISCS, HEATMAP }
+    public enum Heat { DENSITY, SPEED }
+
+    // Which part of the table fills the canvas: table point (x, y) is drawn at
+    // ((x - ox) * scale, (y - oy) * scale). ALL shows the whole table.
+    public static final class View {
+        public static final View ALL = new View(1, 0, 0);
+        public static final double MAX_SCALE = 32;
+        public final double scale, ox, oy;
+
+        public View(double scale, double ox, double oy) {
+            this.scale = scale; this.ox = ox; this.oy = oy;
+        }
+
+        public boolean isAll() { return scale == 1 && ox == 0 && oy == 0; }
+
+        // scaled by factor about screen point (sx, sy), within a w x h table
+        public View zoom(double factor, double sx, double sy, int w, int h) {
+            double s = Math.max(1, Math.min(MAX_SCALE, scale * factor));
+            return clamp(s, ox + sx / scale - sx / s, oy + sy / scale - sy / s, w, h);
+        }
+
+        // moved with a drag of (dx, dy) screen pixels
+        public View pan(double dx, double dy, int w, int h) {
+            return clamp(scale, ox - dx / scale, oy - dy / scale, w, h);
+        }
+
+        private static View clamp(double s, double x, double y, int w, int h) {
+            return s == 1 ? ALL : new View(s, Math.max(0, Math.min(w - w / s, x)), Math.max(0, Math.min(h - h / s, y)));
+        }
+    }
+
+    public static final double LABEL_PX = 6;      // smaller balls on screen are drawn without numbers
+    public static final double MIN_DISC_PX = 1.5; // and smaller ones only in the heatmap
+    public static final int HEATMAP_BALLS = 20_000;
+    public static final long DEFAULT_BUDGET_NANOS = 8_000_000L; // half a 60 Hz frame
+    private static final int HEAT_CELL = 4;         // heatmap cell, screen pixels
+    private static final int HEAT_CHUNK = 8192;     // balls binned per task
+    private static final int RECOVER_FRAMES = 60;   // frames in budget before trying a level up
+    private static final int MAX_RECOVER_FRAMES = 1920; // the wait after repeated failed tries
+    private static final int CHECK_EVERY = 256;     // balls drawn between budget checks
+
+    static final Color BACKGROUND = new Color(30,120,30);
+    private static final Color CLOTH = new Color(40,100,40);
+    private static final Color BORDER = new Color(80,50,20);
+    private static final Color HOLE = new Color(20,20,20);
+    private static final Color START_ZONE = new Color(50,50,80);
+    private static final Color GOAL_ZONE = new Color(80,50,50);
+    private static final Stroke BORDER_STROKE = new BasicStroke(6);
+    private static final Stroke ZONE_STROKE = new BasicStroke(2);
+    private static final Stroke RAIL_STROKE = new BasicStroke(20, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    private static final int ATLAS_WIDTH = 1024;
+    private static final float HEAT_ALPHA = 0.8f;
+    private static final int[] HEAT_PALETTE = palette();
+
+    private final int width, height;
+    private volatile boolean cached = true;
+    private volatile boolean invalid;
+
+    // static layer and what it was drawn for
+    private BufferedImage table;
+    private MapDef tableMap;
+    private Rectangle tableBound;
+
+    // sprite atlas; per id: cell origin, size, and the offset of the cell from the ball's top-left
+    private BufferedImage atlas;
+    private Font atlasFont;
+    private int[] spriteX = new int[0], spriteY, spriteW, spriteH, spriteOx, spriteOy;
+    private int[] spriteR, spriteRgb; // what each id was drawn with; radius 0 = none
+    private int rebuilds;
+
+    // the last two distinct frames seen, for interpolation
+    private double[] prevX = new double[0], prevY = new double[0], lastX = new double[0], lastY = new double[0];
+    private double[] drawX = new double[0], drawY = new double[0];
+    private long lastSeq = -1, prevTick, lastTick, prevNanos, lastNanos;
+    private int prevSize = -1, lastSize = -1;
+    private boolean motion; // prev and last hold two ticks of the current layout
+
+    private volatile View view = View.ALL;
+    private volatile Heat heat = Heat.DENSITY;
+    private volatile long budgetNanos = DEFAULT_BUDGET_NANOS;
+    private volatile boolean lod = true;
+    // level of detail: the budget's floor, and what the last frame did
+    private Detail floor = Detail.SPRITES;
+    private int calm, wait = RECOVER_FRAMES;
+    private boolean trying; // floor was just raised to see if the budget allows it
+    private View floorView;  // the view the floor was found for
+    private double cost;    // smoothed ball cost at the current level, 0 after a change
+    private long setupNanos; // this frame's atlas rebuild, not charged to the budget
+    private Detail detail = Detail.SPRITES;
+    private int visible, drawn;
+    private long ballNanos, cutFrames;
+
+    // rail around a polygon table, and its map
+    private Area rail;
+    private MapDef railMap;
+
+    // heatmap raster, per-task bins and per-cell totals
+    private BufferedImage heatImage;
+    private int[] heatPixels;
+    private int[][] heatCount = new int[0][], heatSpeed = new int[0][];
+    private int[] heatRowMax;
+
+    public TableRenderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public boolean isCached() { return cached; }
+    public void setCached(boolean cached) { this.cached = cached; }
+    // how often the atlas was rebuilt, e.g. after a respawn changed the radius
+    public int getAtlasRebuilds() { return rebuilds; }
+
+    public View getView() { return view; }
+    public void setView(View v) { view = v; }
+    // the setters below keep the view on the table; call them from one thread
+    public void zoom(double factor, double sx, double sy) { view = view.zoom(factor, sx, sy, width, height); }
+    public void pan(double dx, double dy) { view = view.pan(dx, dy, width, height); }
+    public Heat getHeat() { return heat; }
+    public void setHeat(Heat h) { heat = h; }
+    public long getBudgetNanos() { return budgetNanos; }
+    public void setBudgetNanos(long n) { budgetNanos = n; }
+    public boolean isLod() { return lod; }
+    // false draws every ball as a numbered sprite however small or many, as before
+    public void setLod(boolean on) { lod = on; }
+    // what the last frame drew: its level, the balls in view and how many were drawn one by one
+    public Detail getDetail() { return detail; }
+    public int getVisibleBalls() { return visible; }
+    public int getDrawnBalls() { return drawn; }
+    public long getBallNanos() { return ballNanos; }
+    // frames whose balls ran out of budget before all were drawn
+    public long getCutFrames() { return cutFrames; }
+
+    // Drops the sprites, e.g. after the balls were respawned with another radius. The
+    // atlas also notices changed radii or colours by itself.
+    public void invalidateSprites() {
+        invalid = true;
+    }
+
+    // Background, cloth, border, obstacles, holes and zones.
+    public void paintTable(Graphics2D g, MapDef m, Rectangle bound) {
+        View v = view;
+        if (!v.isAll()) {
+            // drawn at scale so edges stay sharp; a few shapes, cheaper than scaling the image
+            AffineTransform old = g.getTransform();
+            g.scale(v.scale, v.scale);
+            g.translate(-v.ox, -v.oy);
+            drawTable(g, m, bound);
+            g.setTransform(old);
+            return;
+        }
+        if (!cached) {
+            drawTable(g, m, bound);
+            return;
+        }
+        if (table == null || m != tableMap || !bound.equals(tableBound)) {
+            table = g.getDeviceConfiguration().createCompatibleImage(width, height);
+            Graphics2D tg = table.createGraphics();
+            drawTable(tg, m, bound);
+            tg.dispose();
+            tableMap = m;
+            tableBound = new Rectangle(bound);
+        }
+        g.drawImage(table, 0, 0, null);
+    }
+
+    // The live balls of a snapshot, numbered, where the snapshot put them.
+    public void paintBalls(Graphics2D g, Snapshot snap) {
+        motion = false;
+        paintBalls(g, snap, snap.x, snap.y);
+    }
+
+    // The live balls as they were at nowNanos, one tick interval behind the newest
+    // snapshot: positions are blended between the last two ticks by publish time. After
+    // a respawn, a seek or a layout change there is nothing to blend and the snapshot is
+    // drawn as is.
+    public void paintBalls(Graphics2D g, Snapshot snap, long nowNanos) {
+        int n = snap.size();
+        if (snap.seq != lastSeq) {
+            if (lastX.length < n) {
+                int c = Math.max(n, lastX.length * 2);
+                prevX = new double[c]; prevY = new double[c]; lastX = new double[c]; lastY = new double[c];
+                drawX = new double[c]; drawY = new double[c];
+                lastSize = -1;
+            }
+            double[] tx = prevX, ty = prevY;
+            prevX = lastX; prevY = lastY; lastX = tx; lastY = ty;
+            prevTick = lastTick; prevNanos = lastNanos; prevSize = lastSize;
+            System.arraycopy(snap.x, 0, lastX, 0, n);
+            System.arraycopy(snap.y, 0, lastY, 0, n);
+            lastTick = snap.tick; lastNanos = snap.publishNanos; lastSize = n; lastSeq = snap.seq;
+        }
+        motion = prevSize == n && lastTick > prevTick;
+        if (prevSize != n || lastTick <= prevTick || lastNanos <= prevNanos) {
+            paintBalls(g, snap, snap.x, snap.y);
+            return;
+        }
+        double a = Math.max(0, Math.min(1, (nowNanos - lastNanos) / (double) (lastNanos - prevNanos)));
+        for (int i = 0; i < n; i++) {
+            drawX[i] = prevX[i] + (lastX[i] - prevX[i]) * a;
+            drawY[i] = prevY[i] + (lastY[i] - prevY[i]) * a;
+        }
+        paintBalls(g, snap, drawX, drawY);
+    }
+
+    private void paintBalls(Graphics2D g, Snapshot snap, double[] xs, double[] ys) {
+        long t0 = System.nanoTime(), budget = budgetNanos;
+        setupNanos = 0;
+        View v = view;
+        if (v != floorView) {
+            // another view has other balls in it, and what they cost is not known yet
+            floorView = v;
+            floor = Detail.SPRITES;
+            wait = RECOVER_FRAMES;
+            trying = false;
+            calm = 0;
+        }
+        Detail want = Detail.SPRITES;
+        visible = countVisible(snap, xs, ys, v);
+        if (lod) {
+            want = choose(snap, v);
+            if (floor.compareTo(want) > 0) want = floor;
+        }
+        if (want != detail) cost = 0;
+        detail = want;
+        // past twice the budget a frame stops drawing balls one by one
+        long deadline = lod ? t0 + 2 * budget : Long.MAX_VALUE;
+        boolean done;
+        if (want == Detail.HEATMAP) {
+            paintHeat(g, snap, xs, ys, v);
+            drawn = 0;
+            done = true;
+        } else if (want == Detail.DISCS) {
+            done = paintDiscs(g, snap, xs, ys, v, deadline);
+        } else if (v.isAll()) {
+            done = paintSprites(g, snap, xs, ys, deadline);
+        } else {
+            done = paintZoomed(g, snap, xs, ys, v, deadline);
+        }
+        ballNanos = System.nanoTime() - t0 - setupNanos;
+        if (!lod) return;
+        if (!done) cutFrames++;
+        cost = cost == 0 ? ballNanos : 0.8 * cost + 0.2 * ballNanos;
+        if (!done || cost > budget) {
+            if (want != Detail.HEATMAP) floor = Detail.values()[want.ordinal() + 1];
+            // a failed try waits twice as long for the next
+            if (trying) wait = Math.min(MAX_RECOVER_FRAMES, 2 * wait);
+            trying = false;
+            calm = 0;
+        } else if (++calm >= wait) {
+            calm = 0;
+            if (trying) {
+                trying = false;
+                wait = RECOVER_FRAMES;
+            } else if (floor != Detail.SPRITES && floor == want) {
+                floor = Detail.values()[floor.ordinal() - 1];
+                trying = true;
+            }
+        }
+    }
+
+    // the level the balls in view call for, before the budget
+    private Detail choose(Snapshot snap, View v) {
+        if (visible > HEATMAP_BALLS) return Detail.HEATMAP;
+        int r = 0;
+        for (int i = 0; i < snap.size(); i++) if (snap.isAlive(i)) r = Math.max(r, snap.getRadius(i));
+        double px = r * v.scale;
+        return px < MIN_DISC_PX ? Detail.HEATMAP : px < LABEL_PX ? Detail.DISCS : Detail.SPRITES;
+    }
+
+    private int countVisible(Snapshot snap, double[] xs, double[] ys, View v) {
+        int c = 0;
+        for (int i = 0; i < snap.size(); i++) if (snap.isAlive(i) && inView(v, xs[i], ys[i], snap.getRadius(i))) c++;
+        return c;
+    }
+
+    private boolean inView(View v, double x, double y, int r) {
+        double w = width / v.scale, h = height / v.scale;
+        return x + r >= v.ox && x - r <= v.ox + w && y + r >= v.oy && y - r <= v.oy + h;
+    }
+
+    // Numbered balls at full size, as the panel always drew them; false if the deadline
+    // passed first.
+    private boolean paintSprites(Graphics2D g, Snapshot snap, double[] xs, double[] ys, long deadline) {
+        drawn = 0;
+        if (!cached) {
+            for (int i = 0; i < snap.size(); i++) {
+                if (!snap.isAlive(i)) continue;
+                drawBall(g, snap.getId(i), snap.getRadius(i), snap.getColor(i), xs[i], ys[i]);
+                if (++drawn % CHECK_EVERY == 0 && System.nanoTime() > deadline) return false;
+            }
+            return true;
+        }
+        if (invalid || atlas == null || !font(g).equals(atlasFont) || stale(snap)) {
+            invalid = false;
+            long t = System.nanoTime();
+            buildAtlas(g, snap);
+            setupNanos = System.nanoTime() - t;
+            deadline += setupNanos;
+        }
+        for (int i = 0; i < snap.size(); i++) {
+            if (!snap.isAlive(i)) continue;
+            int id = snap.getId(i), r = snap.getRadius(i);
+            int dx = (int) xs[i] - r + spriteOx[id];
+            int dy = (int) ys[i] - r + spriteOy[id];
+            int sx = spriteX[id], sy = spriteY[id], w = spriteW[id], h = spriteH[id];
+            g.drawImage(atlas, dx, dy, dx + w, dy + h, sx, sy, sx + w, sy + h, null);
+            if (++drawn % CHECK_EVERY == 0 && System.nanoTime() > deadline) return false;
+        }
+        return true;
+    }
+
+    // Numbered balls in view, drawn at the view's scale so numbers stay sharp.
+    private boolean paintZoomed(Graphics2D g, Snapshot snap, double[] xs, double[] ys, View v, long deadline) {
+        drawn = 0;
+        AffineTransform old = g.getTransform();
+        g.scale(v.scale, v.scale);
+        g.translate(-v.ox, -v.oy);
+        try {
+            for (int i = 0; i < snap.size(); i++) {
+                int r = snap.getRadius(i);
+                if (!snap.isAlive(i) || !inView(v, xs[i], ys[i], r)) continue;
+                drawBall(g, snap.getId(i), r, snap.getColor(i), xs[i], ys[i]);
+                if (++drawn % CHECK_EVERY == 0 && System.nanoTime() > deadline) return false;
+            }
+        } finally {
+            g.setTransform(old);
+        }
+        return true;
+    }
+
+    // Balls in view as plain filled circles, at least a pixel across.
+    private boolean paintDiscs(Graphics2D g, Snapshot snap, double[] xs, double[] ys, View v, long deadline) {
+        drawn = 0;
+        Color last = null;
+        for (int i = 0; i < snap.size(); i++) {
+            int r = snap.getRadius(i);
+            if (!snap.isAlive(i) || !inView(v, xs[i], ys[i], r)) continue;
+            Color c = snap.getColor(i);
+            if (c != last) g.setColor(last = c);
+            int d = Math.max(1, (int) (2 * r * v.scale));
+            g.fillOval((int) ((xs[i] - r - v.ox) * v.scale), (int) ((ys[i] - r - v.oy) * v.scale), d, d);
+            if (++drawn % CHECK_EVERY == 0 && System.nanoTime() > deadline) return false;
+        }
+        return true;
+    }
+
+    // Balls in view binned into HEAT_CELL squares, coloured by count, or by mean speed
+    // over the last two ticks when there are two. Tasks bin slices of the balls into
+    // their own rasters, then rows are summed and coloured in parallel.
+    private void paintHeat(Graphics2D g, Snapshot snap, double[] xs, double[] ys, View v) {
+        int cw = (width + HEAT_CELL - 1) / HEAT_CELL, ch = (height + HEAT_CELL - 1) / HEAT_CELL, cells = cw * ch;
+        int n = snap.size(), tasks = Math.max(1, (n + HEAT_CHUNK - 1) / HEAT_CHUNK);
+        boolean speed = heat == Heat.SPEED && motion;
+        if (heatImage == null) {
+            // one bit of alpha: scaling and drawing it costs a fraction of a blended image
+            DirectColorModel cm = new DirectColorModel(25, 0xFF0000, 0xFF00, 0xFF, 0x1000000);
+            heatImage = new BufferedImage(cm, cm.createCompatibleWritableRaster(cw, ch), false, null);
+            heatPixels = ((DataBufferInt) heatImage.getRaster().getDataBuffer()).getData();
+            heatRowMax = new int[ch];
+        }
+        if (heatCount.length < tasks) {
+            heatCount = new int[tasks][];
+            heatSpeed = new int[tasks][];
+        }
+        int[][] count = heatCount, sum = heatSpeed;
+        // px per simulated second between the last two ticks
+        double perTick = speed ? 1 / ((lastTick - prevTick) * SimulationEngine.DT) : 0;
+        double cell = HEAT_CELL / v.scale;
+        IntStream.range(0, tasks).parallel().forEach(t -> {
+            if (count[t] == null) {
+                count[t] = new int[cells];
+                sum[t] = new int[cells];
+            }
+            int[] c = count[t], s = sum[t];
+            Arrays.fill(c, 0);
+            if (speed) Arrays.fill(s, 0);
+            for (int i = t * HEAT_CHUNK, end = Math.min(n, i + HEAT_CHUNK); i < end; i++) {
+                if (!snap.isAlive(i)) continue;
+                int cx = (int) Math.floor((xs[i] - v.ox) / cell), cy = (int) Math.floor((ys[i] - v.oy) / cell);
+                if (cx < 0 || cy < 0 || cx >= cw || cy >= ch) continue;
+                int k = cy * cw + cx;
+                c[k]++;
+                if (speed) s[k] += (int) (Math.hypot(lastX[i] - prevX[i], lastY[i] - prevY[i]) * perTick);
+            }
+        });
+        int[] px = heatPixels, rowMax = heatRowMax;
+        // totals into the first task's rasters, as counts or mean speeds
+        IntStream.range(0, ch).parallel().forEach(y -> {
+            int max = 0;
+            for (int k = y * cw, end = k + cw; k < end; k++) {
+                int c = 0, s = 0;
+                for (int t = 0; t < tasks; t++) {
+                    c += count[t][k];
+                    if (speed) s += sum[t][k];
+                }
+                count[0][k] = c;
+                int val = speed ? (c == 0 ? 0 : s / c) : c;
+                sum[0][k] = val;
+                max = Math.max(max, val);
+            }
+            rowMax[y] = max;
+        });
+        int max = 0;
+        for (int m : rowMax) max = Math.max(max, m);
+        double scale = max == 0 ? 0 : speed ? 254.0 / max : 254.0 / Math.log1p(max);
+        IntStream.range(0, ch).parallel().forEach(y -> {
+            for (int k = y * cw, end = k + cw; k < end; k++) {
+                int val = sum[0][k];
+                px[k] = count[0][k] == 0 ? 0
+                        : HEAT_PALETTE[1 + (int) ((speed ? val : Math.log1p(val)) * scale)];
+            }
+        });
+        g.drawImage(heatImage, 0, 0, cw * HEAT_CELL, ch * HEAT_CELL, null);
+    }
+
+    // 0 transparent, then dark blue through cyan and yellow to red, opaque: the colours
+    // are blended over the cloth beforehand
+    private static int[] palette() {
+        int[] p = new int[256];
+        float[][] stops = {{0, 0, 0.4f}, {0, 0.8f, 1}, {1, 1, 0}, {1, 0, 0}};
+        for (int i = 1; i < 256; i++) {
+            float f = (i - 1) / 254f * (stops.length - 1);
+            int a = Math.min(stops.length - 2, (int) f);
+            float u = f - a;
+            int rgb = 0;
+            int[] cloth = {CLOTH.getRed(), CLOTH.getGreen(), CLOTH.getBlue()};
+            for (int c = 0; c < 3; c++) {
+                float heat = 255 * (stops[a][c] + (stops[a + 1][c] - stops[a][c]) * u);
+                rgb = rgb << 8 | Math.round(HEAT_ALPHA * heat + (1 - HEAT_ALPHA) * cloth[c]);
+            }
+            p[i] = 0x1000000 | rgb;
+        }
+        return p;
+    }
+
+    private void drawTable(Graphics2D g, MapDef m, Rectangle bound) {
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        Stroke old = g.getStroke();
+        if (m.isRectangular()) {
+            // draw table area
+            g.setColor(CLOTH);
+            g.fillRect(bound.x, bound.y, bound.width, bound.height);
+            // border
+            g.setColor(BORDER);
+            g.setStroke(BORDER_STROKE);
+            g.drawRect(bound.x-10, bound.y-10, bound.width+20, bound.height+20);
+        } else {
+            // cloth, and a rail just outside the cushion outline
+            Polygon table = m.getTable();
+            g.setColor(CLOTH);
+            g.fillPolygon(table);
+            if (m != railMap) {
+                rail = new Area(RAIL_STROKE.createStrokedShape(table));
+                rail.subtract(new Area(table));
+                railMap = m;
+            }
+            g.setColor(BORDER);
+            g.fill(rail);
+        }
+        g.setColor(BORDER);
+        for (Polygon p : m.getObstacles()) g.fillPolygon(p);
+        // draw holes
+        g.setColor(HOLE);
+        for (MapDef.Hole h : m.getHoles()) g.fillOval(h.x - h.radius, h.y - h.radius, h.radius*2, h.radius*2);
+        // start/goal zones
+        g.setColor(START_ZONE);
+        g.setStroke(ZONE_STROKE);
+        g.drawRect(m.getStartZone().x, m.getStartZone().y, m.getStartZone().width, m.getStartZone().height);
+        g.setColor(GOAL_ZONE);
+        g.drawRect(m.getGoalZone().x, m.getGoalZone().y, m.getGoalZone().width, m.getGoalZone().height);
+        g.setStroke(old);
+    }
+
+    private static void drawBall(Graphics2D g, int id, int r, Color c, double bx, double by) {
+        g.setColor(c);
+        int x = (int)(bx - r);
+        int y = (int)(by - r);
+        int d = r*2;
+        g.fillOval(x, y, d, d);
+        // number
+        g.setColor(Color.BLACK);
+        String s = String.valueOf(id);
+        FontMetrics fm = g.getFontMetrics();
+        int sw = fm.stringWidth(s);
+        int sh = fm.getAscent();
+        g.drawString(s, (int)bx - sw/2, (int)by + sh/2 - 2);
+    }
+
+    private static Font font(Graphics2D g) {
+        Font f = g.getFont();
+        return f != null ? f : new Font(Font.DIALOG, Font.PLAIN, 12);
+    }
+
+    private boolean stale(Snapshot snap) {
+        for (int i = 0; i < snap.size(); i++) {
+            int id = snap.getId(i);
+            if (id < 0 || id >= spriteR.length || spriteR[id] != snap.getRadius(i)
+                    || spriteRgb[id] != snap.getColor(i).getRGB()) return true;
+        }
+        return false;
+    }
+
+    // Lays out one sprite per id in rows and renders them exactly as drawBall would,
+    // including numbers that overhang small balls.
+    private void buildAtlas(Graphics2D g, Snapshot snap) {
+        int maxId = 0;
+        for (int i = 0; i < snap.size(); i++) maxId = Math.max(maxId, snap.getId(i));
+        int len = maxId + 1;
+        spriteX = new int[len]; spriteY = new int[len]; spriteW = new int[len]; spriteH = new int[len];
+        spriteOx = new int[len]; spriteOy = new int[len]; spriteR = new int[len]; spriteRgb = new int[len];
+        Color[] color = new Color[len];
+        atlasFont = font(g);
+        FontMetrics fm = g.getFontMetrics(atlasFont);
+        int cx = 0, cy = 0, rowH = 0;
+        for (int i = 0; i < snap.size(); i++) {
+            int id = snap.getId(i), r = snap.getRadius(i);
+            if (id < 0 || spriteR[id] != 0) continue;
+            // text position relative to the ball's top-left, as in drawBall
+            int sw = fm.stringWidth(String.valueOf(id));
+            int tx = r - sw/2, ty = r + fm.getAscent()/2 - 2;
+            int minX = Math.min(0, tx), minY = Math.min(0, ty - fm.getAscent());
+            int maxX = Math.max(2*r, tx + sw), maxY = Math.max(2*r, ty + fm.getDescent());
+            int w = maxX - minX + 1, h = maxY - minY + 1;
+            if (cx + w > ATLAS_WIDTH) {
+                cx = 0; cy += rowH; rowH = 0;
+            }
+            spriteX[id] = cx; spriteY[id] = cy; spriteW[id] = w; spriteH[id] = h;
+            spriteOx[id] = minX; spriteOy[id] = minY;
+            spriteR[id] = r; spriteRgb[id] = snap.getColor(i).getRGB();
+            color[id] = snap.getColor(i);
+            cx += w; rowH = Math.max(rowH, h);
+        }
+        atlas = g.getDeviceConfiguration().createCompatibleImage(ATLAS_WIDTH, Math.max(1, cy + rowH),
+                Transparency.TRANSLUCENT);
+        Graphics2D ag = atlas.createGraphics();
+        ag.setFont(atlasFont);
+        for (int id = 0; id < len; id++) {
+            int r = spriteR[id];
+            if (r == 0) continue;
+            // draw so that the ball's top-left lands at the cell origin minus the offset
+            drawBall(ag, id, r, color[id], spriteX[id] - spriteOx[id] + r, spriteY[id] - spriteOy[id] + r);
+        }
+        ag.dispose();
+        rebuilds++;
+    }
+}
@@ -0,0 +1,420 @@
+package billiards;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hosts many independent tables in one JVM and streams them to clients over TCP.
+//
+// Every table is a single-threaded engine stepped by a fixed-rate task on one shared,
+// core-sized scheduler; tables are phase-shifted across the tick period so their
+// ticks spread evenly over it. A table plays SIM_SECONDS like the panel, rests for
+// REST_SECONDS once time is up or every ball fell, and respawns with a new seed.
+//
+// Clients are served on virtual threads, one per connection, with plain blocking I/O.
+// A client sends the index of the table it wants (an int); the server answers with a
+// header (magic, version, quantum, dt, table count) and then the replay records of
+// ReplayRecorder: a TABLE record (map name, seed, ball count, stop tick) and a keyframe
+// whenever a client joins, falls behind or the table respawns, and one delta per tick
+// in between, which costs a few bytes for balls on a straight path. A table is encoded
+// once per tick, only while someone watches, and the message is shared by its clients.
+//
+// Back-pressure: the tick never waits for a client. Each client has a queue of
+// CLIENT_QUEUE messages behind a small socket buffer; one that overflows is emptied and
+// the client only takes the next keyframe, which the table sends on the following tick,
+// so a slow client sees fewer frames but never stale ones. A client whose queue has not
+// run empty for STALL_SECONDS is disconnected.
+//
+// Usage: java -cp billiards.jar billiards.TableServer [--port 7070] [--tables 16]
+//            [--balls 8] [--seed 1] [--threads N] [--maps DIR]
+public class TableServer implements AutoCloseable {
+    static final int MAGIC = 0x42545331; // "BTS1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    // record type next to ReplayRecorder's KEYFRAME and DELTA
+    static final byte TABLE = 3;
+    public static final int DEFAULT_PORT = 7070;
+    public static final long SIM_SECONDS = 60L;
+    static final long REST_SECONDS = 3L;
+    static final int CLIENT_QUEUE = SimulationEngine.TICK_HZ / 2;
+    // kernel send buffer per client, so a stalled client backs up into its queue soon
+    private static final int SEND_BUFFER = 1 << 16;
+    static final long STALL_SECONDS = 5L;
+    private static final long STALL_NANOS = STALL_SECONDS * 1_000_000_000L;
+
+    private final List<MapDef> maps;
+    private final List<Table> tables = new ArrayList<>();
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private final ServerSocket socket;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    // whole-server counters, fed by all tick and client threads
+    private final LatencyHistogram tickNanos = new LatencyHistogram();
+    private final LatencyHistogram lateNanos = new LatencyHistogram();
+    private final LongAdder ticks = new LongAdder(), lateTicks = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder(), framesDropped = new LongAdder();
+    private final LongAdder resyncs = new LongAdder(), evictions = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+
+    // Starts tableCount tables of ballCount balls on tick threads and listens on port
+    // (0 picks a free one) of the loopback interface. Table i plays map i mod maps.size()
+    // from seed + i; each respawn adds tableCount, so no two tables deal the same seed.
+    public TableServer(List<MapDef> maps, int tableCount, int ballCount, long seed, int threads, int port)
+            throws IOException {
+        this.maps = List.copyOf(maps);
+        socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        ticker = Executors.newScheduledThreadPool(threads);
+        long period = 1_000_000_000L / SimulationEngine.TICK_HZ;
+        for (int i = 0; i < tableCount; i++) {
+            Table t = new Table(i, i % this.maps.size(), ballCount, seed + i, tableCount);
+            tables.add(t);
+            long phase = period * i / tableCount;
+            t.first = System.nanoTime() + phase;
+            ticker.scheduleAtFixedRate(t::step, phase, period, TimeUnit.NANOSECONDS);
+        }
+        io.execute(this::accept);
+    }
+
+    public int getPort() { return socket.getLocalPort(); }
+    public int getTableCount() { return tables.size(); }
+    public Table getTable(int i) { return tables.get(i); }
+    // tick plus streaming, of all tables
+    public LatencyHistogram getTickNanos() { return tickNanos; }
+    // how far after its slot each tick started
+    public LatencyHistogram getLateNanos() { return lateNanos; }
+    public long getTicks() { return ticks.sum(); }
+    // ticks that started more than a period late, i.e. fell behind real time
+    public long getLateTicks() { return lateTicks.sum(); }
+    public long getBytesSent() { return bytesSent.sum(); }
+    // messages slow clients did not get
+    public long getFramesDropped() { return framesDropped.sum(); }
+    // keyframes sent because a client fell behind
+    public long getResyncs() { return resyncs.sum(); }
+    // clients disconnected for staying behind
+    public long getEvictions() { return evictions.sum(); }
+    public int getClients() { return connected.get(); }
+
+    public void resetCounters() {
+        tickNanos.reset();
+        lateNanos.reset();
+        ticks.reset();
+        lateTicks.reset();
+        bytesSent.reset();
+        framesDropped.reset();
+        resyncs.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        ticker.shutdownNow();
+        for (Client c : clients) c.disconnect();
+        io.shutdownNow();
+        try {
+            ticker.awaitTermination(1, TimeUnit.SECONDS);
+            io.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Table t : tables) t.engine.shutdown();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket s = socket.accept();
+                io.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (!closed) System.err.println("accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // One connection, on its own virtual thread: reads the table index, then writes the
+    // client's queue to the socket, batching whatever queued up into one flush.
+    private void serve(Socket s) {
+        Client c = new Client(s);
+        try (s) {
+            s.setTcpNoDelay(true);
+            s.setSendBufferSize(SEND_BUFFER);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+            int k = in.readInt();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ReplayRecorder.QUANT);
+            out.writeDouble(SimulationEngine.DT);
+            out.writeInt(tables.size());
+            out.flush();
+            if (k < 0 || k >= tables.size()) return;
+            clients.add(c);
+            connected.incrementAndGet();
+            tables.get(k).joining.add(c);
+            while (!closed) {
+                byte[] m = c.queue.poll();
+                if (m == null) {
+                    c.caughtUpNanos = System.nanoTime();
+                    m = c.queue.take();
+                }
+                int n = 0;
+                do {
+                    out.write(m);
+                    n += m.length;
+                } while ((m = c.queue.poll()) != null);
+                out.flush();
+                bytesSent.add(n);
+            }
+        } catch (IOException e) {
+            // the client went away, or was disconnected
+        } catch (InterruptedException e) {
+            // the server is closing
+        } finally {
+            c.gone = true;
+            if (clients.remove(c)) connected.decrementAndGet();
+        }
+    }
+
+    // One hosted table. Everything but the joining queue and the getters belongs to
+    // the tick task, which the scheduler never runs twice at once.
+    public final class Table {
+        private final int index, mapIndex, ballCount, seedStep;
+        private final BallStore store;
+        private final SimulationEngine engine;
+        private final ConcurrentLinkedQueue<Client> joining = new ConcurrentLinkedQueue<>();
+        private final List<Client> watching = new ArrayList<>();
+        private final ReplayEncoder encoder = new ReplayEncoder(Integer.MAX_VALUE);
+        private final ReplayEncoder.Frame frame = new ReplayEncoder.Frame();
+        private final ReplayEncoder.Bytes out = new ReplayEncoder.Bytes(), info = new ReplayEncoder.Bytes();
+        private final byte[] mapName;
+        private long first, runs;
+        private volatile long seed, stopTick;
+        private long endTick;         // tick the round ended, or -1 while it runs
+        private boolean respawned, keyNeeded;
+
+        Table(int index, int mapIndex, int ballCount, long seed, int seedStep) {
+            this.index = index;
+            this.mapIndex = mapIndex;
+            this.ballCount = ballCount;
+            this.seedStep = seedStep;
+            this.seed = seed;
+            MapDef m = maps.get(mapIndex);
+            mapName = m.getName().getBytes(StandardCharsets.UTF_8);
+            store = new BallStore(ballCount);
+            engine = new SimulationEngine(store, m, m.getBounds(), 1, SimulationEngine.DT);
+            deal();
+        }
+
+        public int getIndex() { return index; }
+        public MapDef getMap() { return maps.get(mapIndex); }
+        public long getSeed() { return seed; }
+        public long getTickCount() { return engine.getTickCount(); }
+        public SimulationMetrics getMetrics() { return engine.getMetrics(); }
+
+        // places a new table from the current seed; tick thread, or the constructor
+        private void deal() {
+            synchronized (store) {
+                BallPlacer.place(store, getMap(), ballCount, BallPlacer.radiusFor(ballCount), new Random(seed));
+            }
+            stopTick = engine.getTickCount() + SIM_SECONDS * SimulationEngine.TICK_HZ;
+            endTick = -1;
+            respawned = true;
+        }
+
+        private void step() {
+            long t0 = System.nanoTime();
+            long period = 1_000_000_000L / SimulationEngine.TICK_HZ;
+            long late = t0 - (first + runs++ * period);
+            lateNanos.record(late);
+            engine.getMetrics().recordLateness(late, period);
+            if (late > period) lateTicks.increment();
+            try {
+                engine.tick();
+                long now = engine.getTickCount();
+                if (now >= stopTick) engine.stopAll();
+                if (endTick < 0 && (now >= stopTick || store.aliveCount() == 0)) endTick = now;
+                if (endTick >= 0 && now >= endTick + REST_SECONDS * SimulationEngine.TICK_HZ) {
+                    seed += seedStep;
+                    deal();
+                }
+                stream(now);
+            } catch (RuntimeException e) {
+                // a periodic task that throws is never run again; keep the table alive
+                System.err.println("table " + index + ": " + e);
+            }
+            ticks.increment();
+            tickNanos.record(System.nanoTime() - t0);
+        }
+
+        // Encodes the tick once, if anyone watches, and queues it for every client.
+        private void stream(long now) {
+            for (Client c; (c = joining.poll()) != null; ) {
+                watching.add(c);
+                c.lagging = true; // until its first keyframe
+                keyNeeded = true;
+            }
+            watching.removeIf(c -> c.gone);
+            if (watching.isEmpty()) {
+                respawned = false;
+                return;
+            }
+            if (keyNeeded) encoder.requestKeyframe();
+            keyNeeded = false;
+            synchronized (store) {
+                encoder.capture(store, now, respawned, frame);
+            }
+            respawned = false;
+            out.len = 0;
+            if (frame.key) tableRecord(out);
+            encoder.encode(frame, out);
+            byte[] m = Arrays.copyOf(out.buf, out.len);
+            long nanos = System.nanoTime();
+            for (Client c : watching) offer(c, m, frame.key, nanos);
+        }
+
+        private void offer(Client c, byte[] m, boolean key, long nanos) {
+            if (!c.queue.isEmpty() && nanos - c.caughtUpNanos > STALL_NANOS) {
+                evictions.increment();
+                c.disconnect();
+                return;
+            }
+            if (c.lagging && !key) {
+                framesDropped.increment();
+                return;
+            }
+            if (c.queue.offer(m)) {
+                c.lagging = false;
+                return;
+            }
+            // the client fell a whole queue behind: drop its backlog and resync it
+            framesDropped.add(c.queue.size() + 1);
+            c.queue.clear();
+            c.lagging = true;
+            keyNeeded = true;
+            resyncs.increment();
+        }
+
+        private void tableRecord(ReplayEncoder.Bytes b) {
+            info.len = 0;
+            info.varint(index);
+            info.varint(mapName.length);
+            info.bytes(mapName);
+            info.varint(seed);
+            info.varint(ballCount);
+            info.varint(stopTick);
+            b.buf(1)[b.len++] = TABLE;
+            b.varint(info.len);
+            b.append(info);
+        }
+    }
+
+    // A connected client; its queue is filled by the tick task and drained by its
+    // connection thread.
+    private static final class Client {
+        final Socket socket;
+        final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(CLIENT_QUEUE);
+        volatile boolean gone;
+        // last time the connection thread found the queue empty
+        volatile long caughtUpNanos = System.nanoTime();
+        boolean lagging; // tick task only: waits for a keyframe
+
+        Client(Socket socket) { this.socket = socket; }
+
+        void disconnect() {
+            gone = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT, tables = 16, balls = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1L;
+        String mapDir = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) usage("missing value for " + a);
+            String v = args[++i];
+            switch (a) {
+                case "--port": port = Integer.parseInt(v); break;
+                case "--tables": tables = Integer.parseInt(v); break;
+                case "--balls": balls = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--threads": threads = Integer.parseInt(v); break;
+                case "--maps": mapDir = v; break;
+                default: usage("unknown option " + a);
+            }
+        }
+        if (tables < 1 || balls < 1 || threads < 1) usage("tables, balls and threads must be positive");
+        List<MapDef> maps = Maps.defaults();
+        if (mapDir != null) {
+            try {
+                maps = Maps.loadAll(Paths.get(mapDir));
+            } catch (IOException e) {
+                usage(e.getMessage());
+            }
+        }
+        TableServer server = null;
+        try {
+            server = new TableServer(maps, tables, balls, seed, threads, port);
+        } catch (IOException e) {
+            usage("cannot listen on port " + port + ": " + e.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.printf("serving %d tables of %d balls on %s:%d with %d tick threads%n", tables, balls,
+                InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), threads);
+        while (true) {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            LatencyHistogram h = server.getTickNanos(), l = server.getLateNanos();
+            System.out.printf("clients %d | tick p99 %.2f ms | late p99 %.2f ms, %d late ticks | %.1f KB/s sent | dropped %d, resyncs %d, evicted %d%n",
+                    server.getClients(), h.percentile(99) / 1e6, l.percentile(99) / 1e6, server.getLateTicks(),
+                    server.getBytesSent() / 10.0 / 1024, server.getFramesDropped(), server.getResyncs(),
+                    server.getEvictions());
+            server.resetCounters();
+        }
+    }
+
+    private static void usage(String msg) {
+        System.err.println(msg);
+        System.err.println("usage: TableServer [--port P] [--tables N] [--balls N] [--seed S] [--threads T] [--maps DIR]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,182 @@
+package billiards;
+
+import java.awt.*;
+import java.util.Arrays;
+
+// Broad-phase for ball collisions: balls are bucketed into square cells of one ball
+// diameter (counting sort, no per-cell lists) and candidate pairs are only taken from
+// a ball's own cell and its forward neighbours, so each pair is reported once.
+// findPairsTested() also runs the narrow-phase distance test on each pair, with SIMD.
+public class UniformGrid {
+    // keep the cell table proportional to the ball count on large, sparse tables
+    private static final int MIN_CELLS = 1024;
+
+    private double originX, originY, invCell;
+    private int cols, rows;
+    private int[] cellStart = new int[0]; // cells + 1 offsets into cellItems
+    private int[] cellItems = new int[0];
+    private int[] cellOf = new int[0];
+    private int[] pairA = new int[0], pairB = new int[0];
+    private long[] touching = new long[0]; // per pair, from findPairsTested()
+    private double[] sortX = new double[0], sortY = new double[0], sortR = new double[0];
+    private int[] slot = new int[0];    // per ball, its place in cell order
+    private int[] runEnd = new int[0];  // per place in cell order, the end of its pairs
+    private int pairCount;
+
+    // Buckets the active balls. cellSize should be at least the largest diameter.
+    public void build(Rectangle bounds, double cellSize, BallStore store) {
+        int n = store.size();
+        double[] xs = store.x, ys = store.y;
+        double size = Math.max(1.0, cellSize);
+        int maxCells = Math.max(MIN_CELLS, 2 * n);
+        while ((long) cellsFor(bounds.width, size) * cellsFor(bounds.height, size) > maxCells) size *= 2;
+        originX = bounds.x;
+        originY = bounds.y;
+        invCell = 1.0 / size;
+        cols = cellsFor(bounds.width, size);
+        rows = cellsFor(bounds.height, size);
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1) cellStart = new int[cells + 1];
+        if (cellItems.length < n) cellItems = new int[n];
+        if (cellOf.length < n) cellOf = new int[n];
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+
+        for (int i = 0; i < n; i++) {
+            if (!store.isAlive(i)) { cellOf[i] = -1; continue; }
+            int c = cellIndex(xs[i], ys[i]);
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+        // fill using cellStart[c] as a cursor, then shift back
+        for (int i = 0; i < n; i++) {
+            int c = cellOf[i];
+            if (c >= 0) cellItems[cellStart[c]++] = i;
+        }
+        for (int c = cells; c > 0; c--) cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
+    }
+
+    // Collects candidate pairs from the last build; returns the pair count.
+    public int findPairs() {
+        pairCount = 0;
+        for (int cy = 0; cy < rows; cy++) {
+            for (int cx = 0; cx < cols; cx++) {
+                int c = cy * cols + cx;
+                int from = cellStart[c], to = cellStart[c + 1];
+                if (from == to) continue;
+                for (int p = from; p < to; p++) {
+                    int a = cellItems[p];
+                    for (int q = p + 1; q < to; q++) addPair(a, cellItems[q]);
+                    if (cx + 1 < cols) addCell(a, c + 1);
+                    if (cy + 1 < rows) {
+                        if (cx > 0) addCell(a, c + cols - 1);
+                        addCell(a, c + cols);
+                        if (cx + 1 < cols) addCell(a, c + cols + 1);
+                    }
+                }
+            }
+        }
+        return pairCount;
+    }
+
+    // findPairs() that also marks, per pair, whether its balls overlap now (touching()),
+    // with the SIMD test VectorKernels.overlaps. The coordinates are copied into cell
+    // order first: a ball's forward neighbours are then two runs of consecutive entries,
+    // the rest of its own cell with the next one and three cells of the row below, so the
+    // test loads them contiguously instead of gathering by ball index. Pairs come in
+    // findPairs() order. Only call when VectorKernels can be loaded.
+    int findPairsTested(BallStore store) {
+        int n = cellStart[cols * rows];
+        if (sortX.length < n) {
+            sortX = new double[n]; sortY = new double[n]; sortR = new double[n];
+            runEnd = new int[n];
+        }
+        if (slot.length < store.size()) slot = new int[store.size()];
+        double[] xs = store.x, ys = store.y;
+        int[] radius = store.radius;
+        for (int p = 0; p < n; p++) {
+            int i = cellItems[p];
+            sortX[p] = xs[i]; sortY[p] = ys[i]; sortR[p] = radius[i];
+            slot[i] = p;
+        }
+        Arrays.fill(touching, 0L);
+        pairCount = 0;
+        for (int cy = 0; cy < rows; cy++) {
+            for (int cx = 0; cx < cols; cx++) {
+                int c = cy * cols + cx;
+                int from = cellStart[c], to = cellStart[c + 1];
+                if (from == to) continue;
+                int rowEnd = cx + 1 < cols ? cellStart[c + 2] : to;
+                int below = 0, belowEnd = 0;
+                if (cy + 1 < rows) {
+                    below = cellStart[c + cols - (cx > 0 ? 1 : 0)];
+                    belowEnd = cellStart[c + cols + (cx + 1 < cols ? 2 : 1)];
+                }
+                for (int p = from; p < to; p++) {
+                    addRun(p, p + 1, rowEnd);
+                    addRun(p, below, belowEnd);
+                    runEnd[p] = pairCount;
+                }
+            }
+        }
+        return pairCount;
+    }
+
+    public int pairA(int k) { return pairA[k]; }
+    public int pairB(int k) { return pairB[k]; }
+    // the pair lists themselves, valid up to the count findPairs() returned
+    int[] pairsA() { return pairA; }
+    int[] pairsB() { return pairB; }
+    // bit k set if pair k overlapped when findPairsTested() ran
+    long[] touching() { return touching; }
+    // Every pair from findPairsTested() that involves ball i comes before this index:
+    // its partners either follow it in cell order, so the pairs are its own, or precede
+    // it, so they were listed before its own.
+    int pairsEnd(int i) { return runEnd[slot[i]]; }
+
+    private void addCell(int a, int c) {
+        for (int q = cellStart[c], to = cellStart[c + 1]; q < to; q++) addPair(a, cellItems[q]);
+    }
+
+    // ball p (in cell order) against the entries [from, to)
+    private void addRun(int p, int from, int to) {
+        if (from >= to) return;
+        reserve(to - from);
+        int a = cellItems[p];
+        for (int q = from, k = pairCount; q < to; q++, k++) {
+            pairA[k] = a;
+            pairB[k] = cellItems[q];
+        }
+        VectorKernels.overlaps(sortX, sortY, sortR, p, from, to, touching, pairCount);
+        pairCount += to - from;
+    }
+
+    private void addPair(int a, int b) {
+        reserve(1);
+        pairA[pairCount] = a;
+        pairB[pairCount] = b;
+        pairCount++;
+    }
+
+    // room for count more pairs
+    private void reserve(int count) {
+        if (pairCount + count <= pairA.length) return;
+        int c = Math.max(Math.max(64, pairA.length * 2), pairCount + count);
+        pairA = Arrays.copyOf(pairA, c);
+        pairB = Arrays.copyOf(pairB, c);
+        touching = Arrays.copyOf(touching, (c + 63) >>> 6);
+    }
+
+    private int cellIndex(double x, double y) {
+        int cx = (int) ((x - originX) * invCell);
+        int cy = (int) ((y - originY) * invCell);
+        if (cx < 0) cx = 0; else if (cx >= cols) cx = cols - 1;
+        if (cy < 0) cy = 0; else if (cy >= rows) cy = rows - 1;
+        return cy * cols + cx;
+    }
+
+    private static int cellsFor(int extent, double size) {
+        return Math.max(1, (int) Math.ceil(extent / size));
+    }
+}
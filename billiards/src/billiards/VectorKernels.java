@@ -0,0 +1,110 @@
+package billiards;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD versions of the engine's hot loops on the jdk.incubator.vector API, one lane per
+// ball. Every lane does exactly the scalar loop's arithmetic in the same order, with no
+// fused operations, so results are bit-identical to the scalar path and a seed replays
+// the same with or without SIMD. Only load this class once the module is in the boot
+// layer: without --add-modules jdk.incubator.vector it cannot link.
+// The narrow-phase test reads coordinates that UniformGrid has copied into cell order,
+// so it only needs contiguous loads, never gathers by pair index.
+final class VectorKernels {
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    // ints with as many lanes as D, for radii
+    private static final VectorSpecies<Integer> I = D.length() >= 2
+            ? VectorSpecies.of(int.class, VectorShape.forBitSize(D.vectorBitSize() / 2)) : null;
+    private static final int L = D.length();
+    // the narrow phase's runs are a few balls long, so it uses at most four lanes
+    private static final VectorSpecies<Double> N = L > 4 ? DoubleVector.SPECIES_256 : D;
+    static final int NARROW_LANES = N.length();
+
+    private VectorKernels() { }
+
+    // true if the hardware gives more than one double lane
+    static boolean usable() { return L >= 2; }
+
+    // SimulationEngine.integrate for awake balls in [from, to): moves by v*dt, applies the
+    // per-tick damping and clamps to the walls. Sleeping and dead lanes are left untouched.
+    static void integrate(BallStore s, int from, int to, double dt, double damping,
+                          double left, double top, double right, double bottom) {
+        double[] x = s.x, y = s.y, vx = s.vx, vy = s.vy;
+        int[] radius = s.radius;
+        long[] awake = s.awake;
+        int i = from;
+        for (int end = from + ((to - from) / L) * L; i < end; i += L) {
+            VectorMask<Double> live = VectorMask.fromLong(D, bitsAt(awake, i));
+            if (!live.anyTrue()) continue;
+            DoubleVector r = (DoubleVector) IntVector.fromArray(I, radius, i).convertShape(VectorOperators.I2D, D, 0);
+            DoubleVector px = DoubleVector.fromArray(D, x, i), py = DoubleVector.fromArray(D, y, i);
+            DoubleVector pvx = DoubleVector.fromArray(D, vx, i), pvy = DoubleVector.fromArray(D, vy, i);
+            DoubleVector nx = px.add(pvx.mul(dt));
+            DoubleVector ny = py.add(pvy.mul(dt));
+            DoubleVector nvx = pvx.mul(damping);
+            DoubleVector nvy = pvy.mul(damping);
+
+            // bounce on walls, in the scalar order
+            VectorMask<Double> m = nx.sub(r).lt(left);
+            nx = nx.blend(r.add(left), m);
+            nvx = nvx.blend(nvx.abs(), m);
+            m = nx.add(r).compare(VectorOperators.GT, right);
+            nx = nx.blend(r.neg().add(right), m);
+            nvx = nvx.blend(nvx.abs().neg(), m);
+            m = ny.sub(r).lt(top);
+            ny = ny.blend(r.add(top), m);
+            nvy = nvy.blend(nvy.abs(), m);
+            m = ny.add(r).compare(VectorOperators.GT, bottom);
+            ny = ny.blend(r.neg().add(bottom), m);
+            nvy = nvy.blend(nvy.abs().neg(), m);
+
+            nx.intoArray(x, i, live); ny.intoArray(y, i, live);
+            nvx.intoArray(vx, i, live); nvy.intoArray(vy, i, live);
+        }
+        SimulationEngine.integrateScalar(s, i, to, dt, damping, left, top, right, bottom);
+    }
+
+    // The narrow-phase distance test of ball p against the balls [from, to), all in cell
+    // order (UniformGrid.findPairsTested): sets bit at + (q - from) of touching for every
+    // q that collide() would find overlapping. That is the scalar d2 >= minDist^2 test,
+    // negated, so the two agree on every input.
+    static void overlaps(double[] x, double[] y, double[] r, int p, int from, int to, long[] touching, int at) {
+        double px = x[p], py = y[p], pr = r[p];
+        int q = from;
+        if (to - from >= NARROW_LANES) {
+            DoubleVector ax = DoubleVector.broadcast(N, px), ay = DoubleVector.broadcast(N, py);
+            DoubleVector ar = DoubleVector.broadcast(N, pr);
+            for (int end = from + ((to - from) / NARROW_LANES) * NARROW_LANES; q < end; q += NARROW_LANES) {
+                DoubleVector dx = DoubleVector.fromArray(N, x, q).sub(ax);
+                DoubleVector dy = DoubleVector.fromArray(N, y, q).sub(ay);
+                DoubleVector min = DoubleVector.fromArray(N, r, q).add(ar);
+                DoubleVector d2 = dx.mul(dx).add(dy.mul(dy));
+                long hits = d2.compare(VectorOperators.GE, min.mul(min)).not().toLong();
+                for (; hits != 0; hits &= hits - 1) {
+                    int k = at + (q - from) + Long.numberOfTrailingZeros(hits);
+                    touching[k >>> 6] |= 1L << k;
+                }
+            }
+        }
+        // the tail, and the short runs of sparse tables, lane by lane
+        for (; q < to; q++) {
+            double dx = x[q] - px, dy = y[q] - py, min = r[q] + pr;
+            if (!(dx*dx + dy*dy >= min*min)) {
+                int k = at + (q - from);
+                touching[k >>> 6] |= 1L << k;
+            }
+        }
+    }
+
+    // L bits of a bitset starting at index i, lowest lane first
+    private static long bitsAt(long[] set, int i) {
+        int w = i >>> 6, sh = i & 63;
+        long bits = set[w] >>> sh;
+        if (sh + L > 64 && w + 1 < set.length) bits |= set[w + 1] << (64 - sh);
+        return bits;
+    }
+}